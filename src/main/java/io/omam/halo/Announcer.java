@@ -37,25 +37,29 @@ import static io.omam.halo.HaloProperties.PROBING_INTERVAL;
 import static io.omam.halo.HaloProperties.PROBING_TIMEOUT;
 import static io.omam.halo.HaloProperties.TTL;
 import static io.omam.halo.MulticastDnsSd.CLASS_IN;
-import static io.omam.halo.MulticastDnsSd.FLAGS_AA;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
 import static io.omam.halo.MulticastDnsSd.TYPE_ANY;
 import static io.omam.halo.MulticastDnsSd.TYPE_SRV;
-import static io.omam.halo.MulticastDnsSd.uniqueClass;
+import static io.omam.halo.MulticastDnsSd.toLowerCase;
 
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
-import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import io.omam.halo.DnsMessage.Builder;
 import io.omam.halo.SequentialBatchExecutor.FutureBatch;
@@ -70,8 +74,8 @@ final class Announcer implements AutoCloseable {
      */
     private static final class AnnounceTask implements Callable<Void> {
 
-        /** the service to announce. */
-        private final Service service;
+        /** the announcement of each service. */
+        private final List<ServiceAnnouncement> announcements;
 
         /** service time to live; */
         private final Duration ttl;
@@ -82,41 +86,20 @@ final class Announcer implements AutoCloseable {
         /**
          * Constructor.
          *
-         * @param aService service to announce
+         * @param someAnnouncements announcement of each service
          * @param aTtl service time to live
          * @param haloHelper halo helper
          */
-        AnnounceTask(final Service aService, final Duration aTtl, final HaloHelper haloHelper) {
-            service = aService;
+        AnnounceTask(final List<ServiceAnnouncement> someAnnouncements, final Duration aTtl,
+                final HaloHelper haloHelper) {
+            announcements = someAnnouncements;
             ttl = aTtl;
             halo = haloHelper;
         }
 
         @Override
         public final Void call() throws Exception {
-            final Instant now = halo.now();
-            final String hostname = service.hostname();
-            final Attributes attributes = service.attributes();
-            final String serviceName = service.name();
-            final short unique = uniqueClass(CLASS_IN);
-            /* no stamp when announcing, TTL will be the one given. */
-            final Optional<Instant> stamp = Optional.empty();
-            final Builder builder = DnsMessage
-                .response(FLAGS_AA)
-                .addAnswer(new PtrRecord(service.registrationPointerName(), CLASS_IN, ttl, now, serviceName),
-                        stamp)
-                .addAnswer(new SrvRecord(serviceName, unique, ttl, now, service.port(), hostname), stamp)
-                .addAnswer(new TxtRecord(serviceName, unique, ttl, now, attributes), stamp);
-
-            service
-                .ipv4Address()
-                .ifPresent(a -> builder.addAnswer(new AddressRecord(hostname, unique, ttl, now, a), stamp));
-
-            service
-                .ipv6Address()
-                .ifPresent(a -> builder.addAnswer(new AddressRecord(hostname, unique, ttl, now, a), stamp));
-
-            halo.sendMessage(builder.get());
+            ServiceAnnouncement.messages(announcements, ttl, halo.now()).forEach(halo::sendMessage);
             return null;
         }
     }
@@ -126,14 +109,8 @@ final class Announcer implements AutoCloseable {
      */
     private static final class ProbeListener implements ResponseListener {
 
-        /** condition to signal if matching response is received. */
-        private final Condition cdt;
-
-        /** lock. */
-        private final Lock lock;
-
-        /** whether a response matching the probe query was received. */
-        private final AtomicBoolean match;
+        /** future completed if a response matching the probe query is received. */
+        private final CompletableFuture<Void> match;
 
         /** the service being probed. */
         private final RegisterableService service;
@@ -148,9 +125,7 @@ final class Announcer implements AutoCloseable {
          */
         ProbeListener(final RegisterableService aService) {
             service = aService;
-            match = new AtomicBoolean(false);
-            lock = new ReentrantLock();
-            cdt = lock.newCondition();
+            match = new CompletableFuture<>();
             conflicting = other -> {
                 if (other.type() == TYPE_SRV && other.name().equalsIgnoreCase(service.name())) {
                     final SrvRecord srvRecord = (SrvRecord) other;
@@ -163,64 +138,47 @@ final class Announcer implements AutoCloseable {
         @SuppressWarnings("synthetic-access")
         @Override
         public final void responseReceived(final DnsMessage response, final HaloHelper halo) {
-            lock.lock();
             LOGGER.fine(() -> "Handling " + response);
-            try {
-                if (response
-                    .answers()
-                    .stream()
-                    // and its not us...
-                    .anyMatch(conflicting)) {
-                    match.set(true);
-                    LOGGER.info(() -> "Received response matching probed service: " + response);
-                    cdt.signalAll();
-                }
-            } finally {
-                lock.unlock();
+            if (response
+                .answers(TYPE_SRV)
+                .stream()
+                // and its not us...
+                .anyMatch(conflicting) && match.complete(null)) {
+                LOGGER.info(() -> "Received response matching probed service: " + response);
             }
         }
 
         /**
-         * Awaits for a response matching the probe query.
+         * Returns whether a response matching the probe query has been received.
          * <p>
          * A response matches the probe query iff it relates to the {@link Service#name() service} being probed and
          * it contains a {@link SrvRecord SRV record}.
          *
-         * @return {@code true} iff a response matching the probe query has been received before the
-         *         {@link HaloProperties#PROBING_TIMEOUT probing timeout} has elapsed
+         * @return {@code true} iff a response matching the probe query has been received
          */
-        @SuppressWarnings("synthetic-access")
-        final boolean await() {
-            lock.lock();
-            boolean signalled = false;
-            try {
-                final Timeout timeout = Timeout.ofDuration(PROBING_TIMEOUT);
-                Duration remaining = timeout.remaining();
-                while (!match.get() && !remaining.isZero()) {
-                    signalled = cdt.await(remaining.toMillis(), TimeUnit.MILLISECONDS);
-                    remaining = timeout.remaining();
-                }
-            } catch (final InterruptedException e) {
-                LOGGER.log(Level.WARNING, "Interrupted while waiting for match", e);
-                Thread.currentThread().interrupt();
-            } finally {
-                lock.unlock();
-            }
-            if (!signalled) {
-                LOGGER.fine(() -> "No matching response received within " + PROBING_TIMEOUT);
-            }
-            return match.get();
+        final boolean matched() {
+            return match.isDone();
+        }
+
+        /**
+         * @return a future completed if a response matching the probe query is received.
+         */
+        final CompletableFuture<Void> match() {
+            return match;
         }
 
     }
 
     /**
      * Probe task.
+     * <p>
+     * Services are probed together: the probe questions and authority records of as many services as fit in
+     * {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes share the same query (RFC 6762 section 8.1).
      */
     private static final class ProbeTask implements Callable<Void> {
 
-        /** the service being probed. */
-        private final RegisterableService service;
+        /** the services being probed. */
+        private final Collection<RegisterableService> services;
 
         /** halo helper. */
         private final HaloHelper halo;
@@ -228,33 +186,90 @@ final class Announcer implements AutoCloseable {
         /**
          * Constructor.
          *
-         * @param aService the service being probed
+         * @param someServices the services being probed
          * @param haloHelper halo helper
          */
-        ProbeTask(final RegisterableService aService, final HaloHelper haloHelper) {
-            service = aService;
+        ProbeTask(final Collection<RegisterableService> someServices, final HaloHelper haloHelper) {
+            services = someServices;
             halo = haloHelper;
         }
 
+        /**
+         * Returns the authority records of the probe of the given service: its SRV record, and the address records
+         * of its hostname if the hostname is not already probed in the same query.
+         *
+         * @param service service
+         * @param newHost whether the hostname of the service is not already probed in the same query
+         * @param now current instant
+         * @return the authority records of the probe of the given service
+         */
+        private static List<DnsRecord> authorities(final RegisterableService service, final boolean newHost,
+                final Instant now) {
+            final String hostname = service.hostname();
+            final List<DnsRecord> authorities = new ArrayList<>();
+            authorities.add(new SrvRecord(service.name(), CLASS_IN, TTL, now, service.port(), hostname));
+            if (newHost) {
+                service
+                    .ipv4Address()
+                    .ifPresent(a -> authorities.add(new AddressRecord(hostname, CLASS_IN, TTL, now, a)));
+                service
+                    .ipv6Address()
+                    .ifPresent(a -> authorities.add(new AddressRecord(hostname, CLASS_IN, TTL, now, a)));
+            }
+            return authorities;
+        }
+
+        /**
+         * Returns the uncompressed size of the questions (name labels + root, type and class) and the authority
+         * records of the probe of the given service.
+         *
+         * @param service service
+         * @param newHost whether the hostname of the service is not already probed in the same query
+         * @param authorities authority records
+         * @return the uncompressed size of the probe of the given service
+         */
+        private static int size(final RegisterableService service, final boolean newHost,
+                final List<DnsRecord> authorities) {
+            return (newHost ? service.hostname().length() + 5 : 0)
+                + service.name().length()
+                + 5
+                + authorities.stream().mapToInt(DnsRecord::size).sum();
+        }
+
         @Override
         public final Void call() throws Exception {
             final Instant now = halo.now();
-            final String hostname = service.hostname();
-            final String serviceName = service.name();
-            final Builder builder = DnsMessage
-                .query()
-                .addQuestion(new DnsQuestion(hostname, TYPE_ANY, CLASS_IN))
-                .addQuestion(new DnsQuestion(serviceName, TYPE_ANY, CLASS_IN))
-                .addAuthority(new SrvRecord(serviceName, CLASS_IN, TTL, now, service.port(), hostname));
-
-            service
-                .ipv4Address()
-                .ifPresent(a -> builder.addAuthority(new AddressRecord(hostname, CLASS_IN, TTL, now, a)));
-            service
-                .ipv6Address()
-                .ifPresent(a -> builder.addAuthority(new AddressRecord(hostname, CLASS_IN, TTL, now, a)));
-
-            halo.sendMessage(builder.get());
+            final Set<String> hostnames = new HashSet<>();
+            Builder builder = null;
+            int size = 0;
+            for (final RegisterableService service : services) {
+                final String hostname = service.hostname();
+                boolean newHost = !hostnames.contains(toLowerCase(hostname));
+                List<DnsRecord> authorities = authorities(service, newHost, now);
+                if (builder != null && size + size(service, newHost, authorities) > MAX_PACKET_SIZE) {
+                    halo.sendMessage(builder.get());
+                    builder = null;
+                }
+                if (builder == null) {
+                    builder = DnsMessage.query();
+                    size = DnsMessage.HEADER_SIZE;
+                    hostnames.clear();
+                    if (!newHost) {
+                        /* the hostname has been probed in the previous query only. */
+                        newHost = true;
+                        authorities = authorities(service, true, now);
+                    }
+                }
+                if (hostnames.add(toLowerCase(hostname))) {
+                    builder.addQuestion(new DnsQuestion(hostname, TYPE_ANY, CLASS_IN));
+                }
+                builder.addQuestion(new DnsQuestion(service.name(), TYPE_ANY, CLASS_IN));
+                authorities.forEach(builder::addAuthority);
+                size += size(service, newHost, authorities);
+            }
+            if (builder != null) {
+                halo.sendMessage(builder.get());
+            }
             return null;
         }
     }
@@ -282,70 +297,107 @@ final class Announcer implements AutoCloseable {
 
     @Override
     public final void close() {
-        executor.shutdownNow();
+        executor.close();
     }
 
     /**
-     * Probes the network for the hostname and port of the given service and announces the service if no conflict
-     * have been discovered.
+     * Probes the network for the hostname and port of all the given services and announces the services for which
+     * no conflict have been discovered.
      * <p>
-     * This method does not check whether the service has already been announced.
+     * Services are probed together, sharing probe queries and the probing timeout, and announced together, in as
+     * few responses as possible.
+     * <p>
+     * This method does not check whether the services have already been announced. This method does not block:
+     * probing and announcing are driven by the executor of this announcer.
      *
-     * @param service service
-     * @param ttl the service time-to-live
-     * @return {@code true} iff no conflicts have been discovered while probing and the service was successfully
-     *         announced on the network
-     * @throws IOException if an exception occurs while probing
+     * @param services services
+     * @param ttl the services time-to-live
+     * @return a future completed, once probing has ended and the first announcement has been sent, with whether no
+     *         conflicts have been discovered while probing and the service was successfully announced on the
+     *         network, for each given service
      */
-    final boolean announce(final RegisterableService service, final Duration ttl) throws IOException {
-        LOGGER.fine(() -> "Start probing for " + service);
-        final ProbeListener listener = new ProbeListener(service);
-        halo.addResponseListener(listener);
-        final ProbeTask probe = new ProbeTask(service, halo);
-        final String name = service.name();
-        try {
-            final FutureBatch probes = executor.scheduleBatch(name, probe, PROBE_NUM, PROBING_INTERVAL);
-            final boolean conflictFree = !listener.await();
+    final CompletableFuture<Map<RegisterableService, Boolean>>
+            announceAll(final Collection<RegisterableService> services, final Duration ttl) {
+        LOGGER.fine(() -> "Start probing for " + services);
+        final Map<RegisterableService, ProbeListener> listeners = new LinkedHashMap<>();
+        for (final RegisterableService service : services) {
+            final ProbeListener listener = new ProbeListener(service);
+            listeners.put(service, listener);
+            halo.addInterest(service.name());
+            halo.addResponseListener(listener);
+        }
+        final ProbeTask probe = new ProbeTask(listeners.keySet(), halo);
+        final List<String> names = services.stream().map(Service::name).collect(Collectors.toList());
+        final FutureBatch probes = executor.scheduleBatch(names, probe, PROBE_NUM, PROBING_INTERVAL);
+
+        /* probing ends after the timeout, or as soon as conflicts have been found for all services. */
+        final CompletableFuture<Void> probing = new CompletableFuture<>();
+        final Future<?> timeout = executor.schedule(() -> probing.complete(null), PROBING_TIMEOUT);
+        CompletableFuture
+            .allOf(listeners.values().stream().map(ProbeListener::match).toArray(CompletableFuture[]::new))
+            .thenRun(() -> probing.complete(null));
+
+        return probing.thenCompose(v -> {
+            timeout.cancel(false);
             probes.cancelAll();
-            LOGGER.fine(() -> "Done probing for " + service + "; found conflicts? " + !conflictFree);
-            if (conflictFree) {
-                /* announce */
-                LOGGER.fine(() -> "Announcing " + service);
-                final AnnounceTask announce = new AnnounceTask(service, ttl, halo);
-                executor.scheduleBatch(name, announce, ANNOUNCEMENT_NUM, ANNOUNCEMENT_INTERVAL).awaitFirst();
-                LOGGER.info(() -> "Announced " + service);
+            final Map<RegisterableService, Boolean> result = new LinkedHashMap<>();
+            final List<String> announced = new ArrayList<>();
+            final List<ServiceAnnouncement> announcements = new ArrayList<>();
+            final Instant now = halo.now();
+            try {
+                for (final Map.Entry<RegisterableService, ProbeListener> e : listeners.entrySet()) {
+                    final RegisterableService service = e.getKey();
+                    final boolean conflictFree = !e.getValue().matched();
+                    halo.removeResponseListener(e.getValue());
+                    halo.removeInterest(service.name());
+                    LOGGER.fine(() -> "Done probing for " + service + "; found conflicts? " + !conflictFree);
+                    result.put(service, conflictFree);
+                    if (conflictFree) {
+                        announced.add(service.name());
+                        announcements.add(ServiceAnnouncement.of(service, now));
+                    }
+                }
+            } catch (final IOException e) {
+                throw new CompletionException(e);
             }
-            return conflictFree;
-        } catch (final ExecutionException e) {
-            throw new IOException(e);
-        } catch (final InterruptedException e) {
-            LOGGER.log(Level.FINE, "Interrupted while announcing service", e);
-            Thread.currentThread().interrupt();
-            return false;
-        } finally {
-            halo.removeResponseListener(listener);
-        }
+            if (announcements.isEmpty()) {
+                return CompletableFuture.completedFuture(result);
+            }
+            /* announce */
+            LOGGER.fine(() -> "Announcing " + announced);
+            final AnnounceTask announce = new AnnounceTask(announcements, ttl, halo);
+            return executor
+                .scheduleBatch(announced, announce, ANNOUNCEMENT_NUM, ANNOUNCEMENT_INTERVAL)
+                .whenFirst()
+                .thenApply(r -> {
+                    LOGGER.info(() -> "Announced " + announced);
+                    return result;
+                });
+        });
     }
 
     /**
      * Re-announces the given registered service after its attributes have been changed.
+     * <p>
+     * This method does not block: the returned future completes once the first announcement has been sent.
      *
      * @param service the service
      * @param ttl the TTL
-     * @throws IOException in case of I/O error
+     * @return a future completed once the first announcement has been sent
      */
-    final void reannounce(final RegisteredService service, final Duration ttl) throws IOException {
+    final CompletableFuture<Void> reannounce(final RegisteredService service, final Duration ttl) {
+        LOGGER.fine(() -> "Re-announcing " + service);
+        final ServiceAnnouncement announcement;
         try {
-            LOGGER.fine(() -> "Re-announcing " + service);
-            final AnnounceTask announce = new AnnounceTask(service, ttl, halo);
-            executor.scheduleBatch(service.name(), announce, ANNOUNCEMENT_NUM, ANNOUNCEMENT_INTERVAL).awaitFirst();
-            LOGGER.info(() -> "Re-announced " + service);
-        } catch (final ExecutionException e) {
-            throw new IOException(e);
-        } catch (final InterruptedException e) {
-            LOGGER.log(Level.FINE, "Interrupted while re-announcing service", e);
-            Thread.currentThread().interrupt();
+            announcement = ServiceAnnouncement.of(service, halo.now());
+        } catch (final IOException e) {
+            return HaloHelper.failed(e);
         }
+        final AnnounceTask announce = new AnnounceTask(Collections.singletonList(announcement), ttl, halo);
+        return executor
+            .scheduleBatch(service.name(), announce, ANNOUNCEMENT_NUM, ANNOUNCEMENT_INTERVAL)
+            .whenFirst()
+            .thenRun(() -> LOGGER.info(() -> "Re-announced " + service));
     }
 
 }
@@ -61,7 +61,8 @@ final class AttributesCodec {
         int readBytes = 0;
         while (readBytes < length) {
             final int pairLength = input.readByte();
-            final byte[] bytes = input.readBytes(pairLength);
+            /* tolerate a truncated last pair. */
+            final byte[] bytes = input.readBytes(Math.min(pairLength, input.remaining()));
             final int sep = separator(bytes);
             final String key;
             final Optional<ByteBuffer> value;
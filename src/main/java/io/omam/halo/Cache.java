@@ -35,91 +35,280 @@ import static io.omam.halo.MulticastDnsSd.CLASS_ANY;
 import static io.omam.halo.MulticastDnsSd.TYPE_ANY;
 import static io.omam.halo.MulticastDnsSd.toLowerCase;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * A cache of DNS records.
+ * <p>
+ * DNS records are indexed by name (ignoring case), type, class and data: shared records of the same name, type and
+ * class (e.g. the PTR records of all the instances of a service type) are all kept, whereas a unique record flushes
+ * the records of the same name, type and class received more than one second earlier (RFC 6762 section 10.2). Keys
+ * of all the records sharing the same name are kept in a per-name bucket to support lookups by type and class,
+ * including {@link MulticastDnsSd#TYPE_ANY} and {@link MulticastDnsSd#CLASS_ANY} lookups. All modifications of the
+ * records sharing the same name are atomic, and no lock is shared by records of different names.
+ * <p>
+ * Expired records are never returned and are removed by {@link #reap(Consumer)} when they expire: each cached key
+ * is scheduled once in a deadline-ordered queue and is only re-scheduled when its deadline is reached. Records whose
+ * name is of interest are due for refresh at 80%, 85%, 90% and 95% of their TTL, plus a random variation of up to
+ * 2% of their TTL (RFC 6762 section 5.2): {@link #reap(Consumer)} reports them so that the network can be queried
+ * before they expire.
+ * <p>
+ * The cache is bounded by a maximum number of records and a maximum number of bytes. Once either bound is exceeded,
+ * records are evicted, oldest refreshed first, preferring records whose name is not of interest (i.e. not browsed,
+ * resolved or registered): the eviction order is a concurrent skip list of the keys indexed by the sequence number
+ * of their last addition or refresh. A newly cached record whose name is not of interest is only admitted if it
+ * has been seen more frequently than the record it would evict: a flood of unsolicited records does not push out
+ * records that are regularly refreshed or looked up.
  */
 final class Cache {
 
-    /** logger. */
-    private static final Logger LOGGER = Logger.getLogger(Cache.class.getName());
-
-    /** maps a DNS record key to all cached DNS entries. */
-    private final Map<String, Collection<DnsRecord>> map;
-
     /**
-     * Constructor.
+     * Scheduled refresh or expiry of the record cached for a key.
      */
-    Cache() {
-        map = new ConcurrentHashMap<>();
-    }
+    @SuppressWarnings("synthetic-access")
+    private final class Deadline implements Delayed {
 
-    /**
-     * Returns true if both DNS records have the same service class (or one has a service class of
-     * {@link #CLASS_ANY}).
-     *
-     * @param record1 DNS record
-     * @param record2 DNS record
-     * @return as described above
-     */
-    private static boolean isSameClass(final DnsRecord record1, final DnsRecord record2) {
-        return isSameClass(record1, record2.clazz());
-    }
+        /** key of the cached record. */
+        private final Key key;
+
+        /** TTL percentage: 100 for the expiry, refresh otherwise. */
+        private final int percent;
+
+        /** deadline time. */
+        private final Instant time;
+
+        /**
+         * Constructor.
+         *
+         * @param aKey key of the cached record
+         * @param aPercent TTL percentage: 100 for the expiry, refresh otherwise
+         * @param aTime deadline time
+         */
+        Deadline(final Key aKey, final int aPercent, final Instant aTime) {
+            key = aKey;
+            percent = aPercent;
+            time = aTime;
+        }
+
+        @Override
+        public final int compareTo(final Delayed other) {
+            return time.compareTo(((Deadline) other).time);
+        }
+
+        @Override
+        public final long getDelay(final TimeUnit unit) {
+            return unit.convert(Duration.between(clock.instant(), time).toNanos(), TimeUnit.NANOSECONDS);
+        }
 
-    /**
-     * Returns true if given DNS record has given service class (or record/given class is {@link #CLASS_ANY}).
-     *
-     * @param record DNS record
-     * @param clazz service class
-     * @return as described above
-     */
-    private static boolean isSameClass(final DnsRecord record, final short clazz) {
-        return record.clazz() == CLASS_ANY || clazz == CLASS_ANY || record.clazz() == clazz;
     }
 
     /**
-     * Returns true if both DNS records have the same service type (or one has a service type of
-     * {@link #TYPE_ANY}).
-     *
-     * @param record1 DNS record
-     * @param record2 DNS record
-     * @return as described above
+     * Composite key of a cached DNS record: name (lower case), type, class and data.
      */
-    private static boolean isSameType(final DnsRecord record1, final DnsRecord record2) {
-        return isSameType(record1, record2.type());
+    private static final class Key {
+
+        /** name (lower case). */
+        private final String name;
+
+        /** type. */
+        private final short type;
+
+        /** class. */
+        private final short clazz;
+
+        /** encoded data. */
+        private final byte[] data;
+
+        /** hash code. */
+        private final int hash;
+
+        /**
+         * Constructor.
+         *
+         * @param aName name (lower case)
+         * @param aType type
+         * @param aClass class
+         * @param someData encoded data
+         */
+        Key(final String aName, final short aType, final short aClass, final byte[] someData) {
+            name = aName;
+            type = aType;
+            clazz = aClass;
+            data = someData;
+            hash = 31 * Objects.hash(name, type, clazz) + Arrays.hashCode(data);
+        }
+
+        @Override
+        public final boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash
+                && name.equals(other.name)
+                && type == other.type
+                && clazz == other.clazz
+                && Arrays.equals(data, other.data);
+        }
+
+        @Override
+        public final int hashCode() {
+            return hash;
+        }
+
+        /**
+         * Returns true if either this key or the given type and/or class is a wildcard.
+         *
+         * @param aType type
+         * @param aClass class
+         * @return as described above
+         */
+        final boolean isWildcard(final short aType, final short aClass) {
+            return type == TYPE_ANY || aType == TYPE_ANY || clazz == CLASS_ANY || aClass == CLASS_ANY;
+        }
+
+        /**
+         * Returns true if this key has the given type and class (or either type and/or class is a wildcard).
+         *
+         * @param aType type
+         * @param aClass class
+         * @return as described above
+         */
+        final boolean matches(final short aType, final short aClass) {
+            return (type == TYPE_ANY || aType == TYPE_ANY || type == aType)
+                && (clazz == CLASS_ANY || aClass == CLASS_ANY || clazz == aClass);
+        }
+
     }
 
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(Cache.class.getName());
+
+    /** unique records flush the records received more than this delay earlier (RFC 6762 section 10.2). */
+    private static final Duration FLUSH_DELAY = Duration.ofSeconds(1);
+
+    /** maximum number of oldest records considered when looking for a record to evict. */
+    private static final int MAX_PROBES = 16;
+
+    /** TTL percentage of the first refresh. */
+    private static final int FIRST_REFRESH = 80;
+
+    /** TTL percentage between consecutive refreshes. */
+    private static final int REFRESH_STEP = 5;
+
+    /** maximum random variation of refreshes in percentage of the TTL. */
+    private static final double REFRESH_VARIATION = 0.02;
+
+    /** cached DNS records indexed by name, type and class. */
+    private final Map<Key, DnsRecord> records;
+
+    /** keys of all the cached DNS records indexed by name (lower case). */
+    private final Map<String, Set<Key>> names;
+
+    /** current deadline of each cached key, stale deadlines in the queue are ignored. */
+    private final Map<Key, Deadline> scheduled;
+
+    /** deadlines ordered by time. */
+    private final DelayQueue<Deadline> deadlines;
+
+    /** invoked whenever a deadline earlier than all the other scheduled deadlines is scheduled. */
+    private volatile Runnable earliest;
+
+    /** clock. */
+    private final Clock clock;
+
+    /** maximum number of cached records. */
+    private final int maxRecords;
+
+    /** maximum number of bytes of cached records. */
+    private final long maxBytes;
+
+    /** number of bytes of cached records. */
+    private final AtomicLong bytes;
+
+    /** keys of all the cached DNS records indexed by sequence number, least recently added or refreshed first. */
+    private final ConcurrentNavigableMap<Long, Key> order;
+
+    /** sequence number of the last addition or refresh of each cached key. */
+    private final Map<Key, Long> sequences;
+
+    /** last sequence number. */
+    private final AtomicLong sequence;
+
+    /** recent frequency of additions and lookups of each key. */
+    private final FrequencySketch sketch;
+
+    /** names of interest. */
+    private final Predicate<String> interests;
+
+    /** statistics. */
+    private final HaloStatisticsImpl statistics;
+
     /**
-     * Returns true if given DNS record has given service type (or record/given type is {@link #TYPE_ANY}).
+     * Constructor.
      *
-     * @param record DNS record
-     * @param type service type
-     * @return as described above
+     * @param aClock clock
+     * @param aMaxRecords maximum number of cached records
+     * @param aMaxBytes maximum number of bytes of cached records
+     * @param someInterests predicate to determine whether a name is of interest: records of these names are
+     *            refreshed and evicted last
+     * @param someStatistics statistics
      */
-    private static boolean isSameType(final DnsRecord record, final short type) {
-        return record.type() == TYPE_ANY || type == TYPE_ANY || record.type() == type;
+    Cache(final Clock aClock, final int aMaxRecords, final long aMaxBytes, final Predicate<String> someInterests,
+            final HaloStatisticsImpl someStatistics) {
+        records = new ConcurrentHashMap<>();
+        names = new ConcurrentHashMap<>();
+        scheduled = new ConcurrentHashMap<>();
+        deadlines = new DelayQueue<>();
+        earliest = () -> {
+            // empty.
+        };
+        clock = aClock;
+        maxRecords = aMaxRecords;
+        maxBytes = aMaxBytes;
+        bytes = new AtomicLong();
+        order = new ConcurrentSkipListMap<>();
+        sequences = new ConcurrentHashMap<>();
+        sequence = new AtomicLong();
+        sketch = new FrequencySketch(aMaxRecords);
+        interests = someInterests;
+        statistics = someStatistics;
     }
 
     /**
-     * Returns the association key for the given record.
+     * Returns the key of the given record.
      *
      * @param record record
      * @return key
      */
-    private static String key(final DnsRecord record) {
-        return toLowerCase(record.name());
+    private static Key key(final DnsRecord record) {
+        return new Key(toLowerCase(record.name()), record.type(), record.clazz(), record.data());
     }
 
     /**
@@ -135,51 +324,51 @@ final class Cache {
         }
     }
 
-    /**
-     * Determines whether both given DNS records have the same type and class.
-     *
-     * @param record1 first DNS record
-     * @param record2 second DNS record
-     * @return {@code true} if both DNS records have the same type and class, {@code false} otherwise
-     */
-    private static boolean matches(final DnsRecord record1, final DnsRecord record2) {
-        return isSameType(record1, record2) && isSameClass(record1, record2);
-    }
-
     /**
      * Adds the given DNS record to this cache.
      * <p>
-     * If a DNS record matching the given record name (ignoring case), type and class already exists, it is
-     * replaced with the given one.
+     * If the same DNS record - same name (ignoring case), type, class and data - already exists, it is replaced with
+     * the given one. If the given record is unique, the records of the same name, type and class received more than
+     * one second before it are removed. A wildcard type or class in either record replaces every matching record.
+     * Records may be evicted if this cache is full, possibly the given one.
      *
      * @param record DNS record to add
      */
     final void add(final DnsRecord record) {
         Objects.requireNonNull(record);
-        final boolean existed = entries(record.name()).removeIf(other -> matches(other, record));
-        final String key = key(record);
-        if (existed) {
-            LOGGER.fine(() -> "Replacing cached record " + key + " with " + record);
-        } else {
-            LOGGER.fine(() -> "Adding " + record + " to cache");
-        }
-        map.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(record);
-    }
-
-    /**
-     * Removes all expired DNS records.
-     *
-     * @param now current instant
-     */
-    final void clean(final Instant now) {
-        final Set<String> services = new HashSet<>();
-        for (final Entry<String, Collection<DnsRecord>> e : map.entrySet()) {
-            e.getValue().removeIf(r -> r.isExpired(now));
-            if (e.getValue().isEmpty()) {
-                services.add(e.getKey());
+        final Key key = key(record);
+        final int size = record.size();
+        final Instant flushed = record.expirationTime(0).minus(FLUSH_DELAY);
+        names.compute(key.name, (n, keys) -> {
+            final Set<Key> bucket = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+            bucket.removeIf(k -> {
+                if (!k.equals(key)
+                    && k.matches(key.type, key.clazz)
+                    && (k.isWildcard(key.type, key.clazz) || record.isUnique() && receivedBefore(k, flushed))) {
+                    discard(k);
+                    return true;
+                }
+                return false;
+            });
+            final DnsRecord previous = records.put(key, record);
+            bucket.add(key);
+            bytes.addAndGet(previous == null ? size : size - previous.size());
+            final long seq = sequence.incrementAndGet();
+            final Long last = sequences.put(key, seq);
+            if (last != null) {
+                order.remove(last);
             }
-        }
-        services.forEach(map::remove);
+            order.put(seq, key);
+            sketch.increment(key);
+            schedule(key, record, FIRST_REFRESH);
+            if (previous == null) {
+                LOGGER.fine(() -> "Adding " + record + " to cache");
+            } else {
+                LOGGER.fine(() -> "Replacing cached record " + previous + " with " + record);
+            }
+            return bucket;
+        });
+        evict(key);
     }
 
     /**
@@ -187,7 +376,18 @@ final class Cache {
      */
     final void clear() {
         LOGGER.fine("Clearing cache");
-        map.clear();
+        names.keySet().forEach(this::remove);
+        deadlines.clear();
+    }
+
+    /**
+     * Determines whether at least one DNS record matching the given name is cached.
+     *
+     * @param name record name
+     * @return {@code true} iff at least one DNS record matching the given name is cached
+     */
+    final boolean contains(final String name) {
+        return names.containsKey(toLowerCase(name));
     }
 
     /**
@@ -197,20 +397,29 @@ final class Cache {
      * @return all DNS records matching the given name
      */
     final Collection<DnsRecord> entries(final String name) {
-        return map.getOrDefault(toLowerCase(name), Collections.emptyList());
+        return getAll(name, TYPE_ANY, CLASS_ANY);
     }
 
     /**
-     * Sets the TTL of the given cached record to {@link HaloProperties#EXPIRY_TTL} in order for the reaper to
-     * remove it later.
+     * Sets the TTL of the given cached record - same name (ignoring case), type, class and data - to
+     * {@link HaloProperties#EXPIRY_TTL} in order for the reaper to remove it later, without refreshing it.
      *
      * @param record DNS record to remove
      */
     final void expire(final DnsRecord record) {
         Objects.requireNonNull(record);
-        entries(record.name()).stream().filter(other -> matches(record, other)).forEach(r -> {
-            LOGGER.fine(() -> "Setting TTL of " + record + " to " + EXPIRY_TTL);
-            r.setTtl(EXPIRY_TTL);
+        names.computeIfPresent(toLowerCase(record.name()), (n, bucket) -> {
+            final byte[] data = record.data();
+            for (final Key key : bucket) {
+                final DnsRecord cached = records.get(key);
+                if (cached != null && key.matches(record.type(), record.clazz()) && Arrays.equals(key.data, data)) {
+                    LOGGER.fine(() -> "Setting TTL of " + cached + " to " + EXPIRY_TTL);
+                    cached.setTtl(EXPIRY_TTL);
+                    /* replaces any pending refresh. */
+                    schedule(new Deadline(key, 100, cached.expirationTime(100)));
+                }
+            }
+            return bucket;
         });
     }
 
@@ -231,12 +440,69 @@ final class Cache {
                 + "; class="
                 + clazz
                 + "]");
-        final Optional<DnsRecord> result =
-                entries(name).stream().filter(r -> isSameType(r, type) && isSameClass(r, clazz)).findFirst();
+        final Optional<DnsRecord> result;
+        if (type == TYPE_ANY || clazz == CLASS_ANY) {
+            result = getAll(name, type, clazz).stream().findFirst();
+        } else {
+            result = lookup(toLowerCase(name), type, clazz);
+        }
         logResult(result);
         return result;
     }
 
+    /**
+     * Returns all the DNS records matching the given name, type and class, including records cached with a wildcard
+     * type and/or class.
+     *
+     * @param name record name
+     * @param type record type
+     * @param clazz record class
+     * @return all the matching DNS records, possibly empty
+     */
+    final List<DnsRecord> getAll(final String name, final short type, final short clazz) {
+        final Instant now = clock.instant();
+        return names
+            .getOrDefault(toLowerCase(name), Collections.emptySet())
+            .stream()
+            .filter(k -> k.matches(type, clazz))
+            .map(k -> hit(k, now))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Sets the given action to be invoked whenever a deadline earlier than all the other scheduled deadlines is
+     * scheduled, replacing the previous action.
+     * <p>
+     * The action is invoked while holding the bucket of the record name: it must not block.
+     *
+     * @param action action
+     */
+    final void onEarliestDeadline(final Runnable action) {
+        earliest = action;
+    }
+
+    /**
+     * Handles all the deadlines that have been reached, without waiting: removes expired records and reports the
+     * records of interest that are due for refresh, unless they have been refreshed since they were scheduled.
+     *
+     * @param refresher consumer of the records due for refresh, invoked while holding the bucket of the record
+     *            name
+     * @return the delay until the next scheduled deadline, empty if no deadline is scheduled
+     */
+    final Optional<Duration> reap(final Consumer<DnsRecord> refresher) {
+        Deadline deadline = deadlines.poll();
+        while (deadline != null) {
+            reach(deadline, refresher);
+            deadline = deadlines.poll();
+        }
+        final Deadline next = deadlines.peek();
+        if (next == null) {
+            return Optional.empty();
+        }
+        return Optional.of(Duration.ofNanos(Math.max(0, next.getDelay(TimeUnit.NANOSECONDS))));
+    }
+
     /**
      * Removes all DNS records associated with the given name.
      *
@@ -245,7 +511,245 @@ final class Cache {
     final void removeAll(final String name) {
         Objects.requireNonNull(name);
         LOGGER.fine(() -> "Removing all DNS records associated with " + name + " from cache");
-        map.remove(toLowerCase(name));
+        remove(toLowerCase(name));
+    }
+
+    /**
+     * Handles the given reached deadline.
+     *
+     * @param deadline reached deadline
+     * @param refresher consumer of the records due for refresh
+     */
+    private void reach(final Deadline deadline, final Consumer<DnsRecord> refresher) {
+        final Key key = deadline.key;
+        names.computeIfPresent(key.name, (n, bucket) -> {
+            if (scheduled.get(key) != deadline) {
+                /* stale: key has been removed or re-scheduled earlier. */
+                return bucket;
+            }
+            final Instant now = clock.instant();
+            final DnsRecord record = records.get(key);
+            if (record == null || record.isExpired(now)) {
+                LOGGER.fine(() -> "Removing expired " + record + " from cache");
+                discard(key);
+                bucket.remove(key);
+            } else if (deadline.percent < 100 && !record.expirationTime(deadline.percent).isAfter(now)) {
+                if (interests.test(key.name)) {
+                    LOGGER.fine(() -> "Refreshing " + record + " at " + deadline.percent + "% of its TTL");
+                    refresher.accept(record);
+                }
+                schedule(key, record, deadline.percent + REFRESH_STEP);
+            } else {
+                /* refreshed since scheduled. */
+                schedule(key, record, FIRST_REFRESH);
+            }
+            return bucket.isEmpty() ? null : bucket;
+        });
+    }
+
+    /**
+     * Removes the record cached for the given key from all indexes but the per-name bucket.
+     * <p>
+     * This method must be called while holding the bucket of the record name.
+     *
+     * @param key key
+     */
+    private void discard(final Key key) {
+        final DnsRecord record = records.remove(key);
+        scheduled.remove(key);
+        if (record != null) {
+            bytes.addAndGet(-record.size());
+        }
+        final Long last = sequences.remove(key);
+        if (last != null) {
+            order.remove(last);
+        }
+    }
+
+    /**
+     * Evicts records until this cache is no longer full.
+     *
+     * @param candidate key of the record that has just been added
+     */
+    private void evict(final Key candidate) {
+        while (records.size() > maxRecords || bytes.get() > maxBytes) {
+            final Key victim = victim(candidate);
+            if (victim == null) {
+                return;
+            }
+            names.computeIfPresent(victim.name, (n, bucket) -> {
+                if (bucket.remove(victim)) {
+                    LOGGER.fine(() -> "Evicting " + records.get(victim) + " from full cache");
+                    discard(victim);
+                    statistics.recordEvicted();
+                }
+                return bucket.isEmpty() ? null : bucket;
+            });
+        }
+    }
+
+    /**
+     * Returns the record cached for the given key if it has not expired, and counts the lookup.
+     *
+     * @param key key
+     * @param now current instant
+     * @return the cached record or null
+     */
+    private DnsRecord hit(final Key key, final Instant now) {
+        final DnsRecord record = records.get(key);
+        if (record == null || record.isExpired(now)) {
+            return null;
+        }
+        sketch.increment(key);
+        return record;
+    }
+
+    /**
+     * Returns all the cached DNS records that have not expired.
+     *
+     * @return all the cached DNS records that have not expired
+     */
+    final List<DnsRecord> snapshot() {
+        final Instant now = clock.instant();
+        return records.values().stream().filter(r -> !r.isExpired(now)).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the DNS record matching the given name, type and class, none of which being a wildcard.
+     * <p>
+     * Several shared records may match: records cached with the given type and class are preferred over records
+     * cached with a wildcard class, then type, then both, and among those the most recently received record is
+     * returned.
+     *
+     * @param name record name (lower case)
+     * @param type record type
+     * @param clazz record class
+     * @return an Optional describing the matching DNS record or empty
+     */
+    private Optional<DnsRecord> lookup(final String name, final short type, final short clazz) {
+        final Set<Key> bucket = names.get(name);
+        if (bucket == null) {
+            return Optional.empty();
+        }
+        final Instant now = clock.instant();
+        Key best = null;
+        DnsRecord record = null;
+        int bestRank = Integer.MAX_VALUE;
+        for (final Key key : bucket) {
+            final DnsRecord cached = records.get(key);
+            if (cached != null && !cached.isExpired(now) && key.matches(type, clazz)) {
+                /* 0: exact, 1: wildcard class, 2: wildcard type, 3: both. */
+                final int rank = (key.type == type ? 0 : 2) + (key.clazz == clazz ? 0 : 1);
+                if (rank < bestRank
+                    || rank == bestRank && cached.expirationTime(0).isAfter(record.expirationTime(0))) {
+                    best = key;
+                    record = cached;
+                    bestRank = rank;
+                }
+            }
+        }
+        return best == null ? Optional.empty() : Optional.ofNullable(hit(best, now));
+    }
+
+    /**
+     * Determines whether the record cached for the given key was received before the given instant.
+     * <p>
+     * This method must be called while holding the bucket of the record name.
+     *
+     * @param key key
+     * @param instant instant
+     * @return {@code true} iff the record cached for the given key was received before the given instant
+     */
+    private boolean receivedBefore(final Key key, final Instant instant) {
+        final DnsRecord cached = records.get(key);
+        return cached == null || cached.expirationTime(0).isBefore(instant);
+    }
+
+    /**
+     * Removes all DNS records associated with the given name.
+     *
+     * @param name name (lower case)
+     */
+    private void remove(final String name) {
+        names.computeIfPresent(name, (n, bucket) -> {
+            bucket.forEach(this::discard);
+            return null;
+        });
+    }
+
+    /**
+     * Schedules the next refresh, starting at the given TTL percentage, or the expiry of the given record cached
+     * for the given key, unless the key is already scheduled no later than the record.
+     * <p>
+     * This method must be called while holding the bucket of the record name.
+     *
+     * @param key key
+     * @param record cached DNS record
+     * @param from TTL percentage of the first possible refresh
+     */
+    private void schedule(final Key key, final DnsRecord record, final int from) {
+        final Instant now = clock.instant();
+        int percent = from;
+        while (percent < 100 && !record.expirationTime(percent).isAfter(now)) {
+            percent += REFRESH_STEP;
+        }
+        percent = Math.min(percent, 100);
+        Instant time = record.expirationTime(percent);
+        if (percent < 100) {
+            final double variation = ThreadLocalRandom.current().nextDouble(REFRESH_VARIATION);
+            time = time.plusNanos((long) (record.ttl().toNanos() * variation));
+        }
+        final Deadline current = scheduled.get(key);
+        if (current == null || current.time.isAfter(time) || current.getDelay(TimeUnit.NANOSECONDS) <= 0) {
+            schedule(new Deadline(key, percent, time));
+        }
+    }
+
+    /**
+     * Schedules the given deadline, replacing the current deadline of its key.
+     * <p>
+     * This method must be called while holding the bucket of the record name.
+     *
+     * @param deadline deadline
+     */
+    private void schedule(final Deadline deadline) {
+        scheduled.put(deadline.key, deadline);
+        deadlines.add(deadline);
+        if (deadlines.peek() == deadline) {
+            earliest.run();
+        }
+    }
+
+    /**
+     * Returns the key of the record to evict: the least recently added or refreshed record whose name is not of
+     * interest among the oldest records, unless the record that has just been added is not of interest and has not
+     * been seen more frequently, in which case it is not admitted.
+     *
+     * @param candidate key of the record that has just been added
+     * @return the key of the record to evict or null if this cache is empty
+     */
+    private Key victim(final Key candidate) {
+        Key victim = null;
+        boolean interesting = true;
+        final Iterator<Key> it = order.values().iterator();
+        for (int probes = 0; it.hasNext() && probes < MAX_PROBES && interesting; probes++) {
+            final Key key = it.next();
+            if (!key.equals(candidate)) {
+                interesting = interests.test(key.name);
+                if (victim == null || !interesting) {
+                    victim = key;
+                }
+            }
+        }
+        if (victim == null) {
+            return records.containsKey(candidate) ? candidate : null;
+        }
+        if (records.containsKey(candidate)
+            && !interests.test(candidate.name)
+            && (interesting || sketch.frequency(candidate) <= sketch.frequency(victim))) {
+            return candidate;
+        }
+        return victim;
     }
 
 }
@@ -0,0 +1,225 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists the records of a {@link Cache} to a file, periodically and when closed, so that they can be reloaded
+ * when restarting.
+ * <p>
+ * The snapshot is a binary file made of a header (magic number, version, instant of the snapshot in milliseconds
+ * since the epoch and number of messages) followed by length-prefixed DNS responses, each holding up to
+ * {@link #RECORDS_PER_MESSAGE} cached records with their remaining TTL at the instant of the snapshot: once decoded
+ * at that instant, each record expires at the same time as the cached record it was written from.
+ * <p>
+ * Periodic snapshots are triggered by the shared scheduler but written by a dedicated thread, so that file I/O
+ * never holds up the scheduler: a snapshot is skipped if the previous one is still pending.
+ */
+final class CacheSnapshot implements AutoCloseable {
+
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(CacheSnapshot.class.getName());
+
+    /** magic number: "HALO". */
+    private static final int MAGIC = 0x48414C4F;
+
+    /** version of the format. */
+    private static final byte VERSION = 1;
+
+    /** maximum number of records per DNS message. */
+    private static final int RECORDS_PER_MESSAGE = 64;
+
+    /** maximum time to wait for a pending snapshot to be written when closing. */
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    /** cache. */
+    private final Cache cache;
+
+    /** clock. */
+    private final Clock clock;
+
+    /** snapshot file. */
+    private final Path file;
+
+    /** scheduled executor service. */
+    private final ScheduledExecutorService ses;
+
+    /** future to cancel the background snapshot task. */
+    private Future<?> future;
+
+    /** single thread executor writing the periodic snapshots, null until started. */
+    private ExecutorService writer;
+
+    /**
+     * Constructor.
+     *
+     * @param aCache cache
+     * @param aClock clock
+     * @param aFile snapshot file
+     * @param aSes scheduled executor service, not shut down by this snapshot
+     */
+    CacheSnapshot(final Cache aCache, final Clock aClock, final Path aFile, final ScheduledExecutorService aSes) {
+        cache = aCache;
+        clock = aClock;
+        file = aFile;
+        ses = aSes;
+    }
+
+    /**
+     * Cancels the background snapshot task, waits for a pending snapshot to be written and saves a last snapshot.
+     */
+    @Override
+    public final void close() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+            writer.shutdown();
+            try {
+                if (!writer.awaitTermination(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                    LOGGER.warning(() -> "Pending cache snapshot not written within " + CLOSE_TIMEOUT);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            writer = null;
+        }
+        save();
+    }
+
+    /**
+     * Loads the records of the snapshot file that have not yet expired into the cache.
+     *
+     * @return the loaded records, empty if there is no snapshot file or if it cannot be read
+     */
+    final List<DnsRecord> load() {
+        final List<DnsRecord> loaded = new ArrayList<>();
+        try (final DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (dis.readInt() != MAGIC || dis.readByte() != VERSION) {
+                LOGGER.warning(() -> "Ignoring unsupported cache snapshot " + file);
+                return Collections.emptyList();
+            }
+            final Instant stamp = Instant.ofEpochMilli(dis.readLong());
+            final int nbMessages = dis.readInt();
+            final Instant now = clock.instant();
+            for (int i = 0; i < nbMessages; i++) {
+                final byte[] bytes = new byte[dis.readInt()];
+                dis.readFully(bytes);
+                for (final DnsRecord record : DnsMessage.decode(bytes, stamp).answers()) {
+                    if (!record.isExpired(now)) {
+                        cache.add(record);
+                        loaded.add(record);
+                    }
+                }
+            }
+            LOGGER.info(() -> "Loaded " + loaded.size() + " records from cache snapshot " + file);
+        } catch (final NoSuchFileException e) {
+            LOGGER.fine(() -> "No cache snapshot " + file);
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Could not load cache snapshot " + file, e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Saves all the cached records that have not expired to the snapshot file.
+     * <p>
+     * The snapshot is first written to a temporary file which then replaces the snapshot file.
+     */
+    final void save() {
+        final Instant now = clock.instant();
+        final List<DnsRecord> records = cache.snapshot();
+        final List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < records.size(); i += RECORDS_PER_MESSAGE) {
+            final DnsMessage.Builder builder = DnsMessage.response();
+            final Optional<Instant> stamp = Optional.of(now);
+            records
+                .subList(i, Math.min(i + RECORDS_PER_MESSAGE, records.size()))
+                .forEach(r -> builder.addAnswer(r, stamp));
+            messages.add(builder.get().encode());
+        }
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (final DataOutputStream dos =
+                    new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                dos.writeInt(MAGIC);
+                dos.writeByte(VERSION);
+                dos.writeLong(now.toEpochMilli());
+                dos.writeInt(messages.size());
+                for (final byte[] message : messages) {
+                    dos.writeInt(message.length);
+                    dos.write(message);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.fine(() -> "Saved " + records.size() + " records to cache snapshot " + file);
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save cache snapshot " + file, e);
+        }
+    }
+
+    /**
+     * Starts a background task to periodically save the cache from a dedicated thread.
+     *
+     * @param interval interval between snapshots
+     */
+    final void start(final Duration interval) {
+        final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), new HaloThreadFactory("snapshot"), new ThreadPoolExecutor.DiscardPolicy());
+        writer = executor;
+        final long millis = interval.toMillis();
+        future = ses.scheduleAtFixedRate(() -> executor.execute(this::save), millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+}
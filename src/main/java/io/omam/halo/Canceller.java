@@ -32,20 +32,18 @@ package io.omam.halo;
 
 import static io.omam.halo.HaloProperties.CANCELLING_INTERVAL;
 import static io.omam.halo.HaloProperties.CANCEL_NUM;
-import static io.omam.halo.MulticastDnsSd.CLASS_IN;
-import static io.omam.halo.MulticastDnsSd.FLAGS_AA;
-import static io.omam.halo.MulticastDnsSd.uniqueClass;
 import static java.time.Duration.ZERO;
 
 import java.io.IOException;
 import java.time.Instant;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.logging.Level;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
-
-import io.omam.halo.DnsMessage.Builder;
+import java.util.stream.Collectors;
 
 /**
  * Cancels {@link Service}s on the network by sending goodbyes packet (i.e. packet with a TTL of 0).
@@ -53,12 +51,12 @@ import io.omam.halo.DnsMessage.Builder;
 final class Canceller implements AutoCloseable {
 
     /**
-     * Cancel task.
+     * Cancel task: goodbyes of several services are merged into as few packets as possible.
      */
     private static final class CancelTask implements Callable<Void> {
 
-        /** the service to cancel. */
-        private final Service service;
+        /** the announcement of each service to cancel. */
+        private final List<ServiceAnnouncement> announcements;
 
         /** halo helper. */
         private final HaloHelper halo;
@@ -66,40 +64,17 @@ final class Canceller implements AutoCloseable {
         /**
          * Constructor.
          *
-         * @param aService service to cancel
+         * @param someAnnouncements announcement of each service to cancel
          * @param haloHelper halo helper
          */
-        CancelTask(final Service aService, final HaloHelper haloHelper) {
-            service = aService;
+        CancelTask(final List<ServiceAnnouncement> someAnnouncements, final HaloHelper haloHelper) {
+            announcements = someAnnouncements;
             halo = haloHelper;
         }
 
         @Override
         public final Void call() throws Exception {
-            final Instant now = halo.now();
-            final String hostname = service.hostname();
-            final Attributes attributes = service.attributes();
-            final String serviceName = service.name();
-            final short unique = uniqueClass(CLASS_IN);
-            final Builder builder = DnsMessage
-                .response(FLAGS_AA)
-                .addAnswer(new PtrRecord(service.registrationPointerName(), CLASS_IN, ZERO, now, serviceName),
-                        Optional.empty())
-                .addAnswer(new SrvRecord(serviceName, unique, ZERO, now, service.port(), hostname),
-                        Optional.empty())
-                .addAnswer(new TxtRecord(serviceName, unique, ZERO, now, attributes), Optional.empty());
-
-            service
-                .ipv4Address()
-                .ifPresent(a -> builder
-                    .addAnswer(new AddressRecord(hostname, unique, ZERO, now, a), Optional.empty()));
-
-            service
-                .ipv6Address()
-                .ifPresent(a -> builder
-                    .addAnswer(new AddressRecord(hostname, unique, ZERO, now, a), Optional.empty()));
-
-            halo.sendMessage(builder.get());
+            ServiceAnnouncement.messages(announcements, ZERO, halo.now()).forEach(halo::sendMessage);
             return null;
         }
     }
@@ -127,30 +102,54 @@ final class Canceller implements AutoCloseable {
 
     @Override
     public final void close() {
-        executor.shutdownNow();
+        executor.close();
     }
 
     /**
      * Cancels the given service.
      * <p>
      * This method does not check whether the service has been announced or already canceled.
+     * <p>
+     * This method does not block: the returned future completes once the first goodbye has been sent.
      *
      * @param service service
-     * @throws IOException if an exception occurs while probing
+     * @return a future completed once the first goodbye has been sent
      */
-    final void cancel(final Service service) throws IOException {
-        LOGGER.fine(() -> "Cancelling " + service);
+    final CompletableFuture<Void> cancel(final Service service) {
+        return cancelAll(Collections.singletonList(service));
+    }
+
+    /**
+     * Cancels all the given services at once: the goodbyes of all services are sent together, in as few packets
+     * as possible, {@link HaloProperties#CANCEL_NUM} times.
+     * <p>
+     * This method does not check whether the services have been announced or already canceled.
+     * <p>
+     * This method does not block: the returned future completes once the first goodbyes have been sent.
+     *
+     * @param services services
+     * @return a future completed once the first goodbyes have been sent
+     */
+    final CompletableFuture<Void> cancelAll(final Collection<? extends Service> services) {
+        if (services.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        LOGGER.fine(() -> "Cancelling " + services);
+        final Instant now = halo.now();
+        final List<ServiceAnnouncement> announcements = new ArrayList<>(services.size());
         try {
-            final CancelTask task = new CancelTask(service, halo);
-            executor.scheduleBatch(service.name(), task, CANCEL_NUM, CANCELLING_INTERVAL).awaitFirst();
-            LOGGER.info(() -> "Cancelled " + service);
-        } catch (final ExecutionException e) {
-            throw new IOException(e);
-        } catch (final InterruptedException e) {
-            LOGGER.log(Level.FINE, "Interrupted while cancelling service", e);
-            Thread.currentThread().interrupt();
+            for (final Service service : services) {
+                announcements.add(ServiceAnnouncement.of(service, now));
+            }
+        } catch (final IOException e) {
+            return HaloHelper.failed(e);
         }
-
+        final List<String> names = services.stream().map(Service::name).collect(Collectors.toList());
+        final CancelTask task = new CancelTask(announcements, halo);
+        return executor
+            .scheduleBatch(names, task, CANCEL_NUM, CANCELLING_INTERVAL)
+            .whenFirst()
+            .thenRun(() -> LOGGER.info(() -> "Cancelled " + services));
     }
 
 }
@@ -33,23 +33,34 @@ package io.omam.halo;
 import static io.omam.halo.MulticastDnsSd.FLAGS_QR_MASK;
 import static io.omam.halo.MulticastDnsSd.FLAGS_QR_QUERY;
 import static io.omam.halo.MulticastDnsSd.FLAGS_QR_RESPONSE;
+import static io.omam.halo.MulticastDnsSd.FLAGS_TC;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
 import static io.omam.halo.MulticastDnsSd.TYPE_A;
 import static io.omam.halo.MulticastDnsSd.TYPE_AAAA;
 import static io.omam.halo.MulticastDnsSd.TYPE_PTR;
 import static io.omam.halo.MulticastDnsSd.TYPE_SRV;
 import static io.omam.halo.MulticastDnsSd.TYPE_TXT;
 import static io.omam.halo.MulticastDnsSd.encodeClass;
+import static io.omam.halo.MulticastDnsSd.toLowerCase;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 /**
@@ -238,9 +249,203 @@ final class DnsMessage {
 
     }
 
-    /** list of all answers, authorities and additional records. */
+    /**
+     * Index of the records of a decoded DNS message.
+     * <p>
+     * Received bytes are scanned once to locate each record and to read its type. The name and data of a record
+     * are only decoded when the record is first requested, and the decoded record is then kept for subsequent
+     * requests. Records of unsupported types are not indexed.
+     * <p>
+     * Records are decoded from the buffer the message was decoded from: the index is only valid as long as the
+     * content of this buffer is left unchanged. Records are decoded while holding the lock of the index, so that
+     * they can be requested by any thread.
+     */
+    private static final class RecordIndex {
+
+        /** stream to read records from. */
+        private final MessageInputStream input;
+
+        /** instant at which the message was received. */
+        private final Instant now;
+
+        /** offset of each record in the stream. */
+        private final int[] offsets;
+
+        /** type of each record. */
+        private final short[] types;
+
+        /** number of indexed records. */
+        private final int size;
+
+        /** number of indexed answers. */
+        private final int nbAnswers;
+
+        /** number of indexed authorities. */
+        private final int nbAuthorities;
+
+        /** decoded records, null if not yet decoded or malformed. */
+        private final DnsRecord[] records;
+
+        /** whether decoding of each record has been attempted. */
+        private final boolean[] decoded;
+
+        /** decoded name of each record, null if not yet decoded. */
+        private final String[] names;
+
+        /**
+         * Constructor.
+         *
+         * @param anInput stream to read records from, positioned at the first record
+         * @param aNow instant at which the message was received
+         * @param numAnswers number of answers in the message
+         * @param numAuthorities number of authorities in the message
+         * @param numAdditional number of additional records in the message
+         * @throws IOException if the message is malformed
+         */
+        RecordIndex(final MessageInputStream anInput, final Instant aNow, final int numAnswers,
+                final int numAuthorities, final int numAdditional) throws IOException {
+            input = anInput;
+            now = aNow;
+            final int total = numAnswers + numAuthorities + numAdditional;
+            offsets = new int[total];
+            types = new short[total];
+            int count = 0;
+            int answersCount = 0;
+            int authoritiesCount = 0;
+            for (int i = 0; i < total; i++) {
+                final int offset = input.position();
+                input.skipName();
+                final short type = (short) input.readShort();
+                /* class and TTL are read when the record is decoded. */
+                input.readShort();
+                input.readInt();
+                final short length = (short) input.readShort();
+                final int skipped = input.skip(length);
+                if (isSupported(type)) {
+                    if (skipped != length) {
+                        throw new IOException("Record data exceeds message length.");
+                    }
+                    offsets[count] = offset;
+                    types[count] = type;
+                    count++;
+                    if (i < numAnswers) {
+                        answersCount++;
+                    } else if (i < numAnswers + numAuthorities) {
+                        authoritiesCount++;
+                    }
+                } else if (skipped != length) {
+                    /*
+                     * ignore unknown types: skip the payload for the resource record so the next records can be
+                     * parsed correctly.
+                     */
+                    throw new IOException("Failed to skip over ignored record.");
+                }
+            }
+            size = count;
+            nbAnswers = answersCount;
+            nbAuthorities = authoritiesCount;
+            records = new DnsRecord[count];
+            decoded = new boolean[count];
+            names = new String[count];
+        }
+
+        /**
+         * Determines whether the given record type is supported.
+         *
+         * @param type record type
+         * @return {@code true} iff records of the given type can be decoded
+         */
+        private static boolean isSupported(final short type) {
+            return type == TYPE_A || type == TYPE_AAAA || type == TYPE_PTR || type == TYPE_SRV || type == TYPE_TXT;
+        }
+
+        /**
+         * @return number of indexed answers.
+         */
+        final int nbAnswers() {
+            return nbAnswers;
+        }
+
+        /**
+         * @return number of indexed authorities.
+         */
+        final int nbAuthorities() {
+            return nbAuthorities;
+        }
+
+        /**
+         * Returns the name of the record at the given index, decoding only the name if the record has not been
+         * decoded yet.
+         *
+         * @param index index of the record
+         * @return the name of the record at the given index if well-formed
+         */
+        final synchronized Optional<String> name(final int index) {
+            if (names[index] == null && !decoded[index]) {
+                try {
+                    input.seek(offsets[index]);
+                    names[index] = input.readName();
+                } catch (final BufferUnderflowException e) {
+                    decoded[index] = true;
+                    LOGGER.log(Level.WARNING, "Ignored malformed DNS record", e);
+                }
+            }
+            return Optional.ofNullable(names[index]);
+        }
+
+        /**
+         * Returns the record at the given index, decoding it if needed.
+         *
+         * @param index index of the record
+         * @return the record at the given index if well-formed
+         */
+        final synchronized Optional<DnsRecord> record(final int index) {
+            if (!decoded[index]) {
+                decoded[index] = true;
+                try {
+                    input.seek(offsets[index]);
+                    records[index] = readRecord(input, now).orElse(null);
+                    if (records[index] != null) {
+                        names[index] = records[index].name();
+                    }
+                } catch (final IOException | BufferUnderflowException e) {
+                    LOGGER.log(Level.WARNING, "Ignored malformed DNS record", e);
+                }
+            }
+            return Optional.ofNullable(records[index]);
+        }
+
+        /**
+         * @return number of indexed records.
+         */
+        final int size() {
+            return size;
+        }
+
+        /**
+         * Returns the type of the record at the given index.
+         *
+         * @param index index of the record
+         * @return the type of the record at the given index
+         */
+        final short type(final int index) {
+            return types[index];
+        }
+
+    }
+
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(DnsMessage.class.getName());
+
+    /** size of the header of a DNS message: ID, flags and the number of entries of each section. */
+    static final int HEADER_SIZE = 12;
+
+    /** list of all answers, authorities and additional records, null if decoded. */
     private final List<DnsAnswer> answers;
 
+    /** index of all answers, authorities and additional records, null if built. */
+    private final RecordIndex index;
+
     /** DNS message flags. */
     private final short flags;
 
@@ -256,6 +461,9 @@ final class DnsMessage {
     /** list of questions. */
     private final List<DnsQuestion> questions;
 
+    /** encoding of this message if it has been pre-encoded, null otherwise. */
+    private final byte[] encoding;
+
     /**
      * Constructor.
      *
@@ -272,11 +480,81 @@ final class DnsMessage {
         answers.addAll(someAnswers);
         someAuthorities.forEach(a -> answers.add(DnsAnswer.unstamped(a)));
         someAdditional.forEach(a -> answers.add(DnsAnswer.unstamped(a)));
+        index = null;
         flags = someFlags;
         nbAnswers = someAnswers.size();
         nbAuthorities = someAuthorities.size();
         nbAdditional = someAdditional.size();
         questions = someQuestions;
+        encoding = null;
+    }
+
+    /**
+     * Constructor for a decoded message.
+     *
+     * @param someFlags DNS message flags
+     * @param someQuestions list of questions
+     * @param anIndex index of all answers, authorities and additional records
+     * @param anEncoding encoding of the message if pre-encoded, null otherwise
+     */
+    private DnsMessage(final short someFlags, final List<DnsQuestion> someQuestions, final RecordIndex anIndex,
+            final byte[] anEncoding) {
+        answers = null;
+        index = anIndex;
+        flags = someFlags;
+        nbAnswers = anIndex.nbAnswers();
+        nbAuthorities = anIndex.nbAuthorities();
+        nbAdditional = anIndex.size() - nbAnswers - nbAuthorities;
+        questions = someQuestions;
+        encoding = anEncoding;
+    }
+
+    /**
+     * Determines whether the bytes remaining in the given buffer encode a DNS message relating to a name matching
+     * the given predicate: name of any question of a query, or name of any question or record of a response.
+     * <p>
+     * Address records are not exempted: responses only holding the address of a host are deemed relevant if the
+     * hostname matches the given predicate, i.e. once the hostname is known from the service record referencing it.
+     * <p>
+     * Names are decoded but no {@code DnsMessage} is built. The position of the buffer is left unchanged.
+     *
+     * @param buffer buffer containing the bytes of the message
+     * @param predicate predicate to test names against
+     * @return {@code true} iff at least one name of the message matches the given predicate
+     * @throws IOException in case of I/O error during decoding
+     */
+    static boolean anyNameMatches(final ByteBuffer buffer, final Predicate<String> predicate) throws IOException {
+        try (final MessageInputStream input = new MessageInputStream(buffer)) {
+            input.readShort();
+            final short flags = (short) input.readShort();
+            final int numQuestions = input.readShort();
+            final int numRecords = input.readShort() + input.readShort() + input.readShort();
+            for (int i = 0; i < numQuestions; i++) {
+                if (predicate.test(input.readName())) {
+                    return true;
+                }
+                /* type and class. */
+                input.readInt();
+            }
+            if ((flags & FLAGS_QR_MASK) == FLAGS_QR_QUERY) {
+                return false;
+            }
+            for (int i = 0; i < numRecords; i++) {
+                if (predicate.test(input.readName())) {
+                    return true;
+                }
+                /* type, class and TTL. */
+                input.readInt();
+                input.readInt();
+                final int length = input.readShort();
+                if (input.skip(length) != length) {
+                    throw new IOException("Record data exceeds message length.");
+                }
+            }
+            return false;
+        } catch (final BufferUnderflowException e) {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -288,7 +566,196 @@ final class DnsMessage {
      * @throws IOException in case of I/O error during decoding
      */
     static DnsMessage decode(final byte[] bytes, final Instant now) throws IOException {
-        try (final MessageInputStream input = new MessageInputStream(bytes)) {
+        return decode(ByteBuffer.wrap(bytes), now);
+    }
+
+    /**
+     * Decodes the bytes remaining in the given buffer into a {@code DnsMessage}.
+     * <p>
+     * The content of the buffer is read in place: it is neither copied nor consumed (i.e. the position of the
+     * buffer is left unchanged).
+     * <p>
+     * Only the header and the questions are decoded eagerly: records are located but only decoded when first
+     * requested through {@link #answers()}, {@link #answers(short)} or {@link #answers(Predicate)}. Therefore the
+     * content of the buffer must be left unchanged while the returned message is in use: the channel decodes each
+     * received message from a copy of the received bytes owned by the message.
+     * <p>
+     * Records of the returned message can be requested by any thread, at any time.
+     *
+     * @param buffer buffer containing the bytes to decode
+     * @param now current instant
+     * @return the decoded {@code DnsMessage}
+     * @throws IOException in case of I/O error during decoding
+     */
+    static DnsMessage decode(final ByteBuffer buffer, final Instant now) throws IOException {
+        return decode(buffer, now, null);
+    }
+
+    /**
+     * Returns the queries asking the given questions with the given known answers (RFC 6762 section 7.2).
+     * <p>
+     * If the questions and all known answers do not fit in {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes, known
+     * answers are split across several queries: only the first query holds the questions and all queries but the
+     * last have the {@link MulticastDnsSd#FLAGS_TC truncated} flag set.
+     *
+     * @param questions questions
+     * @param knownAnswers known answers
+     * @param now current instant, used to compute the remaining TTL of each known answer
+     * @return the queries to send in order, at least one
+     */
+    static List<DnsMessage> knownAnswerQueries(final List<DnsQuestion> questions,
+            final List<DnsRecord> knownAnswers, final Instant now) {
+        final List<List<DnsRecord>> parts = new ArrayList<>();
+        split(questions, knownAnswers, now, parts);
+        final List<DnsMessage> queries = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            final Builder builder = i < parts.size() - 1 ? query(FLAGS_TC) : query();
+            if (i == 0) {
+                questions.forEach(builder::addQuestion);
+            }
+            parts.get(i).forEach(a -> builder.addAnswer(a, Optional.of(now)));
+            queries.add(builder.get());
+        }
+        return queries;
+    }
+
+    /**
+     * Merges the given responses into a single response holding the answers of both, if both responses have the
+     * same flags and only hold answers.
+     * <p>
+     * Records of decoded (or pre-encoded) responses are decoded.
+     *
+     * @param first first response
+     * @param second second response
+     * @return the merged response or empty if the given messages cannot be merged
+     */
+    static Optional<DnsMessage> merge(final DnsMessage first, final DnsMessage second) {
+        if (!first.onlyAnswers() || !second.onlyAnswers() || first.flags != second.flags) {
+            return Optional.empty();
+        }
+        final List<DnsAnswer> merged = new ArrayList<>(first.nbAnswers + second.nbAnswers);
+        first.addAnswersTo(merged);
+        second.addAnswersTo(merged);
+        return Optional
+            .of(new DnsMessage(first.flags, Collections.emptyList(), merged, Collections.emptyList(),
+                               Collections.emptyList()));
+    }
+
+    /**
+     * Returns a {@code DnsMessage} for the given pre-encoded bytes, which must be a well-formed encoding of a DNS
+     * message (e.g. as returned by {@link #encode()}).
+     * <p>
+     * Records are only decoded when requested and {@link #encode()} returns a copy of the given bytes: sending the
+     * returned message does not re-encode any record. The given bytes must be left unchanged while the returned
+     * message is in use.
+     *
+     * @param bytes pre-encoded bytes
+     * @param now current instant
+     * @return the {@code DnsMessage}
+     * @throws IOException in case of I/O error during decoding
+     */
+    static DnsMessage preEncoded(final byte[] bytes, final Instant now) throws IOException {
+        return decode(ByteBuffer.wrap(bytes), now, bytes);
+    }
+
+    /**
+     * Returns the queries asking the given questions, packing as many questions as fit in
+     * {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes in each query.
+     *
+     * @param questions questions
+     * @return the queries to send, empty if there are no questions
+     */
+    static List<DnsMessage> queries(final List<DnsQuestion> questions) {
+        return queries(questions, q -> Collections.emptyList(), Instant.EPOCH);
+    }
+
+    /**
+     * Returns the queries asking the given questions with their known answers, packing as many questions as fit in
+     * {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes in each query.
+     * <p>
+     * Each question is sent in the same query as its known answers. Within a query, a question or a known answer
+     * shared by several questions is only sent once.
+     *
+     * @param questions questions
+     * @param knownAnswers function returning the known answers of a question
+     * @param now current instant, used to compute the remaining TTL of each known answer
+     * @return the queries to send, empty if there are no questions
+     */
+    static List<DnsMessage> queries(final List<DnsQuestion> questions,
+            final Function<DnsQuestion, List<DnsRecord>> knownAnswers, final Instant now) {
+        final List<DnsMessage> queries = new ArrayList<>();
+        final Optional<Instant> stamp = Optional.of(now);
+        final Set<String> asked = new HashSet<>();
+        final Set<DnsRecord> known = Collections.newSetFromMap(new IdentityHashMap<>());
+        Builder builder = null;
+        int size = 0;
+        for (final DnsQuestion question : questions) {
+            final String key = toLowerCase(question.name()) + "/" + question.type() + "/" + question.clazz();
+            if (builder != null && asked.contains(key)) {
+                continue;
+            }
+            /* uncompressed size: name labels + root, type and class. */
+            final int qsize = question.name().length() + 1 + 4;
+            final List<DnsRecord> answers = knownAnswers.apply(question);
+            final int asize = answers.stream().filter(a -> !known.contains(a)).mapToInt(DnsRecord::size).sum();
+            if (builder != null && size + qsize + asize > MAX_PACKET_SIZE) {
+                queries.add(builder.get());
+                builder = null;
+            }
+            if (builder == null) {
+                builder = query();
+                size = HEADER_SIZE;
+                asked.clear();
+                known.clear();
+            }
+            builder.addQuestion(question);
+            asked.add(key);
+            size += qsize;
+            for (final DnsRecord answer : answers) {
+                if (known.add(answer)) {
+                    builder.addAnswer(answer, stamp);
+                    size += answer.size();
+                }
+            }
+        }
+        if (builder != null) {
+            queries.add(builder.get());
+        }
+        return queries;
+    }
+
+    /**
+     * Returns a new {@link Builder builder} to build a DNS {@link DnsMessage#isQuery() query}.
+     *
+     * @param flags additional flags (on top of FLAGS_QR_QUERY)
+     * @return a new {@link Builder builder}
+     */
+    static Builder query(final short... flags) {
+        return new Builder(FLAGS_QR_QUERY, flags);
+    }
+
+    /**
+     * Returns a new {@link Builder builder} to build a DNS {@link DnsMessage#isResponse() response}.
+     *
+     * @param flags additional flags (on top of FLAGS_QR_RESPONSE)
+     * @return a new {@link Builder builder}
+     */
+    static Builder response(final short... flags) {
+        return new Builder(FLAGS_QR_RESPONSE, flags);
+    }
+
+    /**
+     * Decodes the bytes remaining in the given buffer into a {@code DnsMessage}.
+     *
+     * @param buffer buffer containing the bytes to decode
+     * @param now current instant
+     * @param encoding encoding of the message if pre-encoded, null otherwise
+     * @return the decoded {@code DnsMessage}
+     * @throws IOException in case of I/O error during decoding
+     */
+    private static DnsMessage decode(final ByteBuffer buffer, final Instant now, final byte[] encoding)
+            throws IOException {
+        try (final MessageInputStream input = new MessageInputStream(buffer)) {
             /*
              * header is 6 shorts for the ID, flags, number of questions, number of answers, number of authorities
              * and number of additional. ID is irrelevant for mDNS.
@@ -308,36 +775,53 @@ final class DnsMessage {
                 final DnsQuestion question = new DnsQuestion(name, type, clazz);
                 questions.add(question);
             }
-            final List<DnsAnswer> answers = readRecords(input, numAnswers, now)
-                .stream()
-                .map(DnsAnswer::unstamped)
-                .collect(Collectors.toList());
-            final List<DnsRecord> authorities = readRecords(input, numAuthorities, now);
-            final List<DnsRecord> additional = readRecords(input, numAdditional, now);
-            return new DnsMessage(flags, questions, answers, authorities, additional);
+            final RecordIndex index = new RecordIndex(input, now, numAnswers, numAuthorities, numAdditional);
+            return new DnsMessage(flags, questions, index, encoding);
         } catch (final BufferUnderflowException e) {
             throw new IOException(e);
         }
     }
 
     /**
-     * Returns a new {@link Builder builder} to build a DNS {@link DnsMessage#isQuery() query}.
+     * Adds the given record, which name matches, to the given list, and its server to the given set if it is a
+     * service record.
      *
-     * @param flags additional flags (on top of FLAGS_QR_QUERY)
-     * @return a new {@link Builder builder}
+     * @param record matching record
+     * @param records matching records
+     * @param servers servers (lower case) of the matching service records
      */
-    static Builder query(final short... flags) {
-        return new Builder(FLAGS_QR_QUERY, flags);
+    private static void addMatching(final DnsRecord record, final List<DnsRecord> records,
+            final Set<String> servers) {
+        records.add(record);
+        if (record instanceof SrvRecord) {
+            servers.add(toLowerCase(((SrvRecord) record).server()));
+        }
     }
 
     /**
-     * Returns a new {@link Builder builder} to build a DNS {@link DnsMessage#isResponse() response}.
+     * Determines whether the given record type is an address type.
      *
-     * @param flags additional flags (on top of FLAGS_QR_RESPONSE)
-     * @return a new {@link Builder builder}
+     * @param type record type
+     * @return {@code true} iff the given type is {@code A} or {@code AAAA}
      */
-    static Builder response(final short... flags) {
-        return new Builder(FLAGS_QR_RESPONSE, flags);
+    private static boolean isAddress(final short type) {
+        return type == TYPE_A || type == TYPE_AAAA;
+    }
+
+    /**
+     * Determines whether a record of the given type and name, which does not match the given predicate, is the
+     * address of one of the given servers.
+     *
+     * @param type record type
+     * @param name record name
+     * @param names predicate to test names against
+     * @param servers servers (lower case) of the matching service records
+     * @return {@code true} iff the record is an address record of one of the given servers, which has not
+     *         already been matched
+     */
+    private static boolean isServerAddress(final short type, final String name, final Predicate<String> names,
+            final Set<String> servers) {
+        return isAddress(type) && servers.contains(toLowerCase(name)) && !names.test(name);
     }
 
     /**
@@ -386,7 +870,7 @@ final class DnsMessage {
                  * ignore unknown types: skip the payload for the resource record so the next records can be parsed
                  * correctly.
                  */
-                final long skipped = input.skip(length);
+                final int skipped = input.skip(length);
                 if (skipped != length) {
                     throw new IOException("Failed to skip over ignored record.");
                 }
@@ -397,21 +881,26 @@ final class DnsMessage {
     }
 
     /**
-     * Reads all {@link DnsRecord}(s) from the given stream.
+     * Splits the given known answers into parts which fit in {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes along
+     * with the given questions, halving them until they fit.
      *
-     * @param input stream
-     * @param size number of record(s) to read
+     * @param questions questions sent with the first part
+     * @param knownAnswers known answers
      * @param now current instant
-     * @return all read DNS record(s)
-     * @throws IOException in case of I/O error
+     * @param parts list to which parts are added in order
      */
-    private static List<DnsRecord> readRecords(final MessageInputStream input, final int size, final Instant now)
-            throws IOException {
-        final List<DnsRecord> records = new ArrayList<>();
-        for (int i = 0; i < size; i++) {
-            readRecord(input, now).ifPresent(records::add);
+    private static void split(final List<DnsQuestion> questions, final List<DnsRecord> knownAnswers,
+            final Instant now, final List<List<DnsRecord>> parts) {
+        final Builder builder = query();
+        questions.forEach(builder::addQuestion);
+        knownAnswers.forEach(a -> builder.addAnswer(a, Optional.of(now)));
+        if (knownAnswers.size() <= 1 || builder.get().encode().length <= MAX_PACKET_SIZE) {
+            parts.add(knownAnswers);
+        } else {
+            final int half = knownAnswers.size() / 2;
+            split(questions, knownAnswers.subList(0, half), now, parts);
+            split(Collections.emptyList(), knownAnswers.subList(half, knownAnswers.size()), now, parts);
         }
-        return records;
     }
 
     /**
@@ -465,22 +954,126 @@ final class DnsMessage {
                 .append(" question(s): ")
                 .append(questions.toString());
         } else {
+            final List<DnsRecord> records = answers();
             builder
                 .append("response with ")
-                .append(answers.size())
+                .append(records.size())
                 .append(" answer(s): ")
-                .append(answers.toString());
+                .append(records.toString());
         }
         return builder.toString();
     }
 
+    /**
+     * @return all additional record(s) of this message.
+     */
+    final List<DnsRecord> additional() {
+        return records(2);
+    }
+
+    /**
+     * @return the answer(s) of this message, excluding authority(s) and additional(s).
+     */
+    final List<DnsRecord> answerSection() {
+        return records(0);
+    }
+
     /**
      * Returns all answer(s), including authority(s) and additional(s), of this message.
      *
      * @return all answer(s) of this message.
      */
     final List<DnsRecord> answers() {
-        return Collections.unmodifiableList(answers.stream().map(DnsAnswer::record).collect(Collectors.toList()));
+        if (index == null) {
+            return Collections
+                .unmodifiableList(answers.stream().map(DnsAnswer::record).collect(Collectors.toList()));
+        }
+        final List<DnsRecord> records = new ArrayList<>(index.size());
+        for (int i = 0; i < index.size(); i++) {
+            index.record(i).ifPresent(records::add);
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Returns all answer(s), including authority(s) and additional(s), of the given type of this message.
+     * <p>
+     * If this message has been decoded, records of any other type are not decoded.
+     *
+     * @param type record type
+     * @return all answer(s) of the given type of this message.
+     */
+    final List<DnsRecord> answers(final short type) {
+        if (index == null) {
+            return Collections
+                .unmodifiableList(answers
+                    .stream()
+                    .map(DnsAnswer::record)
+                    .filter(r -> r.type() == type)
+                    .collect(Collectors.toList()));
+        }
+        final List<DnsRecord> records = new ArrayList<>();
+        for (int i = 0; i < index.size(); i++) {
+            if (index.type(i) == type) {
+                index.record(i).ifPresent(records::add);
+            }
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Returns all answer(s), including authority(s) and additional(s), of this message whose name matches the
+     * given predicate, as well as the address records of the server of any matching {@code SRV} record: the
+     * addresses of a newly discovered service are commonly sent as additional records, before its hostname is
+     * deemed relevant.
+     * <p>
+     * If this message has been decoded, only the names of the other records are decoded.
+     *
+     * @param names predicate to test names against
+     * @return all answer(s) of this message whose name matches the given predicate and the addresses of the
+     *         servers of the matching service records
+     */
+    final List<DnsRecord> answers(final Predicate<String> names) {
+        final List<DnsRecord> records = new ArrayList<>();
+        final Set<String> servers = new HashSet<>();
+        if (index == null) {
+            for (final DnsAnswer answer : answers) {
+                final DnsRecord record = answer.record();
+                if (names.test(record.name())) {
+                    addMatching(record, records, servers);
+                }
+            }
+            if (!servers.isEmpty()) {
+                for (final DnsAnswer answer : answers) {
+                    final DnsRecord record = answer.record();
+                    if (isServerAddress(record.type(), record.name(), names, servers)) {
+                        records.add(record);
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < index.size(); i++) {
+                if (index.name(i).filter(names).isPresent()) {
+                    index.record(i).ifPresent(r -> addMatching(r, records, servers));
+                }
+            }
+            if (!servers.isEmpty()) {
+                for (int i = 0; i < index.size(); i++) {
+                    final short type = index.type(i);
+                    if (index.name(i).filter(n -> isServerAddress(type, n, names, servers)).isPresent()) {
+                        index.record(i).ifPresent(records::add);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * @return all authority(s) of this message.
+     */
+    final List<DnsRecord> authorities() {
+        return records(1);
     }
 
     /**
@@ -489,20 +1082,113 @@ final class DnsMessage {
      * @return bytes
      */
     final byte[] encode() {
+        if (encoding != null) {
+            return encoding.clone();
+        }
         try (final MessageOutputStream output = new MessageOutputStream()) {
-            output.writeShort((short) 0);
+            encode(output);
+            return output.toByteArray();
+        }
+    }
 
-            output.writeShort(flags);
-            output.writeShort((short) questions.size());
-            output.writeShort((short) nbAnswers);
-            output.writeShort((short) nbAuthorities);
-            output.writeShort((short) nbAdditional);
+    /**
+     * Encodes this {@code DnsMessage} in binary format into the given stream, which must be empty.
+     *
+     * @param output stream
+     */
+    final void encode(final MessageOutputStream output) {
+        if (encoding != null) {
+            output.write(encoding, 0, encoding.length);
+            return;
+        }
+        output.writeShort((short) 0);
+
+        output.writeShort(flags);
+        output.writeShort((short) questions.size());
+        output.writeShort((short) nbAnswers);
+        output.writeShort((short) nbAuthorities);
+        output.writeShort((short) nbAdditional);
 
-            questions.forEach(q -> write(q, output));
+        questions.forEach(q -> write(q, output));
+        if (index == null) {
             answers.forEach(a -> write(a.record(), a.stamp(), output));
+        } else {
+            /* malformed records are not written: update the number of records of each section. */
+            final int[] counts = new int[3];
+            for (int i = 0; i < index.size(); i++) {
+                final Optional<DnsRecord> record = index.record(i);
+                if (record.isPresent()) {
+                    write(record.get(), Optional.empty(), output);
+                    counts[section(i)]++;
+                }
+            }
+            output.writeShort(6, (short) counts[0]);
+            output.writeShort(8, (short) counts[1]);
+            output.writeShort(10, (short) counts[2]);
+        }
+    }
 
-            return output.toByteArray();
+    /**
+     * Adds all the answers of this message to the given list.
+     *
+     * @param list list of answers
+     */
+    private void addAnswersTo(final List<DnsAnswer> list) {
+        if (index == null) {
+            list.addAll(answers);
+        } else {
+            for (int i = 0; i < index.size(); i++) {
+                index.record(i).ifPresent(r -> list.add(DnsAnswer.unstamped(r)));
+            }
+        }
+    }
+
+    /**
+     * @return true if this is a response with neither questions nor authority or additional records.
+     */
+    private boolean onlyAnswers() {
+        return isResponse() && questions.isEmpty() && nbAuthorities == 0 && nbAdditional == 0;
+    }
+
+    /**
+     * Returns the records of the given section: 0 for answers, 1 for authorities and 2 for additional records.
+     *
+     * @param section section
+     * @return the records of the given section
+     */
+    private List<DnsRecord> records(final int section) {
+        final List<DnsRecord> records = new ArrayList<>();
+        if (index == null) {
+            for (int i = 0; i < answers.size(); i++) {
+                if (section(i) == section) {
+                    records.add(answers.get(i).record());
+                }
+            }
+        } else {
+            for (int i = 0; i < index.size(); i++) {
+                if (section(i) == section) {
+                    index.record(i).ifPresent(records::add);
+                }
+            }
         }
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Returns the section of the record at the given index: 0 for answers, 1 for authorities and 2 for additional
+     * records.
+     *
+     * @param i index of the record
+     * @return section of the record
+     */
+    private int section(final int i) {
+        if (i < nbAnswers) {
+            return 0;
+        }
+        if (i < nbAnswers + nbAuthorities) {
+            return 1;
+        }
+        return 2;
     }
 
     /**
@@ -512,6 +1198,13 @@ final class DnsMessage {
         return flags;
     }
 
+    /**
+     * @return true if this message has been {@link #preEncoded(byte[], Instant) pre-encoded}.
+     */
+    final boolean isPreEncoded() {
+        return encoding != null;
+    }
+
     /**
      * @return true if this is a query.
      */
@@ -32,6 +32,7 @@ package io.omam.halo;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -45,6 +46,9 @@ abstract class DnsRecord extends DnsEntry {
     /** creation instant. */
     private final Instant ioc;
 
+    /** encoded data, computed once when first needed. */
+    private volatile byte[] data;
+
     /**
      * Constructor.
      *
@@ -70,6 +74,24 @@ abstract class DnsRecord extends DnsEntry {
      */
     protected abstract void write(final MessageOutputStream mos);
 
+    /**
+     * Returns the encoded data of this record, names being uncompressed: the data is encoded once and the returned
+     * array must not be modified.
+     *
+     * @return the encoded data of this record
+     */
+    final byte[] data() {
+        byte[] result = data;
+        if (result == null) {
+            try (final MessageOutputStream mos = new MessageOutputStream()) {
+                write(mos);
+                result = mos.toByteArray();
+            }
+            data = result;
+        }
+        return result;
+    }
+
     /**
      * Returns the time at which this record will have expired by the given percentage.
      *
@@ -106,6 +128,30 @@ abstract class DnsRecord extends DnsEntry {
         return dur;
     }
 
+    /**
+     * Determines whether the given record is the same resource record as this record: same name (ignoring case),
+     * type, class and data. The TTL of both records are not compared.
+     *
+     * @param other other DNS record
+     * @return {@code true} iff the given record is the same resource record as this record
+     */
+    final boolean sameAs(final DnsRecord other) {
+        return name().equalsIgnoreCase(other.name())
+            && type() == other.type()
+            && clazz() == other.clazz()
+            && Arrays.equals(data(), other.data());
+    }
+
+    /**
+     * Returns the approximate size of this record in bytes: the size of its uncompressed encoding.
+     *
+     * @return the approximate size of this record in bytes
+     */
+    final int size() {
+        /* name labels + root, type, class, TTL and data length. */
+        return name().length() + 1 + 10 + data().length;
+    }
+
     /**
      * Sets TTL to given value.
      *
@@ -123,21 +169,18 @@ abstract class DnsRecord extends DnsEntry {
      * @return {@code true} iff the given message suppresses this record
      */
     final boolean suppressedBy(final DnsMessage msg) {
-        return msg.answers().stream().anyMatch(this::suppressedBy);
+        return msg.answers(type()).stream().anyMatch(this::suppressedBy);
     }
 
     /**
-     * Determines whether the given record has same name, type and class, and if its TTL is at least half of this
-     * record.
+     * Determines whether the given record is the {@link #sameAs(DnsRecord) same} resource record, and if its TTL is
+     * at least half of this record.
      *
      * @param other other DNS record
      * @return {@code true} iff the given record suppresses this record
      */
     final boolean suppressedBy(final DnsRecord other) {
-        return name().equals(other.name())
-            && type() == other.type()
-            && clazz() == other.clazz()
-            && other.ttl.compareTo(ttl.dividedBy(2)) >= 0;
+        return sameAs(other) && other.ttl.compareTo(ttl.dividedBy(2)) >= 0;
     }
 
     /**
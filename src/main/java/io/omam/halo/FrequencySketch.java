@@ -0,0 +1,141 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A probabilistic estimate of how often keys have been seen recently: a count-min sketch of 4 rows of saturating
+ * counters, halved once the number of increments reaches 10 times the width of the sketch so that old
+ * popularity fades.
+ * <p>
+ * Estimates are approximate: they may over-count when keys collide, and concurrent increments may be lost.
+ */
+final class FrequencySketch {
+
+    /** number of rows. */
+    private static final int DEPTH = 4;
+
+    /** maximum value of a counter. */
+    private static final int MAX_COUNT = 15;
+
+    /** minimum width of the sketch. */
+    private static final int MIN_WIDTH = 1 << 8;
+
+    /** maximum width of the sketch. */
+    private static final int MAX_WIDTH = 1 << 13;
+
+    /** seeds of the hash function of each row. */
+    private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+    /** counters, row after row. */
+    private final AtomicIntegerArray counters;
+
+    /** number of increments before halving all counters. */
+    private final int sampleSize;
+
+    /** number of increments since last halving. */
+    private final AtomicInteger size;
+
+    /** mask to compute the index of a counter within a row. */
+    private final int mask;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity expected maximum number of distinct keys
+     */
+    FrequencySketch(final int capacity) {
+        final int bounded = Math.min(Math.max(capacity, MIN_WIDTH), MAX_WIDTH);
+        /* smallest power of 2 not less than bounded. */
+        final int width = Integer.highestOneBit(bounded - 1) << 1;
+        counters = new AtomicIntegerArray(DEPTH * width);
+        sampleSize = 10 * width;
+        size = new AtomicInteger();
+        mask = width - 1;
+    }
+
+    /**
+     * Returns the estimated number of times the given key has been seen recently.
+     *
+     * @param key key
+     * @return estimated frequency in the range [0 .. 15]
+     */
+    final int frequency(final Object key) {
+        final int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters.get(index(hash, row)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the estimated frequency of the given key, unless it has already reached its maximum.
+     *
+     * @param key key
+     */
+    final void increment(final Object key) {
+        final int hash = key.hashCode();
+        for (int row = 0; row < DEPTH; row++) {
+            final int index = index(hash, row);
+            counters.getAndUpdate(index, c -> c < MAX_COUNT ? c + 1 : c);
+        }
+        if (size.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Returns the index of the counter of the given hash in the given row.
+     *
+     * @param hash key hash
+     * @param row row
+     * @return index of the counter
+     */
+    private int index(final int hash, final int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[row];
+        h ^= h >>> 16;
+        return row * (mask + 1) + (h & mask);
+    }
+
+    /**
+     * Halves all counters.
+     */
+    private void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.getAndUpdate(i, c -> c >>> 1);
+        }
+        size.set(0);
+    }
+
+}
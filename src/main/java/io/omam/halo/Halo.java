@@ -40,14 +40,19 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * A multicast DNS Service Discovery, supporting {@link Service named service} registration, resolution and
  * browsing.
  * <p>
  * The following operations are blocking: registration, change of service attributes, de-registration, resolution.
- * If this is not acceptable consider submitting a task to an executor as per the below examples.
+ * If this is not acceptable consider submitting a task to an executor as per the below examples, or resolving
+ * asynchronously.
  * <p>
  * <strong>Registration</strong>
  *
@@ -100,6 +105,12 @@ import java.util.Optional;
  *     // if blocking until the service has been resolved is not acceptable:
  *     ExecutorService es = Executors.newSingleThreadExecutor();
  *     Future&lt;Optional&lt;ResolvedService&gt;&gt; future = es.submit(() -&gt; halo.resolved("Foo Bar", "_http._udp."));
+ *
+ *     // or, without tying up any thread:
+ *     halo.resolveAsync("Foo Bar", "_http._udp.").thenAccept(System.err::println);
+ *
+ *     // several services at once, sharing queries:
+ *     halo.resolveAllAsync(Arrays.asList("Foo", "Bar"), "_http._udp.").thenAccept(System.err::println);
  * }
  * </code>
  * </pre>
@@ -151,11 +162,135 @@ import java.util.Optional;
  * </code>
  * </pre>
  *
+ * <p>
+ * <strong>Execution</strong>
+ * <p>
+ * Each instance dedicates a single thread to receiving messages: all other tasks (timers, sending and dispatching
+ * of messages) run on a scheduler shared by all the components of the instance. Unless supplied by the caller,
+ * the scheduler is created with {@code io.omam.halo.execution.threads} threads and shut down when the instance is
+ * closed. Supplying the same scheduler to many instances bounds the number of threads of the process:
+ *
+ * <pre>
+ * <code>
+ * ScheduledExecutorService ses = Executors.newScheduledThreadPool(4);
+ * try (final Halo halo = Halo.create(Clock.systemDefaultZone()).scheduler(ses).build()) {
+ *     // ...
+ * }
+ * // the supplied scheduler is not shut down when Halo is closed.
+ * ses.shutdown();
+ * </code>
+ * </pre>
+ * <p>
+ * Blocking operations never wait while holding a monitor: they can be invoked from virtual threads (JDK 21 and
+ * later), e.g. to resolve thousands of services concurrently without as many platform threads. When
+ * {@code io.omam.halo.execution.virtual} is {@code true} and the JDK supports virtual threads, received messages
+ * are dispatched on virtual threads.
+ * <p>
+ * Listeners of browsers are never notified from the shared scheduler, so they may block, e.g. to resolve a
+ * service: each browser notifies its listeners in order on a listener executor which, unless supplied by the
+ * caller, runs on virtual threads if enabled and on a dedicated thread pool otherwise.
+ *
  * <p id="configuration">
  * <strong>Configuration</strong>: see {@link HaloProperties}.
  */
 public interface Halo extends AutoCloseable {
 
+    /**
+     * {@link Halo} builder.
+     * <p>
+     * Only the clock is mandatory. Other fields default to:
+     * <ul>
+     * <li>network interfaces: all network interfaces on this machine
+     * <li>scheduler: a new scheduler, shut down when the built instance is closed
+     * <li>listener executor: virtual threads if enabled, a new thread pool otherwise, shut down when the built
+     * instance is closed
+     * </ul>
+     */
+    public static final class Builder {
+
+        /** the clock providing access to the current instant. */
+        private final Clock clock;
+
+        /** executor in which listeners are notified, if supplied. */
+        private Optional<Executor> listenerExecutor;
+
+        /** network interfaces, empty for all network interfaces. */
+        private final Collection<NetworkInterface> nics;
+
+        /** scheduler shared by all components, if supplied. */
+        private Optional<ScheduledExecutorService> scheduler;
+
+        /**
+         * Constructor.
+         *
+         * @param aClock the clock providing access to the current instant for a time zone
+         */
+        Builder(final Clock aClock) {
+            clock = aClock;
+            listenerExecutor = Optional.empty();
+            nics = new ArrayList<>();
+            scheduler = Optional.empty();
+        }
+
+        /**
+         * Returns a new {@link Halo} instance.
+         * <p>
+         * The {@link NetworkInterface#isLoopback() loopback interface} is used only if no other network interface
+         * is {@link NetworkInterface#isUp() up}.
+         *
+         * @return a new {@link Halo}
+         * @throws IOException in case of I/O error
+         */
+        public final Halo build() throws IOException {
+            return new HaloImpl(clock, new ArrayList<>(nics), scheduler, listenerExecutor);
+        }
+
+        /**
+         * Sets the executor in which the listeners of browsers of the instance being built are notified to the
+         * given value.
+         * <p>
+         * Listeners may block: the executor must not be the scheduler. The executor is not shut down when the
+         * instance is closed.
+         *
+         * @param anExecutor listener executor
+         * @return this builder
+         */
+        public final Builder listenerExecutor(final Executor anExecutor) {
+            listenerExecutor = Optional.of(anExecutor);
+            return this;
+        }
+
+        /**
+         * Sets the network interface(s) on which the instance being built sends/receives mDNS messages.
+         *
+         * @param nic network interface
+         * @param others other network interface
+         * @return this builder
+         */
+        public final Builder networkInterfaces(final NetworkInterface nic, final NetworkInterface... others) {
+            nics.clear();
+            nics.add(nic);
+            Collections.addAll(nics, others);
+            return this;
+        }
+
+        /**
+         * Sets the scheduler shared by all the components of the instance being built to the given value.
+         * <p>
+         * Submitted tasks do not block: listeners of browsers are notified on the
+         * {@link #listenerExecutor(Executor) listener executor}. The scheduler is not shut down when the instance
+         * is closed: it can be shared by many instances.
+         *
+         * @param aScheduler scheduler
+         * @return this builder
+         */
+        public final Builder scheduler(final ScheduledExecutorService aScheduler) {
+            scheduler = Optional.of(aScheduler);
+            return this;
+        }
+
+    }
+
     /**
      * Returns a new {@link Halo} instance sending/receiving mDNS messages on all network interfaces on this
      * machine.
@@ -168,7 +303,17 @@ public interface Halo extends AutoCloseable {
      * @throws IOException in case of I/O error
      */
     public static Halo allNetworkInterfaces(final Clock clock) throws IOException {
-        return new HaloImpl(clock, Collections.emptyList());
+        return create(clock).build();
+    }
+
+    /**
+     * Returns a new {@code builder} to create a new {@link Halo} instance with the given clock.
+     *
+     * @param clock the clock providing access to the current instant for a time zone
+     * @return a new {@code Builder}
+     */
+    public static Builder create(final Clock clock) {
+        return new Builder(clock);
     }
 
     /**
@@ -186,12 +331,7 @@ public interface Halo extends AutoCloseable {
      */
     public static Halo networkInterfaces(final Clock clock, final NetworkInterface nic,
             final NetworkInterface... nics) throws IOException {
-        final Collection<NetworkInterface> allNics = new ArrayList<>();
-        allNics.add(nic);
-        for (final NetworkInterface n : nics) {
-            allNics.add(n);
-        }
-        return new HaloImpl(clock, allNics);
+        return create(clock).networkInterfaces(nic, nics).build();
     }
 
     /**
@@ -262,7 +402,8 @@ public interface Halo extends AutoCloseable {
     /**
      * De-registers all services.
      * <p>
-     * This methods blocks until all services has been {@link #deregister(RegisteredService) de-registered}.
+     * This methods blocks until all services has been {@link #deregister(RegisteredService) de-registered}. The
+     * goodbye records of all services are sent together, in as few messages as possible.
      * <p>
      * This method relies on the following <a href="#configuration">properties</a>:
      * <ul>
@@ -275,6 +416,26 @@ public interface Halo extends AutoCloseable {
      */
     void deregisterAll() throws IOException;
 
+    /**
+     * De-registers asynchronously the given service.
+     * <p>
+     * This methods does not block: the returned stage completes once the <strong>first</strong> cancellation has
+     * been sent, or exceptionally with an {@link IOException} if the service cannot be de-registered. The returned
+     * stage is already completed if the given service was not previously registered or has already been
+     * de-registered.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.cancellation.interval}
+     * <li>{@code io.omam.halo.cancellation.number}
+     * <li>{@code io.omam.halo.ttl.expiry}
+     * </ul>
+     *
+     * @param service service to de-register
+     * @return a stage completed once the service has been de-registered
+     */
+    CompletionStage<Void> deregisterAsync(final RegisteredService service);
+
     /**
      * Registers the given service on the <strong>local</strong> domain with the default TTL.
      * <p>
@@ -356,6 +517,110 @@ public interface Halo extends AutoCloseable {
     RegisteredService register(final RegisterableService service, final Duration ttl,
             final boolean allowNameChange) throws IOException;
 
+    /**
+     * Registers all the given services on the <strong>local</strong> domain with the default TTL, allowing
+     * instance names to be changed.
+     * <p>
+     * This methods blocks until the services have been registered - i.e. after configured number of probes and
+     * first announcement has been sent.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.probing.timeout}
+     * <li>{@code io.omam.halo.probing.interval}
+     * <li>{@code io.omam.halo.probing.number}
+     * <li>{@code io.omam.halo.ttl.default}
+     * </ul>
+     *
+     * @see #registerAll(Collection, Duration, boolean)
+     * @param services services to register
+     * @return the service that was successfully registered, or empty if it could not be registered, of each given
+     *         service
+     */
+    default Map<RegisterableService, Optional<RegisteredService>>
+            registerAll(final Collection<RegisterableService> services) {
+        return registerAll(services, TTL, true);
+    }
+
+    /**
+     * Registers all the given services on the <strong>local</strong> domain with the given TTL.
+     * <p>
+     * This methods blocks until the services have been registered - i.e. after configured number of probes and
+     * first announcement has been sent.
+     * <p>
+     * Unlike calling {@link #register(RegisterableService, Duration, boolean)} for each service, all services are
+     * probed together - probe queries are shared by several services (RFC 6762 section 8.1) - and announced
+     * together, in as few responses as possible: registering many services takes about as long as registering
+     * one.
+     * <p>
+     * If {@code allowNameChange} is {@code true} the {@link RegisterableService#instanceName() instance name} of
+     * each service will be changed to be unique if possible.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.probing.timeout}
+     * <li>{@code io.omam.halo.probing.interval}
+     * <li>{@code io.omam.halo.probing.number}
+     * </ul>
+     *
+     * @param services services to register
+     * @param ttl services time-to-live
+     * @param allowNameChange {@code true} if {@link RegisterableService#instanceName() instance names} can be
+     *            changed to be made unique
+     * @return the service that was successfully registered (instance name may have been changed), or empty if it
+     *         could not be registered, of each given service
+     */
+    Map<RegisterableService, Optional<RegisteredService>> registerAll(
+            final Collection<RegisterableService> services, final Duration ttl, final boolean allowNameChange);
+
+    /**
+     * Registers asynchronously the given service on the <strong>local</strong> domain with the default TTL,
+     * allowing its instance name to be changed.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.probing.timeout}
+     * <li>{@code io.omam.halo.probing.interval}
+     * <li>{@code io.omam.halo.probing.number}
+     * <li>{@code io.omam.halo.ttl.default}
+     * </ul>
+     *
+     * @see #registerAsync(RegisterableService, Duration, boolean)
+     * @param service service to register
+     * @return a stage completed with the service that was successfully registered
+     */
+    default CompletionStage<RegisteredService> registerAsync(final RegisterableService service) {
+        return registerAsync(service, TTL, true);
+    }
+
+    /**
+     * Registers asynchronously the given service on the <strong>local</strong> domain with the given TTL.
+     * <p>
+     * This methods does not block: probes and announcements are sent by background timers and the returned stage
+     * completes once the service has been registered - i.e. after configured number of probes and first
+     * announcement has been sent, or exceptionally with an {@link IOException} if the service cannot be
+     * registered for any reason.
+     * <p>
+     * If {@code allowNameChange} is {@code true} the {@link RegisterableService#instanceName() instance name} of
+     * the service will be changed to be unique if possible.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.probing.timeout}
+     * <li>{@code io.omam.halo.probing.interval}
+     * <li>{@code io.omam.halo.probing.number}
+     * </ul>
+     *
+     * @param service service to register
+     * @param ttl service time-to-live
+     * @param allowNameChange {@code true} if {@link RegisterableService#instanceName() instance name} can be
+     *            changed to be made unique
+     * @return a stage completed with the service that was successfully registered (instance name may have been
+     *         changed)
+     */
+    CompletionStage<RegisteredService> registerAsync(final RegisterableService service, final Duration ttl,
+            final boolean allowNameChange);
+
     /**
      * Resets the browsing interval for both registration types and services to the default base delay
      * {@code io.omam.halo.querying.delay}.
@@ -409,4 +674,105 @@ public interface Halo extends AutoCloseable {
     Optional<ResolvedService> resolve(final String instanceName, final String registrationType,
             final Duration timeout);
 
+    /**
+     * Resolves asynchronously several services of the <strong>local</strong> domain sharing the same registration
+     * type by their instance name.
+     * <p>
+     * This methods does not block: no thread waits for the resolution to complete. The questions of all the
+     * services that remain unresolved are sent together, in as few queries as possible, rather than one query
+     * per service.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.resolution.timeout}
+     * <li>{@code io.omam.halo.resolution.interval}
+     * </ul>
+     *
+     * @see #resolveAllAsync(Collection, String, Duration)
+     * @param instanceNames the service instance names
+     * @param registrationType service type (IANA) and transport protocol (udp or tcp), e.g. {@code _ftp._tcp.} or
+     *            {@code _http._udp.}
+     * @return a stage completed with the resolved service, or empty if it could not be resolved before the
+     *         timeout expired, of each given instance name
+     */
+    default CompletionStage<Map<String, Optional<ResolvedService>>>
+            resolveAllAsync(final Collection<String> instanceNames, final String registrationType) {
+        return resolveAllAsync(instanceNames, registrationType, RESOLUTION_TIMEOUT);
+    }
+
+    /**
+     * Resolves asynchronously several services of the <strong>local</strong> domain sharing the same registration
+     * type by their instance name.
+     * <p>
+     * This methods does not block: no thread waits for the resolution to complete. The questions of all the
+     * services that remain unresolved are sent together, in as few queries as possible, rather than one query
+     * per service.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.resolution.interval}
+     * </ul>
+     *
+     * @param instanceNames the service instance names
+     * @param registrationType service type (IANA) and transport protocol (udp or tcp), e.g. {@code _ftp._tcp.} or
+     *            {@code _http._udp.}
+     * @param timeout for resolution
+     * @return a stage completed with the resolved service, or empty if it could not be resolved before the
+     *         timeout expired, of each given instance name
+     */
+    CompletionStage<Map<String, Optional<ResolvedService>>> resolveAllAsync(final Collection<String> instanceNames,
+            final String registrationType, final Duration timeout);
+
+    /**
+     * Resolves asynchronously a service of the <strong>local</strong> domain by its instance name and registration
+     * type to a target host, port and text record if it exits.
+     * <p>
+     * This methods does not block: no thread waits for the resolution to complete.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.resolution.timeout}
+     * <li>{@code io.omam.halo.resolution.interval}
+     * </ul>
+     *
+     * @see #resolveAsync(String, String, Duration)
+     * @param instanceName the service instance name, a human-readable string, e.g. {@code Living Room Printer}
+     * @param registrationType service type (IANA) and transport protocol (udp or tcp), e.g. {@code _ftp._tcp.} or
+     *            {@code _http._udp.}
+     * @return a stage completed with the resolved service, or empty if the timeout expired
+     */
+    default CompletionStage<Optional<ResolvedService>> resolveAsync(final String instanceName,
+            final String registrationType) {
+        return resolveAsync(instanceName, registrationType, RESOLUTION_TIMEOUT);
+    }
+
+    /**
+     * Resolves asynchronously a service of the <strong>local</strong> domain by its instance name and registration
+     * type to a target host, port and text record if it exits.
+     * <p>
+     * This methods does not block: no thread waits for the resolution to complete.
+     * <p>
+     * This method relies on the following <a href="#configuration">properties</a>:
+     * <ul>
+     * <li>{@code io.omam.halo.resolution.interval}
+     * </ul>
+     *
+     * @param instanceName the service instance name, a human-readable string, e.g. {@code Living Room Printer}
+     * @param registrationType service type (IANA) and transport protocol (udp or tcp), e.g. {@code _ftp._tcp.} or
+     *            {@code _http._udp.}
+     * @param timeout for resolution
+     * @return a stage completed with the resolved service, or empty if the timeout expired
+     */
+    CompletionStage<Optional<ResolvedService>> resolveAsync(final String instanceName,
+            final String registrationType, final Duration timeout);
+
+    /**
+     * Returns the statistics about the mDNS messages handled by this {@code Halo}.
+     * <p>
+     * The returned object is a live view: values are updated as messages are handled.
+     *
+     * @return statistics, not null
+     */
+    HaloStatistics statistics();
+
 }
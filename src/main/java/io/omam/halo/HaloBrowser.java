@@ -63,13 +63,13 @@ abstract class HaloBrowser implements ResponseListener, AutoCloseable {
     /**
      * Constructor.
      *
-     * @param aName browser name (use to prefix query background thread)
+     * @param aName browser name
      * @param haloHelper halo helper
      */
     HaloBrowser(final String aName, final HaloHelper haloHelper) {
         name = aName;
         halo = haloHelper;
-        ses = new IncreasingRateExecutor(aName);
+        ses = new IncreasingRateExecutor(haloHelper.scheduler());
         task = null;
     }
 
@@ -84,7 +84,7 @@ abstract class HaloBrowser implements ResponseListener, AutoCloseable {
         if (task != null) {
             task.cancel();
         }
-        ses.shutdownNow();
+        ses.close();
         doClose();
     }
 
@@ -35,7 +35,10 @@ import static io.omam.halo.HaloProperties.IPV4_SOA;
 import static io.omam.halo.HaloProperties.IPV6_ADDR;
 import static io.omam.halo.HaloProperties.IPV6_SOA;
 import static io.omam.halo.HaloProperties.MDNS_PORT;
+import static io.omam.halo.HaloProperties.RECEIVING_QUEUE;
+import static io.omam.halo.HaloProperties.RECEIVING_WORKERS;
 import static io.omam.halo.MulticastDnsSd.MAX_DNS_MESSAGE_SIZE;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
 
 import java.io.IOException;
 import java.net.Inet4Address;
@@ -54,6 +57,7 @@ import java.nio.channels.MulticastChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.time.Clock;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
@@ -61,11 +65,13 @@ import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -74,25 +80,116 @@ import java.util.logging.Logger;
  */
 final class HaloChannel implements AutoCloseable {
 
+    /**
+     * DNS message received on a channel, waiting to be decoded.
+     */
+    private static final class Datagram {
+
+        /** address of the sender. */
+        private final InetSocketAddress address;
+
+        /** received bytes, copied from the receive buffer. */
+        private final byte[] bytes;
+
+        /** instant at which the message was received. */
+        private final Instant instant;
+
+        /**
+         * Constructor.
+         *
+         * @param anAddress address of the sender
+         * @param someBytes received bytes
+         * @param anInstant instant at which the message was received
+         */
+        Datagram(final InetSocketAddress anAddress, final byte[] someBytes, final Instant anInstant) {
+            address = anAddress;
+            bytes = someBytes;
+            instant = anInstant;
+        }
+
+    }
+
+    /**
+     * DNS message dispatcher.
+     * <p>
+     * Messages queued to this dispatcher are decoded and given to the {@link Consumer} given at construction in the
+     * order they have been received, one at a time, on the shared executor. Messages are decoded in place from
+     * the copy of the received bytes they own: a dispatched message remains valid once it has been consumed.
+     */
+    @SuppressWarnings("synthetic-access")
+    private final class Dispatcher {
+
+        /** serial executor in which received messages are decoded and dispatched. */
+        private final SerialExecutor received;
+
+        /**
+         * Constructor.
+         *
+         * @param executor shared executor
+         */
+        Dispatcher(final Executor executor) {
+            received = new SerialExecutor(executor, RECEIVING_QUEUE);
+        }
+
+        /**
+         * Discards all the messages waiting to be dispatched.
+         */
+        final void close() {
+            received.close();
+        }
+
+        /**
+         * Adds the given message to the queue of this dispatcher if it is not full.
+         *
+         * @param datagram received message
+         * @return {@code true} if the message has been queued, {@code false} if it must be dropped
+         */
+        final boolean offer(final Datagram datagram) {
+            return received.offer(() -> dispatch(datagram));
+        }
+
+        /**
+         * Decodes the given message and gives it to the listener.
+         *
+         * @param datagram received message
+         */
+        private void dispatch(final Datagram datagram) {
+            try {
+                final DnsMessage msg = DnsMessage.decode(datagram.bytes, datagram.instant);
+                LOGGER.fine(() -> "Received " + msg + " on " + datagram.address);
+                listener.accept(msg);
+            } catch (final IOException e) {
+                LOGGER.log(Level.WARNING, "I/O error while decoding DNS message", e);
+            }
+        }
+
+    }
+
     /**
      * DNS message receiver.
      * <p>
-     * {@link Consumer} given at construction is invoked whenever a message is received.
+     * Received messages relating to a name of interest are queued to a {@link Dispatcher}: messages from the
+     * same sender are always queued to the same dispatcher and are therefore handled in reception order.
+     * <p>
+     * Each message is received in a single reused buffer and filtered in place: only the messages that are queued
+     * are copied, into an array of the size of the message.
      */
     private final class Receiver implements Runnable {
 
+        /** buffer in which messages are received. */
+        private final ByteBuffer buf;
+
         /**
          * Constructor.
          */
         Receiver() {
-            // empty.
+            buf = ByteBuffer.allocate(MAX_DNS_MESSAGE_SIZE);
+            buf.order(ByteOrder.BIG_ENDIAN);
         }
 
         @SuppressWarnings("synthetic-access")
         @Override
         public final void run() {
-            final ByteBuffer buf = ByteBuffer.allocate(MAX_DNS_MESSAGE_SIZE);
-            buf.order(ByteOrder.BIG_ENDIAN);
             while (!Thread.currentThread().isInterrupted()) {
                 try {
                     selector.select();
@@ -104,11 +201,7 @@ final class HaloChannel implements AutoCloseable {
                         final InetSocketAddress address = (InetSocketAddress) channel.receive(buf);
                         if (address != null && buf.position() != 0) {
                             buf.flip();
-                            final byte[] bytes = new byte[buf.remaining()];
-                            buf.get(bytes);
-                            final DnsMessage msg = DnsMessage.decode(bytes, clock.instant());
-                            LOGGER.fine(() -> "Received " + msg + " on " + address);
-                            listener.accept(msg);
+                            received(address, buf);
                         }
                     }
                 } catch (final ClosedChannelException e) {
@@ -125,39 +218,62 @@ final class HaloChannel implements AutoCloseable {
     /**
      * DNS message sender.
      * <p>
-     * Messages are taken from the sending queue.
+     * Each run of the sender, on the serial sending executor, takes all the messages of
+     * the sending queue as a batch. Consecutive responses of a batch which only hold
+     * answers are merged as long as the merged response fits in {@link MulticastDnsSd#MAX_PACKET_SIZE}.
+     * Each sent message is encoded once into a reused stream and copied into a reused direct buffer.
      */
     @SuppressWarnings("synthetic-access")
     private final class Sender implements Runnable {
 
+        /** buffer containing the datagram to be sent. */
+        private final ByteBuffer buf;
+
+        /** messages taken from the sending queue. */
+        private final List<DnsMessage> batch;
+
+        /** encoding of the message to be sent. */
+        private MessageOutputStream pending;
+
+        /** encoding of the merged message being attempted. */
+        private MessageOutputStream attempt;
+
         /**
          * Constructor.
          */
         Sender() {
-            // empty.
+            buf = ByteBuffer.allocateDirect(MAX_DNS_MESSAGE_SIZE);
+            batch = new ArrayList<>();
+            pending = new MessageOutputStream();
+            attempt = new MessageOutputStream();
         }
 
         @Override
         public final void run() {
-            final ByteBuffer buf = ByteBuffer.allocate(MAX_DNS_MESSAGE_SIZE);
-            buf.order(ByteOrder.BIG_ENDIAN);
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    final DnsMessage msg = sent.take();
-                    LOGGER.fine(() -> "Sending " + msg);
-                    final byte[] packet = msg.encode();
-                    buf.clear();
-                    buf.put(packet);
-                    buf.flip();
-                    ipv4.forEach(ni -> send(ni, buf, IPV4_SOA));
-                    ipv6.forEach(ni -> send(ni, buf, IPV6_SOA));
-                } catch (final InterruptedException e) {
-                    LOGGER.log(Level.FINE, "Interrupted while waiting to send DNS message", e);
-                    Thread.currentThread().interrupt();
+            try {
+                sent.drainTo(batch);
+                if (!batch.isEmpty()) {
+                    sendBatch();
                 }
+            } finally {
+                batch.clear();
             }
         }
 
+        /**
+         * Sends the given message, which has been encoded into {@link #pending}, on all channels.
+         *
+         * @param msg message
+         */
+        private void send(final DnsMessage msg) {
+            LOGGER.fine(() -> "Sending " + msg);
+            buf.clear();
+            pending.writeTo(buf);
+            buf.flip();
+            ipv4.forEach(ni -> send(ni, buf, IPV4_SOA));
+            ipv6.forEach(ni -> send(ni, buf, IPV6_SOA));
+        }
+
         /**
          * Sends given datagram to given channel an address
          *
@@ -177,6 +293,39 @@ final class HaloChannel implements AutoCloseable {
             }
         }
 
+        /**
+         * Sends all messages of the current batch, merging consecutive responses whenever possible.
+         * <p>
+         * Pre-encoded messages are sent as is: they have already been packed (e.g. the announcements of several
+         * services) and merging them would decode and re-encode their records.
+         */
+        private void sendBatch() {
+            DnsMessage current = null;
+            for (final DnsMessage msg : batch) {
+                if (current != null) {
+                    final Optional<DnsMessage> merged = current.isPreEncoded() || msg.isPreEncoded()
+                            ? Optional.empty()
+                            : DnsMessage.merge(current, msg);
+                    if (merged.isPresent()) {
+                        attempt.reset();
+                        merged.get().encode(attempt);
+                        if (attempt.position() <= MAX_PACKET_SIZE) {
+                            current = merged.get();
+                            final MessageOutputStream encoded = attempt;
+                            attempt = pending;
+                            pending = encoded;
+                            continue;
+                        }
+                    }
+                    send(current);
+                }
+                current = msg;
+                pending.reset();
+                current.encode(pending);
+            }
+            send(current);
+        }
+
     }
 
     /** logger. */
@@ -185,9 +334,15 @@ final class HaloChannel implements AutoCloseable {
     /** clock. */
     private final Clock clock;
 
-    /** executor service to send/receive messages. */
+    /** dispatchers of received messages. */
+    private final List<Dispatcher> dispatchers;
+
+    /** executor service dedicated to receiving messages: waiting for a datagram blocks the receiving thread. */
     private final ExecutorService executor;
 
+    /** predicate to determine whether a name is interesting. */
+    private final Predicate<String> interests;
+
     /** IPV4 channel(s). */
     private final List<SelectionKey> ipv4;
 
@@ -203,26 +358,45 @@ final class HaloChannel implements AutoCloseable {
     /** multiplexor. */
     private final Selector selector;
 
-    /** future to cancel sending messages. */
-    private Future<?> sender;
+    /** sender of the queued messages. */
+    private final Sender sender;
+
+    /** serial executor in which messages are sent. */
+    private final SerialExecutor sending;
 
     /** queue of sent DNS messages. */
     private final BlockingQueue<DnsMessage> sent;
 
+    /** statistics. */
+    private final HaloStatisticsImpl statistics;
+
     /**
      * Constructor.
      *
      * @param aListener listener to be invoked whenever a new message is received
+     * @param someInterests predicate to determine whether a name is interesting: received messages relating to no
+     *            interesting name are dropped
+     * @param someStatistics statistics
      * @param aClock clock
      * @param nis network interfaces
+     * @param shared executor shared with the other components, in which messages are sent and dispatched
      * @throws IOException if an I/O error occurs
      */
-    private HaloChannel(final Consumer<DnsMessage> aListener, final Clock aClock,
-            final Collection<NetworkInterface> nis) throws IOException {
+    private HaloChannel(final Consumer<DnsMessage> aListener, final Predicate<String> someInterests,
+            final HaloStatisticsImpl someStatistics, final Clock aClock, final Collection<NetworkInterface> nis,
+            final Executor shared) throws IOException {
         clock = aClock;
-        executor = Executors.newFixedThreadPool(2, new HaloThreadFactory("channel"));
+        interests = someInterests;
+        statistics = someStatistics;
+        executor = Executors.newSingleThreadExecutor(new HaloThreadFactory("receiver"));
+        dispatchers = new ArrayList<>(RECEIVING_WORKERS);
+        for (int i = 0; i < RECEIVING_WORKERS; i++) {
+            dispatchers.add(new Dispatcher(shared));
+        }
         listener = aListener;
         selector = Selector.open();
+        sender = new Sender();
+        sending = new SerialExecutor(shared);
         sent = new LinkedBlockingQueue<>();
 
         ipv4 = new ArrayList<>();
@@ -251,32 +425,40 @@ final class HaloChannel implements AutoCloseable {
      * Creates a new channel sending/receiving on all interfaces on this machine.
      *
      * @param listener listener to be invoked whenever a new message is received
+     * @param interests predicate to determine whether a name is interesting
+     * @param statistics statistics
      * @param clock clock
+     * @param shared executor shared with the other components, in which messages are sent and dispatched
      * @return a new channel
      * @throws IOException if an I/O error occurs
      */
-    static HaloChannel allNetworkInterfaces(final Consumer<DnsMessage> listener, final Clock clock)
-            throws IOException {
+    static HaloChannel allNetworkInterfaces(final Consumer<DnsMessage> listener,
+            final Predicate<String> interests, final HaloStatisticsImpl statistics, final Clock clock,
+            final Executor shared) throws IOException {
         final Enumeration<NetworkInterface> nics = NetworkInterface.getNetworkInterfaces();
         final Collection<NetworkInterface> allNics = new ArrayList<>();
         while (nics.hasMoreElements()) {
             allNics.add(nics.nextElement());
         }
-        return networkInterfaces(listener, clock, allNics);
+        return networkInterfaces(listener, interests, statistics, clock, allNics, shared);
     }
 
     /**
      * Creates a new channel sending/receiving on the given interfaces.
      *
      * @param listener listener to be invoked whenever a new message is received
+     * @param interests predicate to determine whether a name is interesting
+     * @param statistics statistics
      * @param clock clock
      * @param nics network interfaces
+     * @param shared executor shared with the other components, in which messages are sent and dispatched
      * @return a new channel
      * @throws IOException if an I/O error occurs
      */
-    static HaloChannel networkInterfaces(final Consumer<DnsMessage> listener, final Clock clock,
-            final Collection<NetworkInterface> nics) throws IOException {
-        return new HaloChannel(listener, clock, nics);
+    static HaloChannel networkInterfaces(final Consumer<DnsMessage> listener, final Predicate<String> interests,
+            final HaloStatisticsImpl statistics, final Clock clock, final Collection<NetworkInterface> nics,
+            final Executor shared) throws IOException {
+        return new HaloChannel(listener, interests, statistics, clock, nics, shared);
     }
 
     @Override
@@ -285,22 +467,48 @@ final class HaloChannel implements AutoCloseable {
         selector.wakeup();
         disable();
         executor.shutdownNow();
+        sending.close();
+        dispatchers.forEach(Dispatcher::close);
         close(ipv4);
         close(ipv6);
     }
 
     /**
-     * Enables receiving/sending DNS messages.
+     * Enables receiving DNS messages: messages can be sent as soon as this channel has been created.
      */
     final synchronized void enable() {
-        if (sender == null) {
-            sender = executor.submit(new Sender());
-        }
         if (receiver == null) {
             receiver = executor.submit(new Receiver());
         }
     }
 
+    /**
+     * Handles the message received from the given address, whose bytes are remaining in the given buffer: the
+     * message is queued to its dispatcher if it relates to a name of interest and if the queue is not full.
+     * <p>
+     * The message is filtered in place and copied into an array of its size before being queued: the buffer can
+     * be reused as soon as this method returns.
+     *
+     * @param address address of the sender
+     * @param buf buffer holding the received bytes
+     * @throws IOException if the message is malformed
+     */
+    final void received(final InetSocketAddress address, final ByteBuffer buf) throws IOException {
+        statistics.messageReceived();
+        if (DnsMessage.anyNameMatches(buf, interests)) {
+            final byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            final Dispatcher dispatcher = dispatchers.get(Math.floorMod(address.hashCode(), dispatchers.size()));
+            if (!dispatcher.offer(new Datagram(address, bytes, clock.instant()))) {
+                statistics.messageDropped();
+                LOGGER.fine(() -> "Dropped DNS message received on " + address);
+            }
+        } else {
+            statistics.messageFiltered();
+            LOGGER.fine(() -> "Filtered uninteresting DNS message received on " + address);
+        }
+    }
+
     /**
      * Adds the given message to the queue of messages to send.
      *
@@ -308,6 +516,9 @@ final class HaloChannel implements AutoCloseable {
      */
     final void send(final DnsMessage message) {
         sent.add(message);
+        if (!sending.offer(sender)) {
+            LOGGER.fine(() -> "Channel closed, not sending " + message);
+        }
     }
 
     /**
@@ -326,12 +537,9 @@ final class HaloChannel implements AutoCloseable {
     }
 
     /**
-     * Disables receiving/sending DNS messages.
+     * Disables receiving DNS messages.
      */
     private synchronized void disable() {
-        if (sender != null) {
-            sender.cancel(true);
-        }
         if (receiver != null) {
             receiver.cancel(true);
         }
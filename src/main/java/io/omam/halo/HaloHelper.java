@@ -31,9 +31,16 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package io.omam.halo;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Internal helper methods. This is an abstract class in order to reduce the visibility of the methods.
@@ -47,6 +54,55 @@ abstract class HaloHelper {
         // empty.
     }
 
+    /**
+     * Waits for the given future to complete and returns its result.
+     *
+     * @param <T> the type of the result
+     * @param future future
+     * @return the result of the future
+     * @throws IOException if the future completed exceptionally, the cause being re-thrown if it is an
+     *             {@link IOException}, or if interrupted while waiting ({@link InterruptedIOException})
+     */
+    static <T> T await(final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException ie = new InterruptedIOException("Interrupted while waiting");
+            ie.initCause(e);
+            throw ie;
+        }
+    }
+
+    /**
+     * Returns a new future already completed exceptionally with the given exception.
+     *
+     * @param <T> the type of the result
+     * @param e exception
+     * @return a future completed exceptionally with the given exception
+     */
+    static <T> CompletableFuture<T> failed(final Throwable e) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * Adds the given name to the names Halo is interested in: received DNS messages relating to none of these
+     * names are dropped.
+     * <p>
+     * Each call must be matched by a call to {@link #removeInterest(String)} once the name is no longer of
+     * interest.
+     *
+     * @param name name, not null
+     */
+    abstract void addInterest(final String name);
+
     /**
      * Adds the given listener to receive DNS responses.
      *
@@ -64,6 +120,26 @@ abstract class HaloHelper {
      */
     abstract Optional<DnsRecord> cachedRecord(final String name, final short type, final short clazz);
 
+    /**
+     * Returns all the cached DNS records matching the given name, type and class.
+     *
+     * @param name record name
+     * @param type record type
+     * @param clazz record class
+     * @return all the matching cached DNS records, possibly empty
+     */
+    abstract List<DnsRecord> cachedRecords(final String name, final short type, final short clazz);
+
+    /**
+     * Returns the executor in which the listeners of browsers are notified: the caller-supplied executor if any,
+     * virtual threads if {@link HaloProperties#EXECUTION_VIRTUAL enabled and supported}, a dedicated thread pool
+     * otherwise. It is never the {@link #scheduler() shared scheduler}, so listeners may block, e.g. to resolve a
+     * service.
+     *
+     * @return the executor in which listeners are notified
+     */
+    abstract Executor notifier();
+
     /**
      * @return the current instant.
      */
@@ -71,12 +147,19 @@ abstract class HaloHelper {
 
     /**
      * Re-announces the given registered service after its attributes have been changed.
-     * 
+     *
      * @param service the service
      * @param ttl the TTL
-     * @throws IOException in case of I/O error
+     * @return a future completed once the first announcement has been sent
      */
-    abstract void reannounce(final RegisteredService service, final Duration ttl) throws IOException;
+    abstract CompletableFuture<Void> reannounce(final RegisteredService service, final Duration ttl);
+
+    /**
+     * Removes the given name from the names Halo is interested in.
+     *
+     * @param name name, not null
+     */
+    abstract void removeInterest(final String name);
 
     /**
      * Removes the given listener so that it no longer receives DNS responses.
@@ -85,10 +168,36 @@ abstract class HaloHelper {
      */
     abstract void removeResponseListener(final ResponseListener listener);
 
+    /**
+     * Schedules the given task to be executed after the given delay.
+     *
+     * @param task task
+     * @param delay delay
+     * @return a future to cancel the task
+     */
+    abstract Future<?> schedule(final Runnable task, final Duration delay);
+
+    /**
+     * Returns the scheduled executor service shared by all the components of this Halo instance: tasks must not
+     * block, and the service must not be shut down.
+     *
+     * @return the shared scheduled executor service
+     */
+    abstract ScheduledExecutorService scheduler();
+
     /**
      * Sends the given DNS message.
      *
      * @param msg DNS message
      */
     abstract void sendMessage(final DnsMessage msg);
+
+    /**
+     * Returns the executor in which received messages are dispatched: virtual threads if
+     * {@link HaloProperties#EXECUTION_VIRTUAL enabled and supported}, the {@link #scheduler() shared scheduler}
+     * otherwise.
+     *
+     * @return the executor in which received messages are dispatched
+     */
+    abstract Executor worker();
 }
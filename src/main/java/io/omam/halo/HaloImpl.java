@@ -30,6 +30,14 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package io.omam.halo;
 
+import static io.omam.halo.HaloProperties.AGGREGATION_MAX;
+import static io.omam.halo.HaloProperties.AGGREGATION_MIN;
+import static io.omam.halo.HaloProperties.CACHE_MAX_BYTES;
+import static io.omam.halo.HaloProperties.CACHE_MAX_RECORDS;
+import static io.omam.halo.HaloProperties.CACHE_SNAPSHOT;
+import static io.omam.halo.HaloProperties.CACHE_SNAPSHOT_INTERVAL;
+import static io.omam.halo.HaloProperties.EXECUTION_THREADS;
+import static io.omam.halo.HaloProperties.EXECUTION_VIRTUAL;
 import static io.omam.halo.HaloProperties.TTL;
 import static io.omam.halo.MulticastDnsSd.CLASS_IN;
 import static io.omam.halo.MulticastDnsSd.FLAGS_AA;
@@ -51,22 +59,31 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import io.omam.halo.DnsMessage.Builder;
 
 /**
  * Halo implementation.
@@ -82,12 +99,18 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
     /** pattern to match service instance name when making them unique. */
     private static final Pattern INSTANCE_NAME_PATTERN = Pattern.compile("([\\s\\S]*?)( \\((?<i>\\d+)\\))$");
 
+    /** response aggregator. */
+    private final ResponseAggregator aggregator;
+
     /** Service announcer. */
     private final Announcer announcer;
 
     /** DNS record cache. */
     private final Cache cache;
 
+    /** cache snapshot, if enabled. */
+    private final Optional<CacheSnapshot> snapshot;
+
     /** Service canceller. */
     private final Canceller canceller;
 
@@ -97,9 +120,33 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
     /** clock. */
     private final Clock clock;
 
+    /** names of interest. */
+    private final InterestRegistry interests;
+
+    /** predicate to determine whether a name is interesting: name of interest or of cached records. */
+    private final Predicate<String> interesting;
+
     /** cache record reaper. */
     private final Reaper reaper;
 
+    /** scheduler shared by all components. */
+    private final ScheduledExecutorService scheduler;
+
+    /** whether the scheduler has been created by, and must be shut down with, this instance. */
+    private final boolean ownsScheduler;
+
+    /** virtual thread per task executor, if enabled and supported. */
+    private final Optional<ExecutorService> virtualThreads;
+
+    /** executor in which received messages are dispatched. */
+    private final Executor worker;
+
+    /** thread pool in which listeners are notified, if created by, and shut down with, this instance. */
+    private final Optional<ExecutorService> listenerThreads;
+
+    /** executor in which listeners are notified: never the scheduler, so that listeners may block. */
+    private final Executor notifier;
+
     /** {@link ResponseListener listener}s. */
     private final Collection<ResponseListener> rls;
 
@@ -115,28 +162,54 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
     /** map of all registered services indexed by {@link Service#instanceName()}. */
     private final Map<String, RegisteredService> registered;
 
-    /** set of all registration pointer names. */
-    private final Set<String> registrationPointerNames;
+    /** index of all services being announced or registered. */
+    private final ServiceIndex index;
+
+    /** statistics. */
+    private final HaloStatisticsImpl statistics;
 
     /**
      * Constructor.
      *
      * @param aClock clock
      * @param nics network interface(s)
+     * @param aScheduler scheduler shared by all components, if supplied by the caller: it is not shut down when
+     *            this instance is closed
+     * @param aNotifier executor in which listeners are notified, if supplied by the caller: it is not shut down
+     *            when this instance is closed
      * @throws IOException in case of I/O error
      */
-    HaloImpl(final Clock aClock, final Collection<NetworkInterface> nics) throws IOException {
-        final SequentialBatchExecutor executor = new SequentialBatchExecutor("registration");
+    HaloImpl(final Clock aClock, final Collection<NetworkInterface> nics,
+            final Optional<ScheduledExecutorService> aScheduler, final Optional<Executor> aNotifier)
+            throws IOException {
+        ownsScheduler = !aScheduler.isPresent();
+        scheduler = aScheduler.orElseGet(HaloImpl::newScheduler);
+        virtualThreads = EXECUTION_VIRTUAL ? newVirtualThreads() : Optional.empty();
+        worker = virtualThreads.isPresent() ? virtualThreads.get() : scheduler;
+        if (aNotifier.isPresent() || virtualThreads.isPresent()) {
+            listenerThreads = Optional.empty();
+            notifier = aNotifier.orElse(worker);
+        } else {
+            final ExecutorService threads = Executors.newCachedThreadPool(new HaloThreadFactory("listener"));
+            listenerThreads = Optional.of(threads);
+            notifier = threads;
+        }
+        final SequentialBatchExecutor executor = new SequentialBatchExecutor(scheduler);
         announcer = new Announcer(this, executor);
-        cache = new Cache();
+        interests = new InterestRegistry();
+        statistics = new HaloStatisticsImpl();
+        cache = new Cache(aClock, CACHE_MAX_RECORDS, CACHE_MAX_BYTES, interests, statistics);
         canceller = new Canceller(this, executor);
+        interesting = interests.or(cache::contains);
         if (nics.isEmpty()) {
-            channel = HaloChannel.allNetworkInterfaces(this, aClock);
+            channel = HaloChannel.allNetworkInterfaces(this, interesting, statistics, aClock, worker);
         } else {
-            channel = HaloChannel.networkInterfaces(this, aClock, nics);
+            channel = HaloChannel.networkInterfaces(this, interesting, statistics, aClock, nics, worker);
         }
+        aggregator = new ResponseAggregator(channel::send, AGGREGATION_MIN, AGGREGATION_MAX, aClock, scheduler);
         clock = aClock;
-        reaper = new Reaper(cache, clock);
+        reaper = new Reaper(cache, channel::send, scheduler);
+        snapshot = CACHE_SNAPSHOT.map(f -> new CacheSnapshot(cache, aClock, f, scheduler));
         rls = new ConcurrentLinkedQueue<>();
 
         rBrowser = new HaloRegistrationTypeBrowser(this);
@@ -144,10 +217,11 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
 
         announcing = new ConcurrentHashMap<>();
         registered = new ConcurrentHashMap<>();
-        registrationPointerNames = ConcurrentHashMap.newKeySet();
+        index = new ServiceIndex();
 
         channel.enable();
         reaper.start();
+        snapshot.ifPresent(this::restore);
     }
 
     /**
@@ -174,6 +248,32 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
         return result;
     }
 
+    /**
+     * Returns a new scheduler to be shared by all components, removing cancelled tasks immediately since most
+     * timeouts are cancelled before they expire.
+     *
+     * @return a new scheduler
+     */
+    private static ScheduledExecutorService newScheduler() {
+        final ScheduledThreadPoolExecutor ses =
+                new ScheduledThreadPoolExecutor(EXECUTION_THREADS, new HaloThreadFactory("worker"));
+        ses.setRemoveOnCancelPolicy(true);
+        return ses;
+    }
+
+    /**
+     * Returns a new virtual thread per task executor, unless virtual threads are not supported by the running JDK.
+     *
+     * @return a new virtual thread per task executor, empty if not supported
+     */
+    private static Optional<ExecutorService> newVirtualThreads() {
+        final Optional<ExecutorService> result = VirtualThreads.newThreadPerTaskExecutor("virtual");
+        if (!result.isPresent()) {
+            LOGGER.warning("Virtual threads are not supported by this JDK, using the shared scheduler instead");
+        }
+        return result;
+    }
+
     @Override
     public final void accept(final DnsMessage message) {
         if (message.isQuery()) {
@@ -219,64 +319,143 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
             /* close service background threads. */
             announcer.close();
             canceller.close();
+            aggregator.close();
             channel.close();
+            snapshot.ifPresent(CacheSnapshot::close);
             cache.clear();
             rls.clear();
+            virtualThreads.ifPresent(ExecutorService::shutdownNow);
+            listenerThreads.ifPresent(ExecutorService::shutdownNow);
+            if (ownsScheduler) {
+                scheduler.shutdownNow();
+            }
         }
     }
 
     @Override
     public final void deregister(final RegisteredService service) throws IOException {
+        HaloHelper.await(deregisterAsync(service).toCompletableFuture());
+    }
+
+    @Override
+    public final void deregisterAll() throws IOException {
+        final List<RegisteredService> services = new ArrayList<>();
+        for (final String serviceKey : registered.keySet()) {
+            final RegisteredService service = registered.remove(serviceKey);
+            if (service != null) {
+                services.add(service);
+            }
+        }
+        final CompletableFuture<Void> cancelled = canceller.cancelAll(services).whenComplete((r, e) -> {
+            for (final RegisteredService service : services) {
+                index.remove(service);
+                removeInterests(service);
+                cache.removeAll(service.name());
+            }
+        });
+        HaloHelper.await(cancelled);
+    }
+
+    @Override
+    public final CompletionStage<Void> deregisterAsync(final RegisteredService service) {
         final String serviceKey = toLowerCase(service.name());
-        if (registered.containsKey(serviceKey)) {
-            canceller.cancel(service);
-            registrationPointerNames.remove(service.registrationPointerName());
-            registered.remove(serviceKey);
-            cache.removeAll(service.name());
-        } else {
+        if (registered.remove(serviceKey) == null) {
             LOGGER.info(() -> service + " is not registered");
+            return CompletableFuture.completedFuture(null);
         }
+        return canceller.cancel(service).whenComplete((r, e) -> {
+            index.remove(service);
+            removeInterests(service);
+            cache.removeAll(service.name());
+        });
     }
 
     @Override
-    public final void deregisterAll() throws IOException {
-        final List<String> messages = new ArrayList<>();
-        for (final RegisteredService service : registered.values()) {
+    public final RegisteredService register(final RegisterableService registerable, final Duration ttl,
+            final boolean allowNameChange) throws IOException {
+        return HaloHelper.await(registerAsync(registerable, ttl, allowNameChange).toCompletableFuture());
+    }
+
+    @Override
+    public final Map<RegisterableService, Optional<RegisteredService>> registerAll(
+            final Collection<RegisterableService> registerables, final Duration ttl,
+            final boolean allowNameChange) {
+        LOGGER.fine(() -> "Registering " + registerables + ON_DOMAIN);
+        final Map<RegisterableService, Optional<RegisteredService>> result = new LinkedHashMap<>();
+        final Map<RegisterableService, RegisterableService> services = new LinkedHashMap<>();
+        for (final RegisterableService registerable : registerables) {
+            result.put(registerable, Optional.empty());
             try {
-                deregister(service);
+                final RegisterableService service = makeUnique(registerable, allowNameChange);
+                announcing.put(toLowerCase(service.name()), service);
+                index.put(service);
+                addInterests(service);
+                services.put(registerable, service);
             } catch (final IOException e) {
-                messages.add(e.getMessage());
+                LOGGER.log(Level.WARNING, "Could not register " + registerable, e);
             }
         }
-        if (!messages.isEmpty()) {
-            throw new IOException(messages.stream().collect(Collectors.joining(",")));
+
+        Map<RegisterableService, Boolean> announced;
+        try {
+            announced = HaloHelper.await(announcer.announceAll(services.values(), ttl));
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "I/O error when announcing " + services.values(), e);
+            announced = Collections.emptyMap();
+        }
+        for (final Map.Entry<RegisterableService, RegisterableService> e : services.entrySet()) {
+            final RegisterableService service = e.getValue();
+            final String serviceKey = toLowerCase(service.name());
+            announcing.remove(serviceKey);
+            if (announced.getOrDefault(service, false)) {
+                LOGGER.info(() -> "Registered " + service + ON_DOMAIN);
+                final RegisteredService rservice = new RegisteredServiceImpl(service, this);
+                registered.put(serviceKey, rservice);
+                index.put(rservice);
+                result.put(e.getKey(), Optional.of(rservice));
+            } else {
+                index.remove(service);
+                removeInterests(service);
+                LOGGER.warning(() -> "Found conflicts while announcing " + service + " on network");
+            }
         }
+        return result;
     }
 
     @Override
-    public final RegisteredService register(final RegisterableService registerable, final Duration ttl,
-            final boolean allowNameChange) throws IOException {
-
+    public final CompletionStage<RegisteredService> registerAsync(final RegisterableService registerable,
+            final Duration ttl, final boolean allowNameChange) {
         LOGGER.fine(() -> "Registering " + registerable + ON_DOMAIN);
-        final RegisterableService service = makeUnique(registerable, allowNameChange);
+        final RegisterableService service;
+        try {
+            service = makeUnique(registerable, allowNameChange);
+        } catch (final IOException e) {
+            return HaloHelper.failed(e);
+        }
 
         final String serviceKey = toLowerCase(service.name());
         announcing.put(serviceKey, service);
-        final String rpn = service.registrationPointerName();
-        registrationPointerNames.add(rpn);
-
-        final boolean announced = announcer.announce(service, ttl);
-        announcing.remove(serviceKey);
-        if (!announced) {
-            registrationPointerNames.remove(service.registrationPointerName());
-            final String msg = "Found conflicts while announcing " + service + " on network";
-            LOGGER.warning(msg);
-            throw new IOException(msg);
-        }
-        LOGGER.info(() -> "Registered " + service + ON_DOMAIN);
-        final RegisteredService rservice = new RegisteredServiceImpl(service, this);
-        registered.put(serviceKey, rservice);
-        return rservice;
+        index.put(service);
+        addInterests(service);
+
+        return announcer.announceAll(Collections.singletonList(service), ttl).handle((announced, e) -> {
+            announcing.remove(serviceKey);
+            if (e != null || !announced.get(service)) {
+                index.remove(service);
+                removeInterests(service);
+                if (e != null) {
+                    throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+                }
+                final String msg = "Found conflicts while announcing " + service + " on network";
+                LOGGER.warning(msg);
+                throw new CompletionException(new IOException(msg));
+            }
+            LOGGER.info(() -> "Registered " + service + ON_DOMAIN);
+            final RegisteredService rservice = new RegisteredServiceImpl(service, this);
+            registered.put(serviceKey, rservice);
+            index.put(rservice);
+            return rservice;
+        });
     }
 
     @Override
@@ -288,7 +467,6 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
     @Override
     public final Optional<ResolvedService> resolve(final String instanceName, final String registrationType,
             final Duration timeout) {
-        cache.clean(now());
         final ResolvableService service = new ResolvableService(instanceName, registrationType);
         LOGGER.fine(() -> "Resolving " + service.toString() + ON_DOMAIN);
         try {
@@ -305,6 +483,57 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
         return Optional.empty();
     }
 
+    @Override
+    public final CompletionStage<Map<String, Optional<ResolvedService>>> resolveAllAsync(
+            final Collection<String> instanceNames, final String registrationType, final Duration timeout) {
+        final Map<String, ResolvableService> services = new LinkedHashMap<>();
+        instanceNames.forEach(n -> services.put(n, new ResolvableService(n, registrationType)));
+        LOGGER.fine(() -> "Resolving " + services.size() + " services of type " + registrationType + ON_DOMAIN);
+        return ResolutionBatch.resolveAll(this, services.values(), timeout).handle((r, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, "Failed to resolve services of type " + registrationType + ON_DOMAIN, e);
+            }
+            final Map<String, Optional<ResolvedService>> resolved = new LinkedHashMap<>();
+            services.forEach((n, s) -> resolved.put(n, s.isResolved() ? Optional.of(s) : Optional.empty()));
+            LOGGER.info(() -> "Resolved "
+                + resolved.values().stream().filter(Optional::isPresent).count()
+                + " of "
+                + resolved.size()
+                + " services of type "
+                + registrationType
+                + ON_DOMAIN);
+            return resolved;
+        });
+    }
+
+    @Override
+    public final CompletionStage<Optional<ResolvedService>> resolveAsync(final String instanceName,
+            final String registrationType, final Duration timeout) {
+        final ResolvableService service = new ResolvableService(instanceName, registrationType);
+        LOGGER.fine(() -> "Resolving " + service.toString() + ON_DOMAIN);
+        return service.resolveAsync(this, timeout).handle((resolved, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, "Failed to resolve " + service.toString() + ON_DOMAIN, e);
+            } else if (resolved) {
+                LOGGER.info(() -> "Resolved " + service.toString() + ON_DOMAIN);
+                return Optional.of(service);
+            } else {
+                LOGGER.info(() -> "Could not resolve " + service.toString() + ON_DOMAIN);
+            }
+            return Optional.empty();
+        });
+    }
+
+    @Override
+    public final HaloStatistics statistics() {
+        return statistics;
+    }
+
+    @Override
+    final void addInterest(final String name) {
+        interests.add(name);
+    }
+
     @Override
     final void addResponseListener(final ResponseListener listener) {
         Objects.requireNonNull(listener);
@@ -317,14 +546,29 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
         return cache.get(name, type, clazz);
     }
 
+    @Override
+    final List<DnsRecord> cachedRecords(final String name, final short type, final short clazz) {
+        return cache.getAll(name, type, clazz);
+    }
+
+    @Override
+    final Executor notifier() {
+        return notifier;
+    }
+
     @Override
     final Instant now() {
         return clock.instant();
     }
 
     @Override
-    final void reannounce(final RegisteredService service, final Duration ttl) throws IOException {
-        announcer.reannounce(service, ttl);
+    final CompletableFuture<Void> reannounce(final RegisteredService service, final Duration ttl) {
+        return announcer.reannounce(service, ttl);
+    }
+
+    @Override
+    final void removeInterest(final String name) {
+        interests.remove(name);
     }
 
     @Override
@@ -334,11 +578,39 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
         rls.remove(listener);
     }
 
+    @Override
+    final Future<?> schedule(final Runnable task, final Duration delay) {
+        return scheduler.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    final ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
     @Override
     final void sendMessage(final DnsMessage msg) {
         channel.send(msg);
     }
 
+    @Override
+    final Executor worker() {
+        return worker;
+    }
+
+    /**
+     * Adds the names of the given service being registered to the names of interest: queries for these names
+     * must be answered, and responses may indicate a conflict.
+     *
+     * @param service service
+     */
+    private void addInterests(final Service service) {
+        interests.add(service.name());
+        interests.add(service.hostname());
+        interests.add(service.registrationPointerName());
+        interests.add(RT_DISCOVERY);
+    }
+
     /**
      * Adds a DNS record type A corresponding to an answer to the given question if it exits.
      *
@@ -347,10 +619,11 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
      * @param builder builder
      * @param now current instant
      */
-    private void addIpv4Address(final DnsMessage query, final DnsQuestion question, final Builder builder,
+    private void addIpv4Address(final DnsMessage query, final DnsQuestion question, final DnsMessage.Builder builder,
             final Instant now) {
-        announcingOrRegistered()
-            .filter(s -> s.hostname().equalsIgnoreCase(question.name()))
+        index
+            .withHostname(question.name())
+            .stream()
             .filter(h -> h.ipv4Address().isPresent())
             .forEach(s -> {
                 final InetAddress addr = s.ipv4Address().get();
@@ -367,10 +640,11 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
      * @param builder builder
      * @param now current instant
      */
-    private void addIpv6Address(final DnsMessage query, final DnsQuestion question, final Builder builder,
+    private void addIpv6Address(final DnsMessage query, final DnsQuestion question, final DnsMessage.Builder builder,
             final Instant now) {
-        announcingOrRegistered()
-            .filter(s -> s.hostname().equalsIgnoreCase(question.name()))
+        index
+            .withHostname(question.name())
+            .stream()
             .filter(h -> h.ipv6Address().isPresent())
             .forEach(s -> {
                 final InetAddress addr = s.ipv6Address().get();
@@ -387,20 +661,18 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
      * @param builder builder
      * @param now current instant
      */
-    private void addPtrAnswer(final DnsMessage query, final DnsQuestion question, final Builder builder,
+    private void addPtrAnswer(final DnsMessage query, final DnsQuestion question, final DnsMessage.Builder builder,
             final Instant now) {
         if (question.name().equals(RT_DISCOVERY)) {
-            for (final String rpn : registrationPointerNames) {
+            for (final String rpn : index.registrationPointerNames()) {
                 builder.addAnswer(query, new PtrRecord(RT_DISCOVERY, CLASS_IN, TTL, now, rpn));
             }
         } else {
-            announcingOrRegistered().forEach(service -> {
-                if (question.name().equalsIgnoreCase(service.registrationPointerName())) {
-                    builder
-                        .addAnswer(query, new PtrRecord(service.registrationPointerName(), CLASS_IN, TTL, now,
-                                                        service.name()));
-                }
-            });
+            for (final Service service : index.withRegistrationPointerName(question.name())) {
+                builder
+                    .addAnswer(query, new PtrRecord(service.registrationPointerName(), CLASS_IN, TTL, now,
+                                                    service.name()));
+            }
         }
     }
 
@@ -414,7 +686,7 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
      * @param now current instant
      */
     private void addServiceAnswer(final DnsMessage query, final DnsQuestion question, final Service service,
-            final Builder builder, final Instant now) {
+            final DnsMessage.Builder builder, final Instant now) {
         final short unique = uniqueClass(CLASS_IN);
         final String hostname = service.hostname();
         if (question.type() == TYPE_SRV || question.type() == TYPE_ANY) {
@@ -435,13 +707,6 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
         }
     }
 
-    /**
-     * @return stream of announcing or registered services.
-     */
-    private Stream<Service> announcingOrRegistered() {
-        return Stream.concat(announcing.values().stream(), registered.values().stream());
-    }
-
     /**
      * Returns the announcing or registered service for the given name.
      *
@@ -470,7 +735,7 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
      * @return DNS response
      */
     private DnsMessage buildResponse(final DnsMessage query) {
-        final Builder builder = DnsMessage.response(FLAGS_AA);
+        final DnsMessage.Builder builder = DnsMessage.response(FLAGS_AA);
         final Instant now = now();
         for (final DnsQuestion question : query.questions()) {
             if (question.type() == TYPE_PTR) {
@@ -494,6 +759,9 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
 
     /**
      * Handles the given query.
+     * <p>
+     * Responses to probes (queries holding authorities) are sent immediately, even if the records have been sent
+     * less than one second ago, to defend them. Other responses are given to the {@link ResponseAggregator}.
      *
      * @param query query
      */
@@ -502,20 +770,27 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
         final DnsMessage response = buildResponse(query);
         if (response.answers().isEmpty()) {
             LOGGER.fine(() -> "Ignoring query");
-        } else {
+        } else if (query.authorities().isEmpty()) {
             LOGGER.fine(() -> "Responding with " + response);
+            aggregator.send(response);
+        } else {
+            LOGGER.fine(() -> "Defending with " + response);
             channel.send(response);
         }
     }
 
     /**
      * Handles the given response.
+     * <p>
+     * Only records relating to an interesting name, and the addresses of the servers of such service records, are
+     * cached: other records of the response are not decoded unless requested by a {@link ResponseListener
+     * listener}.
      *
      * @param response response
      */
     private void handleResponse(final DnsMessage response) {
         LOGGER.fine(() -> "Handling response " + response);
-        for (final DnsRecord record : response.answers()) {
+        for (final DnsRecord record : response.answers(interesting)) {
             if (record.ttl().isZero()) {
                 cache.expire(record);
             } else {
@@ -576,6 +851,34 @@ final class HaloImpl extends HaloHelper implements Halo, Consumer<DnsMessage> {
         return result;
     }
 
+    /**
+     * Removes the names of the given service from the names of interest.
+     *
+     * @param service service
+     */
+    private void removeInterests(final Service service) {
+        interests.remove(service.name());
+        interests.remove(service.hostname());
+        interests.remove(service.registrationPointerName());
+        interests.remove(RT_DISCOVERY);
+    }
+
+    /**
+     * Reloads the records of the given cache snapshot, queries the network to verify them and starts saving the
+     * cache periodically.
+     *
+     * @param cacheSnapshot cache snapshot
+     */
+    private void restore(final CacheSnapshot cacheSnapshot) {
+        final List<DnsQuestion> questions = cacheSnapshot
+            .load()
+            .stream()
+            .map(r -> new DnsQuestion(r.name(), r.type(), r.clazz()))
+            .collect(Collectors.toList());
+        DnsMessage.queries(questions).forEach(channel::send);
+        cacheSnapshot.start(CACHE_SNAPSHOT_INTERVAL);
+    }
+
     /**
      * Tries to resolve a service instance name collision by changing its instance name if allowed.
      *
@@ -34,8 +34,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.logging.Logger;
 
 /**
  * Configurable system properties related to multicast-DNS service discovery.
@@ -64,6 +68,26 @@ import java.util.Properties;
  * <td>5353</td>
  * </tr>
  * <tr>
+ * <td>io.omam.halo.execution.threads</td>
+ * <td>number of threads of the scheduler shared by all components, unless supplied by the caller</td>
+ * <td>2</td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.execution.virtual</td>
+ * <td>whether listeners are notified and received messages dispatched on virtual threads (JDK 21 and later)</td>
+ * <td>false</td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.receiving.workers</td>
+ * <td>number of queues in which received messages are decoded and dispatched in order</td>
+ * <td>2</td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.receiving.queue</td>
+ * <td>maximum number of received messages waiting to be decoded per queue, further messages are dropped</td>
+ * <td>256</td>
+ * </tr>
+ * <tr>
  * <td>io.omam.halo.resolution.timeout</td>
  * <td>resolution timeout in milliseconds</td>
  * <td>6000</td>
@@ -74,6 +98,11 @@ import java.util.Properties;
  * <td>200</td>
  * </tr>
  * <tr>
+ * <td>io.omam.halo.resolution.concurrency</td>
+ * <td>maximum number of services resolved concurrently by a service browser</td>
+ * <td>16</td>
+ * </tr>
+ * <tr>
  * <td>io.omam.halo.probing.timeout</td>
  * <td>probing timeout in milliseconds</td>
  * <td>6000</td>
@@ -129,8 +158,39 @@ import java.util.Properties;
  * <td>3</td>
  * </tr>
  * <tr>
+ * <td>io.omam.halo.aggregation.min</td>
+ * <td>minimum delay before answering a query with shared records in milliseconds</td>
+ * <td>20</td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.aggregation.max</td>
+ * <td>maximum delay before answering a query with shared records in milliseconds, 0 to answer immediately</td>
+ * <td>120</td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.cache.records</td>
+ * <td>maximum number of cached records</td>
+ * <td>10000</td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.cache.bytes</td>
+ * <td>maximum number of bytes of cached records</td>
+ * <td>4194304</td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.cache.snapshot</td>
+ * <td>file to which cached records are saved and from which they are reloaded when restarting, empty to disable
+ * snapshots</td>
+ * <td></td>
+ * </tr>
+ * <tr>
+ * <td>io.omam.halo.cache.snapshot.interval</td>
+ * <td>interval between cache snapshots in milliseconds</td>
+ * <td>300000</td>
+ * </tr>
+ * <tr>
  * <td>io.omam.halo.reaper.interval</td>
- * <td>cache record reaper interval in milliseconds</td>
+ * <td>deprecated and ignored: cached records are removed as soon as they expire</td>
  * <td>10000</td>
  * </tr>
  * <tr>
@@ -147,6 +207,9 @@ import java.util.Properties;
  */
 public final class HaloProperties {
 
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(HaloProperties.class.getName());
+
     /** mDNS IPV4 address. */
     public static final InetAddress IPV4_ADDR;
 
@@ -162,6 +225,18 @@ public final class HaloProperties {
     /** IPV6 socket address. */
     public static final InetSocketAddress IPV6_SOA;
 
+    /** number of threads of the scheduler shared by all components, unless supplied by the caller. */
+    public static final int EXECUTION_THREADS;
+
+    /** whether listeners are notified and received messages dispatched on virtual threads. */
+    public static final boolean EXECUTION_VIRTUAL;
+
+    /** number of queues in which received messages are decoded and dispatched in order. */
+    public static final int RECEIVING_WORKERS;
+
+    /** maximum number of received messages waiting to be decoded per queue. */
+    public static final int RECEIVING_QUEUE;
+
     /** interval between probe messages. */
     public static final Duration PROBING_INTERVAL;
 
@@ -183,7 +258,19 @@ public final class HaloProperties {
     /** number of cancel message sent when de-registering a service. */
     public static final int CANCEL_NUM;
 
-    /** cache record reaper interval. */
+    /** minimum delay before answering a query with shared records. */
+    public static final Duration AGGREGATION_MIN;
+
+    /** maximum delay before answering a query with shared records. */
+    public static final Duration AGGREGATION_MAX;
+
+    /**
+     * cache record reaper interval.
+     *
+     * @deprecated ignored: cached records are no longer removed by periodically scanning the cache but as soon as
+     *             their deadline is reached
+     */
+    @Deprecated
     public static final Duration REAPING_INTERVAL;
 
     /** default resolution timeout. */
@@ -192,6 +279,9 @@ public final class HaloProperties {
     /** interval between resolution question. */
     public static final Duration RESOLUTION_INTERVAL;
 
+    /** maximum number of services resolved concurrently by a service browser. */
+    public static final int RESOLUTION_CONCURRENCY;
+
     /** delay before transmitting the first browsing query. */
     public static final Duration QUERYING_FIRST;
 
@@ -204,6 +294,18 @@ public final class HaloProperties {
     /** maximum interval between consecutive browsing queries. */
     public static final Duration QUERYING_MAX;
 
+    /** maximum number of cached records. */
+    public static final int CACHE_MAX_RECORDS;
+
+    /** maximum number of bytes of cached records. */
+    public static final int CACHE_MAX_BYTES;
+
+    /** cache snapshot file, if enabled. */
+    public static final Optional<Path> CACHE_SNAPSHOT;
+
+    /** interval between cache snapshots. */
+    public static final Duration CACHE_SNAPSHOT_INTERVAL;
+
     /** time to live: 1 hour. */
     public static final Duration TTL;
 
@@ -221,8 +323,15 @@ public final class HaloProperties {
             IPV4_SOA = new InetSocketAddress(IPV4_ADDR, MDNS_PORT);
             IPV6_SOA = new InetSocketAddress(IPV6_ADDR, MDNS_PORT);
 
+            EXECUTION_THREADS = Math.max(1, intProp("io.omam.halo.execution.threads", props));
+            EXECUTION_VIRTUAL = booleanProp("io.omam.halo.execution.virtual", props);
+
+            RECEIVING_WORKERS = Math.max(1, intProp("io.omam.halo.receiving.workers", props));
+            RECEIVING_QUEUE = Math.max(1, intProp("io.omam.halo.receiving.queue", props));
+
             RESOLUTION_TIMEOUT = durationProp("io.omam.halo.resolution.timeout", props);
             RESOLUTION_INTERVAL = durationProp("io.omam.halo.resolution.interval", props);
+            RESOLUTION_CONCURRENCY = Math.max(1, intProp("io.omam.halo.resolution.concurrency", props));
 
             PROBING_TIMEOUT = durationProp("io.omam.halo.probing.timeout", props);
             PROBING_INTERVAL = durationProp("io.omam.halo.probing.interval", props);
@@ -239,7 +348,22 @@ public final class HaloProperties {
             CANCELLING_INTERVAL = durationProp("io.omam.halo.cancellation.interval", props);
             CANCEL_NUM = Math.max(1, intProp("io.omam.halo.cancellation.number", props));
 
+            AGGREGATION_MAX = durationProp("io.omam.halo.aggregation.max", props);
+            final Duration aggregationMin = durationProp("io.omam.halo.aggregation.min", props);
+            AGGREGATION_MIN = aggregationMin.compareTo(AGGREGATION_MAX) > 0 ? AGGREGATION_MAX : aggregationMin;
+
             REAPING_INTERVAL = durationProp("io.omam.halo.reaper.interval", props);
+            if (System.getProperty("io.omam.halo.reaper.interval") != null) {
+                LOGGER.warning("Ignoring io.omam.halo.reaper.interval: cached records are removed once expired");
+            }
+
+            CACHE_MAX_RECORDS = Math.max(1, intProp("io.omam.halo.cache.records", props));
+            CACHE_MAX_BYTES = Math.max(1, intProp("io.omam.halo.cache.bytes", props));
+            final String snapshot = stringProp("io.omam.halo.cache.snapshot", props);
+            CACHE_SNAPSHOT = snapshot == null || snapshot.trim().isEmpty()
+                ? Optional.empty()
+                : Optional.of(Paths.get(snapshot.trim()));
+            CACHE_SNAPSHOT_INTERVAL = durationProp("io.omam.halo.cache.snapshot.interval", props);
 
             TTL = durationProp("io.omam.halo.ttl.default", props);
             EXPIRY_TTL = durationProp("io.omam.halo.ttl.expiry", props);
@@ -256,6 +380,17 @@ public final class HaloProperties {
         // empty.
     }
 
+    /**
+     * Returns the {@code boolean} corresponding to the given key.
+     *
+     * @param key property key
+     * @param props properties default values
+     * @return value
+     */
+    private static boolean booleanProp(final String key, final Properties props) {
+        return Boolean.parseBoolean(stringProp(key, props));
+    }
+
     /**
      * Returns the {@code Duration} corresponding to the given key.
      *
@@ -38,7 +38,9 @@ import static io.omam.halo.MulticastDnsSd.TYPE_PTR;
 import java.util.Collection;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 import io.omam.halo.DnsMessage.Builder;
@@ -47,6 +49,8 @@ import io.omam.halo.DnsMessage.Builder;
  * Halo registration type browser.
  * <p>
  * Network (local domain) is queried at regular intervals with a {@link MulticastDnsSd#RT_DISCOVERY} question.
+ * Listeners are notified in order by a serial executor running on the {@link HaloHelper#notifier() notifier} so
+ * that they never block the dispatching of received messages.
  */
 final class HaloRegistrationTypeBrowser extends HaloBrowser {
 
@@ -76,6 +80,9 @@ final class HaloRegistrationTypeBrowser extends HaloBrowser {
     /** logger. */
     private static final Logger LOGGER = Logger.getLogger(HaloRegistrationTypeBrowser.class.getName());
 
+    /** serial executor in which listeners are notified. */
+    private final SerialExecutor executor;
+
     /** halo helper. */
     private final HaloHelper halo;
 
@@ -92,18 +99,19 @@ final class HaloRegistrationTypeBrowser extends HaloBrowser {
      */
     HaloRegistrationTypeBrowser(final HaloHelper haloHelper) {
         super("registration-discoverer", haloHelper);
+        executor = new SerialExecutor(haloHelper.notifier());
         halo = haloHelper;
         listeners = new ConcurrentLinkedQueue<>();
-        rts = new ConcurrentLinkedQueue<>();
+        rts = ConcurrentHashMap.newKeySet();
     }
 
     @Override
     public final void responseReceived(final DnsMessage response, final HaloHelper haloHelper) {
         LOGGER.fine(() -> "Handling " + response);
         response
-            .answers()
+            .answers(TYPE_PTR)
             .stream()
-            .filter(r -> r.type() == TYPE_PTR && r.name().equalsIgnoreCase(RT_DISCOVERY))
+            .filter(r -> r.name().equalsIgnoreCase(RT_DISCOVERY))
             .map(r -> (PtrRecord) r)
             .forEach(this::handlePointer);
     }
@@ -119,6 +127,7 @@ final class HaloRegistrationTypeBrowser extends HaloBrowser {
         Objects.requireNonNull(listener);
         rts.forEach(listener::registrationTypeAdded);
         listeners.add(listener);
+        halo.addInterest(RT_DISCOVERY);
     }
 
     /**
@@ -128,12 +137,14 @@ final class HaloRegistrationTypeBrowser extends HaloBrowser {
      */
     final void removeListener(final RegistrationTypeBrowserListener listener) {
         Objects.requireNonNull(listener);
-        listeners.remove(listener);
+        if (listeners.remove(listener)) {
+            halo.removeInterest(RT_DISCOVERY);
+        }
     }
 
     @Override
     protected final void doClose() {
-        // empty.
+        executor.close();
     }
 
     @Override
@@ -152,10 +163,13 @@ final class HaloRegistrationTypeBrowser extends HaloBrowser {
             LOGGER.warning(() -> "Ignored pointer to [" + record.target() + "]");
         } else {
             final String regType = record.target().substring(0, end);
-            if (!rts.contains(regType)) {
+            if (rts.add(regType)) {
                 LOGGER.info(() -> "Discovered new registration type [" + record.target() + "]");
-                rts.add(regType);
-                listeners.forEach(l -> l.registrationTypeAdded(regType));
+                try {
+                    executor.execute(() -> listeners.forEach(l -> l.registrationTypeAdded(regType)));
+                } catch (final RejectedExecutionException e) {
+                    LOGGER.fine(() -> "Ignoring registration type [" + regType + "] after close");
+                }
             }
         }
     }
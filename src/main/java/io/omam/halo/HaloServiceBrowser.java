@@ -30,6 +30,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package io.omam.halo;
 
+import static io.omam.halo.HaloProperties.RESOLUTION_CONCURRENCY;
 import static io.omam.halo.HaloProperties.RESOLUTION_TIMEOUT;
 import static io.omam.halo.MulticastDnsSd.CLASS_IN;
 import static io.omam.halo.MulticastDnsSd.DOMAIN;
@@ -38,22 +39,22 @@ import static io.omam.halo.MulticastDnsSd.toLowerCase;
 import static java.util.stream.Collectors.groupingBy;
 
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.logging.Level;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
-import io.omam.halo.DnsMessage.Builder;
-
 /**
  * Halo service browser by registration type.
  * <p>
@@ -77,22 +78,58 @@ final class HaloServiceBrowser extends HaloBrowser {
         @Override
         public final Void call() {
             final Set<String> rpns = listeners.keySet();
-            final Builder builder = DnsMessage.query();
+            final Instant now = halo.now();
+            final List<DnsQuestion> questions = new ArrayList<>();
+            final List<DnsRecord> knownAnswers = new ArrayList<>();
             for (final String rpn : rpns) {
-                builder.addQuestion(new DnsQuestion(rpn, TYPE_PTR, CLASS_IN));
+                questions.add(new DnsQuestion(rpn, TYPE_PTR, CLASS_IN));
+                for (final DnsRecord record : halo.cachedRecords(rpn, TYPE_PTR, CLASS_IN)) {
+                    if (isKnownAnswer(record, now)) {
+                        knownAnswers.add(record);
+                        /*
+                         * responders will not re-announce known answers: resolve any service that has been
+                         * cached but not yet resolved for this registration type.
+                         */
+                        final String serviceName = ((PtrRecord) record).target();
+                        final Map<String, ResolvableService> rservices = services.get(rpn);
+                        if (rservices != null && !rservices.containsKey(toLowerCase(serviceName))) {
+                            submitResolution(rpn, serviceName);
+                        }
+                    }
+                }
             }
-            halo.sendMessage(builder.get());
+            DnsMessage.knownAnswerQueries(questions, knownAnswers, now).forEach(halo::sendMessage);
             return null;
         }
 
+        /**
+         * Determines whether the given cached record shall be sent as a known answer: a record is known if it has
+         * not expired and more than half of its TTL remains (RFC 6762 section 7.1).
+         *
+         * @param record cached record
+         * @param now current instant
+         * @return true if the given record shall be sent as a known answer
+         */
+        private boolean isKnownAnswer(final DnsRecord record, final Instant now) {
+            return record instanceof PtrRecord
+                && !record.isExpired(now)
+                && record.remainingTtl(now).compareTo(record.ttl().dividedBy(2)) > 0;
+        }
+
     }
 
     /**
      * Task to resolve services that have been discovered during query.
+     * <p>
+     * Resolution does not block: the outcome is handled by the serial executor of this browser so that
+     * listeners are notified in order.
      */
     @SuppressWarnings("synthetic-access")
     private final class ResolveTask implements Runnable {
 
+        /** resolution, null until started. */
+        private volatile CompletableFuture<Boolean> resolution;
+
         /** registration pointer name of the service being resolved. */
         private final String rpn;
 
@@ -108,58 +145,45 @@ final class HaloServiceBrowser extends HaloBrowser {
         ResolveTask(final String registrationPointerName, final ResolvableService aService) {
             rpn = registrationPointerName;
             service = aService;
+            resolution = null;
         }
 
         @Override
         public final void run() {
-            try {
-                final boolean resolved = service.resolve(halo, RESOLUTION_TIMEOUT);
-                if (resolved) {
-                    if (alreadyResolved()) {
-                        LOGGER
-                            .fine(() -> "Ignoring already resolved "
-                                + service
-                                + " attributes: "
-                                + service.attributes());
-                    } else {
-                        final String skey = toLowerCase(service.name());
-                        final boolean added = services.get(rpn).get(skey) == null;
-                        services.get(rpn).put(skey, service);
-                        final Collection<ServiceBrowserListener> rlisteners = listeners.get(rpn);
-                        if (added) {
-                            LOGGER.info(() -> "Resolved (added) " + service);
-                            rlisteners.forEach(l -> l.serviceAdded(service));
-                        } else {
-                            LOGGER.info(() -> "Resolved (updated) " + service);
-                            rlisteners.forEach(l -> l.serviceUpdated(service));
-                        }
-                    }
-                } else {
-                    LOGGER.warning(() -> "Could not resolve " + service);
+            final CompletableFuture<Boolean> future = service.resolveAsync(halo, RESOLUTION_TIMEOUT);
+            resolution = future;
+            future.whenComplete((resolved, e) -> {
+                try {
+                    executor.execute(() -> handleResolution(resolved != null && resolved));
+                } catch (final RejectedExecutionException ex) {
+                    LOGGER.fine(() -> "Ignoring resolution of " + service + " after close");
                 }
-            } catch (final InterruptedException e) {
-                LOGGER.log(Level.WARNING, "Interrupted while waiting for response", e);
-                Thread.currentThread().interrupt();
+                resolving.remove(toLowerCase(service.name()), this);
+                startNextResolution();
+            });
+        }
+
+        /**
+         * Cancels this task if it is running.
+         */
+        final void cancel() {
+            final CompletableFuture<Boolean> future = resolution;
+            if (future != null) {
+                future.cancel(false);
             }
         }
 
         /**
-         * Determines whether this service has already been resolved - the attribute of service other than
-         * name/registration type can be updated.
+         * Handles the outcome of the resolution.
          *
-         * @return true if already resolved.
+         * @param resolved whether the service has been resolved
          */
-        private boolean alreadyResolved() {
-            final String skey = toLowerCase(service.name());
-            final ResolvableService existing = services.get(rpn).get(skey);
-            if (existing == null) {
-                return false;
+        private void handleResolution(final boolean resolved) {
+            if (resolved) {
+                handleResolved(rpn, service);
+            } else {
+                LOGGER.warning(() -> "Could not resolve " + service);
             }
-            return service.hostname().equals(existing.hostname())
-                && service.ipv4Address().equals(existing.ipv4Address())
-                && service.ipv6Address().equals(existing.ipv6Address())
-                && service.port() == existing.port()
-                && service.attributes().equals(existing.attributes());
         }
 
     }
@@ -178,8 +202,17 @@ final class HaloServiceBrowser extends HaloBrowser {
      */
     private final Map<String, Map<String, ResolvableService>> services;
 
-    /** single thread executor in which all requests are executed. */
-    private final ExecutorService executor;
+    /** serial executor in which all requests and resolution outcomes are handled and listeners notified. */
+    private final SerialExecutor executor;
+
+    /** resolutions waiting for one of the running resolutions to complete, guarded by itself. */
+    private final Queue<ResolveTask> pending;
+
+    /** number of running resolutions, guarded by {@link #pending}. */
+    private int running;
+
+    /** pending or running resolutions, indexed by service name in lower case. */
+    private final Map<String, ResolveTask> resolving;
 
     /**
      * Constructor.
@@ -191,7 +224,32 @@ final class HaloServiceBrowser extends HaloBrowser {
         halo = haloHelper;
         listeners = new ConcurrentHashMap<>();
         services = new ConcurrentHashMap<>();
-        executor = Executors.newSingleThreadExecutor(new HaloThreadFactory("service-resolver"));
+        executor = new SerialExecutor(haloHelper.notifier());
+        pending = new ArrayDeque<>();
+        running = 0;
+        resolving = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Determines whether the given service has already been resolved - the attribute of service other than
+     * name/registration type can be updated.
+     *
+     * @param rservices already resolved services for the registration type
+     * @param service resolved service
+     * @return true if already resolved.
+     */
+    private static boolean alreadyResolved(final Map<String, ResolvableService> rservices,
+            final ResolvableService service) {
+        final String skey = toLowerCase(service.name());
+        final ResolvableService existing = rservices.get(skey);
+        if (existing == null) {
+            return false;
+        }
+        return service.hostname().equals(existing.hostname())
+            && service.ipv4Address().equals(existing.ipv4Address())
+            && service.ipv6Address().equals(existing.ipv6Address())
+            && service.port() == existing.port()
+            && service.attributes().equals(existing.attributes());
     }
 
     /**
@@ -206,13 +264,19 @@ final class HaloServiceBrowser extends HaloBrowser {
 
     @Override
     public final void responseReceived(final DnsMessage response, final HaloHelper haloHelper) {
-        pointers(response).forEach((rpn, ptr) -> executor.execute(() -> handleResponse(rpn, ptr)));
+        final Map<String, List<PtrRecord>> pointers = pointers(response);
+        if (!pointers.isEmpty()) {
+            /* records are decoded once, on the dispatching thread, for all the browsed registration types. */
+            final List<DnsRecord> answers = response.answers();
+            pointers.forEach((rpn, ptr) -> executor.execute(() -> handleResponse(rpn, ptr, answers)));
+        }
     }
 
     /**
      * Adds the given listener for the given service registration type.
      * <p>
-     * Services already discovered and resolved are notified to the listener.
+     * Services already discovered and resolved are notified to the listener, and services whose pointer is cached
+     * (e.g. reloaded from a cache snapshot) are resolved, from the cache if possible.
      *
      * @param registrationType service registration type
      * @param listener listener
@@ -227,6 +291,13 @@ final class HaloServiceBrowser extends HaloBrowser {
                 services.computeIfAbsent(rpn, k -> new ConcurrentHashMap<>());
         resolved.values().forEach(listener::serviceAdded);
         rls.add(listener);
+        halo.addInterest(rpn);
+        for (final DnsRecord ptr : halo.cachedRecords(rpn, TYPE_PTR, CLASS_IN)) {
+            final String serviceName = ((PtrRecord) ptr).target();
+            if (!resolved.containsKey(toLowerCase(serviceName))) {
+                submitResolution(rpn, serviceName);
+            }
+        }
     }
 
     /**
@@ -244,14 +315,24 @@ final class HaloServiceBrowser extends HaloBrowser {
             LOGGER.warning(() -> registrationType + " is not being browsed.");
         } else if (rls.size() == 1) {
             listeners.remove(rpn);
-        } else {
-            rls.remove(listener);
+            halo.removeInterest(rpn);
+            final Map<String, ResolvableService> resolved = services.remove(rpn);
+            if (resolved != null) {
+                resolved.values().forEach(s -> halo.removeInterest(s.hostname()));
+            }
+        } else if (rls.remove(listener)) {
+            halo.removeInterest(rpn);
         }
     }
 
     @Override
     protected final void doClose() {
-        executor.shutdownNow();
+        executor.close();
+        synchronized (pending) {
+            pending.clear();
+        }
+        resolving.values().forEach(ResolveTask::cancel);
+        resolving.clear();
     }
 
     @Override
@@ -271,18 +352,56 @@ final class HaloServiceBrowser extends HaloBrowser {
         final String skey = toLowerCase(serviceName);
         final ResolvableService service = rservices.remove(skey);
         if (service != null) {
+            halo.removeInterest(service.hostname());
             LOGGER.info(() -> "Service [" + serviceName + "] has been removed");
             rlisteners.forEach(l -> l.serviceRemoved(service));
         }
     }
 
+    /**
+     * Handles the given resolved service: notifies listeners that the service has been added or updated, unless
+     * the service is already known with the same details.
+     *
+     * @param rpn registration pointer name
+     * @param service resolved service
+     */
+    private void handleResolved(final String rpn, final ResolvableService service) {
+        final Map<String, ResolvableService> rservices = services.get(rpn);
+        if (rservices == null) {
+            LOGGER.fine(() -> "Ignoring resolved " + service + " no longer browsed");
+        } else if (alreadyResolved(rservices, service)) {
+            LOGGER.fine(() -> "Ignoring already resolved " + service + " attributes: " + service.attributes());
+        } else {
+            final String skey = toLowerCase(service.name());
+            final ResolvableService previous = rservices.put(skey, service);
+            /* keep the address records of the service fresh in the cache. */
+            halo.addInterest(service.hostname());
+            if (previous != null) {
+                halo.removeInterest(previous.hostname());
+            }
+            final Collection<ServiceBrowserListener> rlisteners = listeners.get(rpn);
+            if (previous == null) {
+                LOGGER.info(() -> "Resolved (added) " + service);
+                rlisteners.forEach(l -> l.serviceAdded(service));
+            } else {
+                LOGGER.info(() -> "Resolved (updated) " + service);
+                rlisteners.forEach(l -> l.serviceUpdated(service));
+            }
+        }
+    }
+
     /**
      * Handles answers for the given registration pointer name.
+     * <p>
+     * A service whose SRV, TXT and address records are held by the response or cached is resolved passively,
+     * without sending any query. Other services are actively resolved.
      *
      * @param rpn registration pointer name
      * @param pointers PTR records
+     * @param answers all answers of the DNS response holding the given PTR records
      */
-    private void handleResponse(final String rpn, final Collection<PtrRecord> pointers) {
+    private void handleResponse(final String rpn, final Collection<PtrRecord> pointers,
+            final List<DnsRecord> answers) {
         final Map<String, ResolvableService> rservices = services.get(rpn);
         final Collection<ServiceBrowserListener> rlisteners = listeners.get(rpn);
         final Instant now = halo.now();
@@ -291,11 +410,32 @@ final class HaloServiceBrowser extends HaloBrowser {
             if (ptr.isExpired(now)) {
                 handlePtrExpiry(rservices, rlisteners, serviceName);
             } else {
-                submitResolution(rpn, serviceName);
+                final Optional<ResolvableService> service = newService(serviceName);
+                if (service.isPresent() && service.get().resolveFrom(answers, halo)) {
+                    LOGGER.fine(() -> "Passively resolved [" + serviceName + "]");
+                    handleResolved(rpn, service.get());
+                } else {
+                    submitResolution(rpn, serviceName);
+                }
             }
         }
     }
 
+    /**
+     * Returns a new service to resolve from the given service name.
+     *
+     * @param serviceName service name
+     * @return the service to resolve, or empty if the service name could not be decoded
+     */
+    private Optional<ResolvableService> newService(final String serviceName) {
+        final Optional<String> instanceName = ResolvableService.instanceNameOf(serviceName);
+        final Optional<String> registrationType = ResolvableService.registrationTypeOf(serviceName);
+        if (instanceName.isPresent() && registrationType.isPresent()) {
+            return Optional.of(new ResolvableService(instanceName.get(), registrationType.get()));
+        }
+        return Optional.empty();
+    }
+
     /**
      * Extracts all PTR records related to browsed service types.
      *
@@ -305,26 +445,59 @@ final class HaloServiceBrowser extends HaloBrowser {
     private Map<String, List<PtrRecord>> pointers(final DnsMessage response) {
         final Set<String> rpns = listeners.keySet();
         return response
-            .answers()
+            .answers(TYPE_PTR)
             .stream()
-            .filter(r -> r.type() == TYPE_PTR && rpns.contains(toLowerCase(r.name())))
+            .filter(r -> rpns.contains(toLowerCase(r.name())))
             .map(r -> (PtrRecord) r)
             .collect(groupingBy(r -> toLowerCase(r.name())));
     }
 
     /**
-     * Submits a task to resolve the given service
+     * Starts the next pending resolution if any, or releases the slot of a completed resolution otherwise.
+     */
+    private void startNextResolution() {
+        final ResolveTask next;
+        synchronized (pending) {
+            next = pending.poll();
+            if (next == null) {
+                running--;
+            }
+        }
+        if (next != null) {
+            try {
+                executor.execute(next);
+            } catch (final RejectedExecutionException e) {
+                LOGGER.fine(() -> "Ignoring pending resolution after close");
+            }
+        }
+    }
+
+    /**
+     * Submits a task to resolve the given service, unless it is already being resolved.
+     * <p>
+     * At most {@link HaloProperties#RESOLUTION_CONCURRENCY} services are resolved concurrently, further services
+     * are resolved as soon as a running resolution completes.
      *
      * @param rpn registration pointer name
      * @param serviceName service name
      */
     private void submitResolution(final String rpn, final String serviceName) {
-        final Optional<String> instanceName = ResolvableService.instanceNameOf(serviceName);
-        final Optional<String> registrationType = ResolvableService.registrationTypeOf(serviceName);
-        if (instanceName.isPresent() && registrationType.isPresent()) {
+        final Optional<ResolvableService> service = newService(serviceName);
+        if (service.isPresent()) {
             LOGGER.fine(() -> "Discovered [" + serviceName + "]");
-            final ResolvableService service = new ResolvableService(instanceName.get(), registrationType.get());
-            executor.execute(new ResolveTask(rpn, service));
+            final ResolveTask task = new ResolveTask(rpn, service.get());
+            if (resolving.putIfAbsent(toLowerCase(service.get().name()), task) != null) {
+                LOGGER.fine(() -> "Already resolving [" + serviceName + "]");
+                return;
+            }
+            synchronized (pending) {
+                if (running >= RESOLUTION_CONCURRENCY) {
+                    pending.add(task);
+                    return;
+                }
+                running++;
+            }
+            task.run();
         } else {
             LOGGER.warning(() -> "Could not decode service name [" + serviceName + "]");
         }
@@ -30,56 +30,44 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package io.omam.halo;
 
-import java.time.Duration;
-import java.time.temporal.ChronoUnit;
-import java.util.Objects;
-
 /**
- * A duration continuously decreasing until {@link Duration#ZERO}.
+ * Statistics about the mDNS messages handled by a {@link Halo} instance.
  * <p>
- * This class is helpful when awaiting for a {@code java.util.concurrent.locks.Condition} to be signaled.
+ * All values are counted since the creation of the instance.
  */
-final class Timeout {
-
-    /** remaining duration. */
-    private final Duration duration;
+public interface HaloStatistics {
 
-    /** when the timeout was created, milliseconds from the epoch of 1970-01-01T00:00Z. */
-    private final long start;
+    /**
+     * Returns the number of messages that were received but dropped because too many received messages were
+     * already waiting to be handled.
+     *
+     * @return the number of dropped messages
+     */
+    long droppedMessages();
 
     /**
-     * Class constructor.
+     * Returns the number of records that were evicted from the cache, or never admitted into it, because the cache
+     * was full.
      *
-     * @param initialDuration initial duration, not null
+     * @return the number of evicted records
      */
-    private Timeout(final Duration initialDuration) {
-        Objects.requireNonNull(initialDuration);
-        duration = initialDuration;
-        start = System.nanoTime();
-    }
+    long evictedRecords();
 
     /**
-     * Returns a new {@link Timeout timeout} starting at the given {@code initialDuration}.
+     * Returns the number of messages that were received but dropped before being decoded since none of their
+     * questions or answers relate to a name Halo is interested in: browsed registration types and their services,
+     * services being resolved or registered, and cached records. Responses holding address records are never
+     * filtered.
      *
-     * @param initialDuration initial duration, not null
-     * @return a new {@link Timeout timeout}
+     * @return the number of filtered messages
      */
-    static Timeout ofDuration(final Duration initialDuration) {
-        return new Timeout(initialDuration);
-    }
+    long filteredMessages();
 
     /**
-     * Assess and returns the remaining duration or {@link Duration#ZERO} if the initial duration has elapsed.
+     * Returns the number of messages received on all network interfaces.
      *
-     * @return the remaining duration
+     * @return the number of received messages
      */
-    final Duration remaining() {
-        final long elapsedNs = System.nanoTime() - start;
-        Duration remaining = duration.minus(elapsedNs, ChronoUnit.NANOS);
-        if (remaining.isNegative()) {
-            remaining = Duration.ZERO;
-        }
-        return remaining;
-    }
+    long receivedMessages();
 
 }
@@ -0,0 +1,123 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link HaloStatistics} implementation, updated concurrently by the threads handling messages.
+ */
+final class HaloStatisticsImpl implements HaloStatistics {
+
+    /** number of dropped messages. */
+    private final LongAdder dropped;
+
+    /** number of evicted records. */
+    private final LongAdder evicted;
+
+    /** number of filtered messages. */
+    private final LongAdder filtered;
+
+    /** number of received messages. */
+    private final LongAdder received;
+
+    /**
+     * Constructor.
+     */
+    HaloStatisticsImpl() {
+        dropped = new LongAdder();
+        evicted = new LongAdder();
+        filtered = new LongAdder();
+        received = new LongAdder();
+    }
+
+    @Override
+    public final long droppedMessages() {
+        return dropped.sum();
+    }
+
+    @Override
+    public final long evictedRecords() {
+        return evicted.sum();
+    }
+
+    @Override
+    public final long filteredMessages() {
+        return filtered.sum();
+    }
+
+    @Override
+    public final long receivedMessages() {
+        return received.sum();
+    }
+
+    @Override
+    public final String toString() {
+        return "HaloStatistics [received="
+            + receivedMessages()
+            + ", filtered="
+            + filteredMessages()
+            + ", dropped="
+            + droppedMessages()
+            + ", evicted="
+            + evictedRecords()
+            + "]";
+    }
+
+    /**
+     * Increments the number of dropped messages.
+     */
+    final void messageDropped() {
+        dropped.increment();
+    }
+
+    /**
+     * Increments the number of filtered messages.
+     */
+    final void messageFiltered() {
+        filtered.increment();
+    }
+
+    /**
+     * Increments the number of evicted records.
+     */
+    final void recordEvicted() {
+        evicted.increment();
+    }
+
+    /**
+     * Increments the number of received messages.
+     */
+    final void messageReceived() {
+        received.increment();
+    }
+
+}
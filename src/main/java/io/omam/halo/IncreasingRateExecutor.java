@@ -31,18 +31,17 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package io.omam.halo;
 
 import java.time.Duration;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
- * A {@link Executors#newSingleThreadScheduledExecutor(java.util.concurrent.ThreadFactory) Single thread scheduled
- * executor} for sending batches of messages on the network with an increasing delay between each consecutive
- * message.
+ * An executor for sending batches of messages on the network with an increasing delay between each consecutive
+ * message, on top of a shared scheduled executor.
  */
 final class IncreasingRateExecutor {
 
@@ -54,18 +53,13 @@ final class IncreasingRateExecutor {
         /** callable. */
         private final IncreasingRateCallable callable;
 
-        /** future. */
-        private final Future<Void> future;
-
         /**
          * Constructor.
          *
          * @param aCallable callable
-         * @param aFuture future
          */
-        IncreasingRateTask(final IncreasingRateCallable aCallable, final Future<Void> aFuture) {
+        IncreasingRateTask(final IncreasingRateCallable aCallable) {
             callable = aCallable;
-            future = aFuture;
         }
 
         /**
@@ -74,7 +68,7 @@ final class IncreasingRateExecutor {
          * @see Future#cancel(boolean)
          */
         final void cancel() {
-            future.cancel(true);
+            callable.cancel();
         }
 
         /**
@@ -112,6 +106,12 @@ final class IncreasingRateExecutor {
         /** maximum delay between two consecutive execution of the task in milliseconds. */
         private final long maxDelay;
 
+        /** whether this callable has been cancelled, guarded by this. */
+        private boolean cancelled;
+
+        /** future of the next execution of the task, guarded by this. */
+        private Future<Void> next;
+
         /**
          * Constructor.
          *
@@ -129,6 +129,8 @@ final class IncreasingRateExecutor {
             currentDelay = initialDelay;
             increaseFactor = anIncreaseFactor;
             maxDelay = aMaxDelay.toMillis();
+            cancelled = false;
+            next = null;
         }
 
         @Override
@@ -137,10 +139,21 @@ final class IncreasingRateExecutor {
             final long delay = currentDelay;
             LOGGER.fine(() -> "Scheduling next task in " + Duration.ofMillis(delay));
             currentDelay = Math.min(maxDelay, currentDelay * increaseFactor);
-            executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            schedule(delay);
             return null;
         }
 
+        /**
+         * Cancels the next execution of the task: the task is no longer scheduled.
+         */
+        final synchronized void cancel() {
+            cancelled = true;
+            if (next != null) {
+                next.cancel(true);
+                next = null;
+            }
+        }
+
         /**
          * Resets the delay between two consecutive execution of the task to the initial value.
          */
@@ -148,18 +161,42 @@ final class IncreasingRateExecutor {
             currentDelay = initialDelay;
         }
 
+        /**
+         * Schedules the next execution of the task after the given delay, unless this callable has been cancelled.
+         *
+         * @param delay delay in milliseconds
+         */
+        final synchronized void schedule(final long delay) {
+            if (!cancelled) {
+                next = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
     }
 
     /** the scheduled executor service. */
     private final ScheduledExecutorService ses;
 
+    /** tasks scheduled by this executor and not yet cancelled. */
+    private final Set<IncreasingRateTask> tasks;
+
     /**
      * Constructor.
      *
-     * @param name thread name suffix
+     * @param aSes scheduled executor service, not shut down by this executor
+     */
+    IncreasingRateExecutor(final ScheduledExecutorService aSes) {
+        ses = aSes;
+        tasks = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Cancels all the tasks scheduled by this executor. The underlying scheduled executor service is not shut
+     * down.
      */
-    IncreasingRateExecutor(final String name) {
-        ses = Executors.newSingleThreadScheduledExecutor(new HaloThreadFactory(name));
+    final void close() {
+        tasks.forEach(IncreasingRateTask::cancel);
+        tasks.clear();
     }
 
     /**
@@ -177,16 +214,10 @@ final class IncreasingRateExecutor {
             final Duration baseDelay, final int increaseFactor, final Duration maxDelay) {
         final IncreasingRateCallable callable =
                 new IncreasingRateCallable(task, ses, baseDelay, increaseFactor, maxDelay);
-        final ScheduledFuture<Void> future =
-                ses.schedule(callable, initialDelay.toMillis(), TimeUnit.MILLISECONDS);
-        return new IncreasingRateTask(callable, future);
-    }
-
-    /**
-     * @see ScheduledExecutorService#shutdownNow()
-     */
-    final void shutdownNow() {
-        ses.shutdownNow();
+        callable.schedule(initialDelay.toMillis());
+        final IncreasingRateTask scheduled = new IncreasingRateTask(callable);
+        tasks.add(scheduled);
+        return scheduled;
     }
 
 }
@@ -0,0 +1,184 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static io.omam.halo.MulticastDnsSd.toLowerCase;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the names Halo is interested in: cached records of these names are refreshed before they expire and
+ * are evicted last.
+ * <p>
+ * This registry only holds the names that have been explicitly added: received messages are filtered against this
+ * registry <strong>or</strong> the names of the cached records ({@code interests.or(cache::contains)}), incoming
+ * messages which neither question nor answer any of these names being dropped before being decoded.
+ * <p>
+ * A name is interesting if:
+ * <ul>
+ * <li>it has been {@link #add(String) added} to this registry, or
+ * <li>its parent name (i.e. the name without its first label) has been added to this registry: the instance names
+ * of a browsed registration pointer name are interesting
+ * </ul>
+ * Names are reference counted: a name is removed once it has been {@link #remove(String) removed} as many times
+ * as it has been added. Names are compared ignoring case.
+ * <p>
+ * Names are tested on the receiving thread for every name of every received message: added names are therefore
+ * also held in an open addressing hash table, rebuilt whenever a name is added or removed, which is looked up
+ * ignoring case and without creating any string.
+ */
+final class InterestRegistry implements Predicate<String> {
+
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(InterestRegistry.class.getName());
+
+    /** number of times each name (lower case) has been added. */
+    private final Map<String, Integer> names;
+
+    /** open addressing hash table of the added names (lower case), with at least one free slot. */
+    private volatile String[] table;
+
+    /**
+     * Constructor.
+     */
+    InterestRegistry() {
+        names = new HashMap<>();
+        table = table(names.keySet());
+    }
+
+    /**
+     * Determines whether the given table contains the suffix of the given name starting at the given index,
+     * ignoring case.
+     *
+     * @param table open addressing hash table
+     * @param name name
+     * @param from index of the first character of the suffix
+     * @return {@code true} iff the given table contains the suffix of the given name
+     */
+    private static boolean contains(final String[] table, final String name, final int from) {
+        final int length = name.length() - from;
+        final int mask = table.length - 1;
+        for (int i = hash(name, from) & mask; table[i] != null; i = i + 1 & mask) {
+            if (table[i].length() == length && table[i].regionMatches(true, 0, name, from, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the hash code, ignoring case, of the suffix of the given name starting at the given index.
+     * <p>
+     * Characters are folded as {@link String#regionMatches(boolean, int, String, int, int)} does when ignoring
+     * case, so that names comparing equal have the same hash code.
+     *
+     * @param name name
+     * @param from index of the first character of the suffix
+     * @return hash code
+     */
+    private static int hash(final String name, final int from) {
+        int h = 0;
+        for (int i = from; i < name.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * Builds the open addressing hash table of the given names, twice as large as the number of names at least.
+     *
+     * @param keys names (lower case)
+     * @return hash table
+     */
+    private static String[] table(final Collection<String> keys) {
+        final String[] table = new String[Integer.highestOneBit(keys.size() * 2 + 1) * 2];
+        final int mask = table.length - 1;
+        for (final String key : keys) {
+            int i = hash(key, 0) & mask;
+            while (table[i] != null) {
+                i = i + 1 & mask;
+            }
+            table[i] = key;
+        }
+        return table;
+    }
+
+    /**
+     * Determines whether the given name is interesting.
+     *
+     * @param name name
+     * @return {@code true} iff the given name is interesting
+     */
+    @Override
+    public final boolean test(final String name) {
+        final String[] snapshot = table;
+        if (contains(snapshot, name, 0)) {
+            return true;
+        }
+        final int dot = name.indexOf('.');
+        return dot != -1 && dot < name.length() - 1 && contains(snapshot, name, dot + 1);
+    }
+
+    /**
+     * Adds the given name to this registry.
+     *
+     * @param name name
+     */
+    final synchronized void add(final String name) {
+        Objects.requireNonNull(name);
+        final String key = toLowerCase(name);
+        if (names.merge(key, 1, Integer::sum) == 1) {
+            table = table(names.keySet());
+        }
+        LOGGER.fine(() -> "Interested in [" + key + "]");
+    }
+
+    /**
+     * Removes the given name from this registry.
+     *
+     * @param name name
+     */
+    final synchronized void remove(final String name) {
+        Objects.requireNonNull(name);
+        final String key = toLowerCase(name);
+        final Integer count = names.get(key);
+        if (count != null && names.computeIfPresent(key, (k, c) -> c == 1 ? null : c - 1) == null) {
+            table = table(names.keySet());
+        }
+        LOGGER.fine(() -> "No longer interested in [" + key + "]");
+    }
+
+}
@@ -30,73 +30,130 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package io.omam.halo;
 
-import java.io.ByteArrayInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * An input stream to read the data received in a single {@link DnsMessage}.
  * <p>
- * Data is read from a {@link ByteArrayInputStream} using big-endian ordering.
+ * Data is read from a {@link ByteBuffer} using big-endian ordering and absolute-index reads: neither the position
+ * nor the limit of the buffer are modified, and the buffer content is not copied. The buffer must not be modified
+ * while this stream is being read.
  * <p>
  * This class implements the compression algorithm used for names described in https://www.ietf.org/rfc/rfc1035.txt
  */
-final class MessageInputStream extends ByteArrayInputStream {
+final class MessageInputStream implements AutoCloseable {
 
-    /** pointers for decompression: index of a string in this stream. */
-    private final Map<Integer, String> pointers;
+    /** mask of the 2 most significant bits of a label length: 00 for a label, a pointer otherwise. */
+    private static final int POINTER_MASK = 0xC0;
+
+    /** buffer. */
+    private final ByteBuffer buf;
+
+    /** index of the first byte of the message in the buffer. */
+    private final int start;
+
+    /** number of bytes of the message. */
+    private final int length;
+
+    /** index of the next byte to read, relative to {@link #start}. */
+    private int pos;
+
+    /** array backing the buffer if accessible, null otherwise. */
+    private final byte[] array;
+
+    /** index of the first byte of the message in {@link #array}. */
+    private final int offset;
+
+    /** scratch array to decode labels when the buffer is not backed by an accessible array. */
+    private byte[] scratch;
 
     /**
      * Creates a {@code MessageInputStream} so that it uses {@code buffer} as its buffer array. The buffer array is
      * not copied.
      *
-     * @see ByteArrayInputStream#ByteArrayInputStream(byte[])
      * @param buffer the input buffer.
      */
     MessageInputStream(final byte[] buffer) {
-        super(buffer);
-        pointers = new HashMap<>();
+        this(ByteBuffer.wrap(buffer));
     }
 
     /**
-     * Closing a {@code MessageInputStream} has no effect. The methods in this class can be called after the stream
-     * has been closed without generating an {@code IOException}.
+     * Creates a {@code MessageInputStream} reading the bytes between the current position and the limit of the
+     * given buffer. The buffer is not copied.
      *
-     * @see ByteArrayInputStream#close()
+     * @param buffer the input buffer.
+     */
+    MessageInputStream(final ByteBuffer buffer) {
+        buf = buffer;
+        start = buffer.position();
+        length = buffer.remaining();
+        pos = 0;
+        if (buffer.hasArray()) {
+            array = buffer.array();
+            offset = buffer.arrayOffset() + start;
+        } else {
+            array = null;
+            offset = 0;
+        }
+        scratch = null;
+    }
+
+    /**
+     * Closing a {@code MessageInputStream} has no effect. The methods in this class can be called after the stream
+     * has been closed.
      */
     @Override
     public final void close() {
         // empty.
     }
 
+    /**
+     * @return the index of the next byte to read.
+     */
+    final int position() {
+        return pos;
+    }
+
     /**
      * Reads the next byte of data from this input stream.
      *
-     * @see ByteArrayInputStream#read()
-     * @return the next byte of data, or {@code -1} if the end of the stream has been reached.
+     * @return the next byte of data
+     * @throws BufferUnderflowException if the end of the stream has been reached
      */
     final int readByte() {
-        return read();
+        final int value = byteAt(pos);
+        pos++;
+        return value;
     }
 
     /**
-     * Reads up to {@code length} bytes of data into an array of bytes from this input stream.
+     * Reads {@code length} bytes of data into an array of bytes from this input stream.
      *
-     * @see ByteArrayInputStream#read(byte[], int, int)
-     * @param length the maximum number of bytes to read
+     * @param count the number of bytes to read
      * @return an array containing the read bytes
+     * @throws BufferUnderflowException if less than {@code count} bytes remain
      */
-    final byte[] readBytes(final int length) {
-        final byte[] bytes = new byte[length];
-        read(bytes, 0, length);
+    final byte[] readBytes(final int count) {
+        ensureAvailable(pos, count);
+        final byte[] bytes = new byte[count];
+        if (array == null) {
+            for (int i = 0; i < count; i++) {
+                bytes[i] = buf.get(start + pos + i);
+            }
+        } else {
+            System.arraycopy(array, offset + pos, bytes, 0, count);
+        }
+        pos += count;
         return bytes;
     }
 
     /**
      * Reads the next integer (4 bytes) from this input stream.
      *
-     * @return the next integer, or {@code -1} if the end of the stream has been reached.
+     * @return the next integer
+     * @throws BufferUnderflowException if less than 4 bytes remain
      */
     final int readInt() {
         return readShort() << 16 | readShort();
@@ -104,41 +161,46 @@ final class MessageInputStream extends ByteArrayInputStream {
 
     /**
      * Reads the next name ({@link StandardCharsets#UTF_8 UTF8} String) from this input stream.
+     * <p>
+     * Compression pointers are followed in place. A pointer must refer to a prior occurrence of a name in the
+     * message: the name is truncated at any pointer which does not, so that a malformed name cannot make the
+     * decoding loop.
      *
      * @return the name
+     * @throws BufferUnderflowException if the name extends beyond the end of the stream
      */
     final String readName() {
-        final Map<Integer, StringBuilder> names = new HashMap<>();
         final StringBuilder name = new StringBuilder();
+        int index = pos;
+        /* pointers must always point backwards, hence they cannot loop. */
+        int lowest = pos;
+        boolean jumped = false;
         boolean finished = false;
         while (!finished) {
-            final int read = readByte();
+            final int read = byteAt(index);
+            index++;
             if (read == 0) {
-                break;
-            }
-            if ((read & 0xC0) == 0x00) {
-                final int offset = pos - 1;
-                final String label = readString(read) + ".";
-                name.append(label);
-                for (final StringBuilder previousLabel : names.values()) {
-                    previousLabel.append(label);
-                }
-                names.put(offset, new StringBuilder(label));
-
+                finished = true;
+            } else if ((read & POINTER_MASK) == 0) {
+                appendLabel(name, index, read);
+                index += read;
             } else {
-                final int index = (read & 0x3F) << 8 | readByte();
-                final String compressedLabel = pointers.get(Integer.valueOf(index));
-                name.append(compressedLabel);
-                for (final StringBuilder previousLabel : names.values()) {
-                    previousLabel.append(compressedLabel);
+                final int pointer = (read & ~POINTER_MASK) << 8 | byteAt(index);
+                index++;
+                if (!jumped) {
+                    pos = index;
+                    jumped = true;
+                }
+                if (pointer < lowest) {
+                    lowest = pointer;
+                    index = pointer;
+                } else {
+                    finished = true;
                 }
-                finished = true;
             }
         }
-
-        for (final Map.Entry<Integer, StringBuilder> entry : names.entrySet()) {
-            final Integer index = entry.getKey();
-            pointers.put(index, entry.getValue().toString());
+        if (!jumped) {
+            pos = index;
         }
         return name.toString();
     }
@@ -146,22 +208,129 @@ final class MessageInputStream extends ByteArrayInputStream {
     /**
      * Reads the next short (2 bytes) from this input stream.
      *
-     * @return the next short, or {@code -1} if the end of the stream has been reached.
+     * @return the next short
+     * @throws BufferUnderflowException if less than 2 bytes remain
      */
     final int readShort() {
         return readByte() << 8 | readByte();
     }
 
     /**
-     * Reads up to {@code length} bytes of data into an {@link StandardCharsets#UTF_8 UTF8} String from this input
-     * stream
+     * @return the number of bytes remaining to be read from this input stream.
+     */
+    final int remaining() {
+        return length - pos;
+    }
+
+    /**
+     * Moves this input stream to the given position.
+     *
+     * @param position index of the next byte to read
+     * @throws BufferUnderflowException if position is beyond the end of the stream
+     */
+    final void seek(final int position) {
+        ensureAvailable(position, 0);
+        pos = position;
+    }
+
+    /**
+     * Skips over the next name of this input stream without decoding it.
      *
-     * @param length the maximum number of bytes to read
-     * @return a String
+     * @throws BufferUnderflowException if the name extends beyond the end of the stream
      */
-    private String readString(final int length) {
-        final byte[] bytes = readBytes(length);
-        return new String(bytes, StandardCharsets.UTF_8);
+    final void skipName() {
+        boolean finished = false;
+        while (!finished) {
+            final int read = readByte();
+            if (read == 0) {
+                finished = true;
+            } else if ((read & POINTER_MASK) == 0) {
+                ensureAvailable(pos, read);
+                pos += read;
+            } else {
+                readByte();
+                finished = true;
+            }
+        }
+    }
+
+    /**
+     * Skips over {@code count} bytes of data from this input stream.
+     *
+     * @param count number of bytes to skip
+     * @return the actual number of bytes skipped: less than {@code count} if the end of the stream is reached
+     */
+    final int skip(final int count) {
+        final int skipped = Math.max(0, Math.min(count, remaining()));
+        pos += skipped;
+        return skipped;
+    }
+
+    /**
+     * Appends the {@link StandardCharsets#UTF_8 UTF8} label starting at the given index followed by a dot to the
+     * given builder.
+     *
+     * @param name builder
+     * @param index index of the first byte of the label
+     * @param count number of bytes of the label
+     */
+    private void appendLabel(final StringBuilder name, final int index, final int count) {
+        ensureAvailable(index, count);
+        final byte[] bytes;
+        final int from;
+        if (array == null) {
+            if (scratch == null || scratch.length < count) {
+                scratch = new byte[Math.max(count, 64)];
+            }
+            for (int i = 0; i < count; i++) {
+                scratch[i] = buf.get(start + index + i);
+            }
+            bytes = scratch;
+            from = 0;
+        } else {
+            bytes = array;
+            from = offset + index;
+        }
+        boolean ascii = true;
+        for (int i = from; i < from + count && ascii; i++) {
+            ascii = bytes[i] >= 0;
+        }
+        if (ascii) {
+            for (int i = from; i < from + count; i++) {
+                name.append((char) bytes[i]);
+            }
+        } else {
+            name.append(new String(bytes, from, count, StandardCharsets.UTF_8));
+        }
+        name.append('.');
+    }
+
+    /**
+     * Returns the unsigned byte at the given index.
+     *
+     * @param index index relative to the start of the message
+     * @return unsigned byte
+     * @throws BufferUnderflowException if index is beyond the end of the message
+     */
+    private int byteAt(final int index) {
+        ensureAvailable(index, 1);
+        if (array == null) {
+            return buf.get(start + index) & 0xFF;
+        }
+        return array[offset + index] & 0xFF;
+    }
+
+    /**
+     * Ensures that {@code count} bytes are available from the given index.
+     *
+     * @param index index relative to the start of the message
+     * @param count number of bytes
+     * @throws BufferUnderflowException if less than {@code count} bytes are available
+     */
+    private void ensureAvailable(final int index, final int count) {
+        if (index < 0 || count < 0 || index + count > length) {
+            throw new BufferUnderflowException();
+        }
     }
 
 }
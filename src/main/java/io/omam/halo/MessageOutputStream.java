@@ -31,25 +31,100 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package io.omam.halo;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * An output stream to write data of a single {@link DnsMessage} that allows to skip bytes and write at selected
- * position.
+ * position. The stream can be {@link #reset() reset} to write another message.
  * <p>
  * Data is written into a {@link ByteArrayOutputStream} using big-endian ordering.
  * <p>
- * This class implements the compression algorithm used for names described in https://www.ietf.org/rfc/rfc1035.txt
+ * This class implements the compression algorithm used for names described in https://www.ietf.org/rfc/rfc1035.txt:
+ * every label written to this stream is kept in a dictionary indexed by the label and the offset of the suffix that
+ * follows it, which forms a trie of the written names. The longest suffix of a name already written is found by
+ * walking this trie from the last label of the name, without building any intermediate String. Names written as a
+ * whole are additionally remembered so that writing the same name again only costs a lookup, and common suffixes
+ * (e.g. {@code local.}) are written from their pre-encoded form.
  */
 final class MessageOutputStream extends ByteArrayOutputStream {
 
     /** dot character. */
     private static final char DOT = '.';
 
-    /** pointers for decompression: string to index in this stream. */
-    private final Map<String, Integer> pointers;
+    /** maximum offset that can be referenced by a compression pointer. */
+    private static final int MAX_POINTER = 0x3FFF;
+
+    /** constant suffixes which are pre-encoded. */
+    private static final String[] CONSTANT_SUFFIXES = { "_tcp.local.", "_udp.local.", "local." };
+
+    /** characters of the constant suffixes. */
+    private static final char[][] CONSTANT_CHARS =
+            Arrays.stream(CONSTANT_SUFFIXES).map(String::toCharArray).toArray(char[][]::new);
+
+    /** maximum number of labels of a constant suffix. */
+    private static final int MAX_CONSTANT_LABELS = 2;
+
+    /** pre-encoded constant suffixes (including the terminating zero-length label). */
+    private static final byte[][] ENCODED_SUFFIXES = encodeSuffixes();
+
+    /** initial number of characters of a name. */
+    private static final int INITIAL_CHARS = 64;
+
+    /** initial number of labels of a name. */
+    private static final int INITIAL_LABELS = 8;
+
+    /** number of fields of a label: start, end, hash and offset. */
+    private static final int LABEL_FIELDS = 4;
+
+    /** index of the first character of the label in the name. */
+    private static final int LABEL_START = 0;
+
+    /** index of the character following the label in the name. */
+    private static final int LABEL_END = 1;
+
+    /** hash of the label. */
+    private static final int LABEL_HASH = 2;
+
+    /** offset at which the label has been written. */
+    private static final int LABEL_OFFSET = 3;
+
+    /** initial capacity of the dictionary, must be a power of 2. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** number of fields of a dictionary entry: hash, offset and parent. */
+    private static final int ENTRY_FIELDS = 3;
+
+    /** hash of the entry. */
+    private static final int ENTRY_HASH = 0;
+
+    /** offset of the label of the entry, 0 for an empty entry (a name never starts at offset 0). */
+    private static final int ENTRY_OFFSET = 1;
+
+    /** offset of the suffix following the label of the entry, 0 for the root. */
+    private static final int ENTRY_PARENT = 2;
+
+    /** characters of the name being written. */
+    private char[] chars;
+
+    /** fields of each label of the name being written, see {@link #LABEL_FIELDS}. */
+    private int[] labelFields;
+
+    /** fields of each dictionary entry, see {@link #ENTRY_FIELDS}. */
+    private int[] dictionary;
+
+    /** number of dictionary entries. */
+    private int dictionarySize;
+
+    /** names written to this stream, indexed by their hash code. */
+    private String[] names;
+
+    /** offset of each name written to this stream. */
+    private int[] nameOffsets;
+
+    /** number of names written to this stream. */
+    private int namesSize;
 
     /**
      * Creates a new byte array output stream. The buffer capacity is initially 32 bytes, though its size increases
@@ -58,7 +133,45 @@ final class MessageOutputStream extends ByteArrayOutputStream {
      * @see ByteArrayOutputStream#ByteArrayOutputStream()
      */
     MessageOutputStream() {
-        pointers = new HashMap<>();
+        /* allocated when writing the first name. */
+        chars = null;
+        labelFields = null;
+        dictionary = null;
+        dictionarySize = 0;
+        names = null;
+        nameOffsets = null;
+        namesSize = 0;
+    }
+
+    /**
+     * Encodes the {@link #CONSTANT_SUFFIXES constant suffixes}.
+     *
+     * @return the encoded suffixes
+     */
+    private static byte[][] encodeSuffixes() {
+        final byte[][] result = new byte[CONSTANT_SUFFIXES.length][];
+        for (int i = 0; i < CONSTANT_SUFFIXES.length; i++) {
+            try (final MessageOutputStream mos = new MessageOutputStream()) {
+                for (final String label : CONSTANT_SUFFIXES[i].split("\\.")) {
+                    mos.writeCharacterString(label);
+                }
+                mos.writeByte(0);
+                result[i] = mos.toByteArray();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hash of a dictionary entry.
+     *
+     * @param labelHash hash of the label
+     * @param parent offset of the suffix following the label
+     * @return hash of the entry
+     */
+    private static int hash(final int labelHash, final int parent) {
+        final int h = (31 * labelHash + parent) * 0x9E3779B9;
+        return h ^ h >>> 16;
     }
 
     /**
@@ -72,6 +185,32 @@ final class MessageOutputStream extends ByteArrayOutputStream {
         // empty.
     }
 
+    /**
+     * Resets this stream so that it can be used to write another message: all written bytes and names are
+     * discarded, but allocated buffers are kept.
+     */
+    @Override
+    public final synchronized void reset() {
+        super.reset();
+        if (dictionary != null) {
+            Arrays.fill(dictionary, 0);
+            dictionarySize = 0;
+        }
+        if (names != null) {
+            Arrays.fill(names, null);
+            namesSize = 0;
+        }
+    }
+
+    /**
+     * Writes the bytes written to this stream into the given buffer.
+     *
+     * @param dst buffer
+     */
+    final void writeTo(final ByteBuffer dst) {
+        dst.put(buf, 0, count);
+    }
+
     /**
      * @return the number of valid bytes in the buffer.
      */
@@ -80,11 +219,15 @@ final class MessageOutputStream extends ByteArrayOutputStream {
     }
 
     /**
-     * Skips over the given number of bytes.
+     * Skips over the given number of bytes, growing the buffer if needed so that the skipped bytes can later be
+     * written at their index.
      *
      * @param length number of bytes to skip over
      */
     final void skip(final int length) {
+        if (count + length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + length));
+        }
         count += length;
     }
 
@@ -124,30 +267,53 @@ final class MessageOutputStream extends ByteArrayOutputStream {
      * @param name name
      */
     final void writeName(final String name) {
-        String sub = name;
-        while (true) {
-            int split = sub.indexOf(DOT);
-            if (split < 0) {
-                split = sub.length();
-            }
-            if (split <= 0) {
-                writeByte(0);
-                return;
+        final int known = lookupName(name);
+        if (known != -1) {
+            writePointer(known);
+            return;
+        }
+        final int labels = splitLabels(name);
+        /* walk the trie from the last label to find the longest suffix already written. */
+        int suffix = 0;
+        int written = labels;
+        while (written > 0) {
+            final int offset = lookup(written - 1, suffix);
+            if (offset == -1) {
+                break;
             }
-            final String label = sub.substring(0, split);
-            final Integer offset = pointers.get(sub);
-            if (offset != null) {
-                final int val = offset.intValue();
-                writeByte(val >> 8 | 0xC0);
-                writeByte(val & 0xFF);
-                return;
+            suffix = offset;
+            written--;
+        }
+        boolean terminated = false;
+        for (int i = 0; i < written && !terminated; i++) {
+            final int constant = suffix == 0 ? constantSuffix(i, labels) : -1;
+            if (constant == -1) {
+                labelFields[LABEL_FIELDS * i + LABEL_OFFSET] = count;
+                writeLabel(i);
+            } else {
+                writeConstantSuffix(constant, i, labels);
+                terminated = true;
             }
-            pointers.put(sub, Integer.valueOf(size()));
-            writeCharacterString(label);
-            sub = sub.substring(split);
-            if (sub.charAt(0) == DOT) {
-                sub = sub.substring(1);
+        }
+        if (terminated) {
+            /* nothing to do, terminating label is part of the constant suffix. */
+        } else if (suffix == 0) {
+            writeByte(0);
+        } else {
+            writePointer(suffix);
+        }
+        if (labels > 0) {
+            registerName(name, written == 0 ? suffix : labelField(0, LABEL_OFFSET));
+        }
+        int parent = suffix;
+        for (int i = written - 1; i >= 0; i--) {
+            final int offset = labelField(i, LABEL_OFFSET);
+            if (offset == 0 || offset > MAX_POINTER) {
+                /* cannot be referenced by a compression pointer. */
+                break;
             }
+            register(i, parent);
+            parent = offset;
         }
     }
 
@@ -182,6 +348,251 @@ final class MessageOutputStream extends ByteArrayOutputStream {
         writeAllBytes(bytes);
     }
 
+    /**
+     * Returns the index of the constant suffix matching the suffix of the name being written starting at the given
+     * label.
+     *
+     * @param first index of the first label of the suffix
+     * @param labels number of labels of the name
+     * @return the index of the matching constant suffix or {@code -1}
+     */
+    private int constantSuffix(final int first, final int labels) {
+        if (labels - first > MAX_CONSTANT_LABELS) {
+            return -1;
+        }
+        final int start = labelField(first, LABEL_START);
+        final int length = labelField(labels - 1, LABEL_END) - start;
+        for (int i = 0; i < CONSTANT_SUFFIXES.length; i++) {
+            /* the name may omit the trailing dot. */
+            final char[] constant = CONSTANT_CHARS[i];
+            if (constant.length == length + 1) {
+                int c = 0;
+                while (c < length && chars[start + c] == constant[c]) {
+                    c++;
+                }
+                if (c == length) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the given field of the given label of the name being written.
+     *
+     * @param label index of the label
+     * @param field field, one of {@link #LABEL_START}, {@link #LABEL_END}, {@link #LABEL_HASH} or
+     *            {@link #LABEL_OFFSET}
+     * @return the value of the field
+     */
+    private int labelField(final int label, final int field) {
+        return labelFields[LABEL_FIELDS * label + field];
+    }
+
+    /**
+     * Determines whether the given label of the name being written has been written at the given offset.
+     *
+     * @param label index of the label
+     * @param offset offset of the length of the written label
+     * @return {@code true} iff the label has been written at the given offset
+     */
+    private boolean labelEquals(final int label, final int offset) {
+        final int start = labelField(label, LABEL_START);
+        final int end = labelField(label, LABEL_END);
+        final int length = buf[offset] & 0xFF;
+        for (int i = start; i < end; i++) {
+            final char c = chars[i];
+            if (c >= 0x80) {
+                final byte[] bytes = new String(chars, start, end - start).getBytes(StandardCharsets.UTF_8);
+                return length == bytes.length
+                    && Arrays.equals(bytes, Arrays.copyOfRange(buf, offset + 1, offset + 1 + length));
+            }
+            /* UTF8 encoding of an ASCII prefix is the prefix itself. */
+            if (i - start >= length || buf[offset + 1 + i - start] != c) {
+                return false;
+            }
+        }
+        return length == end - start;
+    }
+
+    /**
+     * Looks up the dictionary for the given label of the name being written followed by the suffix written at the
+     * given offset.
+     *
+     * @param label index of the label
+     * @param parent offset of the suffix following the label, 0 for the root
+     * @return the offset at which the label followed by the suffix has been written or {@code -1}
+     */
+    private int lookup(final int label, final int parent) {
+        if (dictionary == null) {
+            return -1;
+        }
+        final int hash = hash(labelField(label, LABEL_HASH), parent);
+        final int mask = dictionary.length / ENTRY_FIELDS - 1;
+        for (int index = hash & mask;; index = index + 1 & mask) {
+            final int entry = ENTRY_FIELDS * index;
+            final int offset = dictionary[entry + ENTRY_OFFSET];
+            if (offset == 0) {
+                return -1;
+            }
+            if (dictionary[entry + ENTRY_HASH] == hash && dictionary[entry + ENTRY_PARENT] == parent
+                && offset < count && labelEquals(label, offset)) {
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Looks up the names written to this stream for the given name. Since names are usually long-lived instances,
+     * this avoids splitting a name which has already been written as a whole.
+     *
+     * @param name name
+     * @return the offset at which the name has been written or {@code -1}
+     */
+    private int lookupName(final String name) {
+        if (names == null) {
+            return -1;
+        }
+        final int mask = names.length - 1;
+        for (int index = hash(name.hashCode(), 0) & mask; names[index] != null; index = index + 1 & mask) {
+            if (names[index].equals(name) && nameOffsets[index] < count) {
+                return nameOffsets[index];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Puts the given entry in the dictionary, which must have at least one empty entry.
+     *
+     * @param hash hash of the entry
+     * @param offset offset of the label
+     * @param parent offset of the suffix following the label
+     */
+    private void put(final int hash, final int offset, final int parent) {
+        final int mask = dictionary.length / ENTRY_FIELDS - 1;
+        int index = hash & mask;
+        while (dictionary[ENTRY_FIELDS * index + ENTRY_OFFSET] != 0) {
+            index = index + 1 & mask;
+        }
+        final int entry = ENTRY_FIELDS * index;
+        dictionary[entry + ENTRY_HASH] = hash;
+        dictionary[entry + ENTRY_OFFSET] = offset;
+        dictionary[entry + ENTRY_PARENT] = parent;
+        dictionarySize++;
+    }
+
+    /**
+     * Puts the given name in the names written to this stream, which must have at least one empty entry.
+     *
+     * @param name name
+     * @param offset offset of the name
+     */
+    private void putName(final String name, final int offset) {
+        final int mask = names.length - 1;
+        int index = hash(name.hashCode(), 0) & mask;
+        while (names[index] != null) {
+            index = index + 1 & mask;
+        }
+        names[index] = name;
+        nameOffsets[index] = offset;
+        namesSize++;
+    }
+
+    /**
+     * Registers the given label of the name being written, followed by the suffix written at the given offset, in
+     * the dictionary.
+     *
+     * @param label index of the label
+     * @param parent offset of the suffix following the label, 0 for the root
+     */
+    private void register(final int label, final int parent) {
+        if (dictionary == null) {
+            dictionary = new int[ENTRY_FIELDS * INITIAL_CAPACITY];
+        } else if (2 * ENTRY_FIELDS * (dictionarySize + 1) > dictionary.length) {
+            final int[] entries = dictionary;
+            dictionary = new int[2 * entries.length];
+            dictionarySize = 0;
+            for (int entry = 0; entry < entries.length; entry += ENTRY_FIELDS) {
+                if (entries[entry + ENTRY_OFFSET] != 0) {
+                    put(entries[entry + ENTRY_HASH], entries[entry + ENTRY_OFFSET], entries[entry + ENTRY_PARENT]);
+                }
+            }
+        }
+        put(hash(labelField(label, LABEL_HASH), parent), labelField(label, LABEL_OFFSET), parent);
+    }
+
+    /**
+     * Registers the given name written at the given offset. Names which cannot be referenced by a compression
+     * pointer are ignored.
+     *
+     * @param name name
+     * @param offset offset of the name
+     */
+    private void registerName(final String name, final int offset) {
+        if (offset == 0 || offset > MAX_POINTER) {
+            return;
+        }
+        if (names == null) {
+            names = new String[INITIAL_CAPACITY];
+            nameOffsets = new int[INITIAL_CAPACITY];
+        } else if (2 * (namesSize + 1) > names.length) {
+            final String[] oldNames = names;
+            final int[] oldOffsets = nameOffsets;
+            names = new String[2 * oldNames.length];
+            nameOffsets = new int[2 * oldOffsets.length];
+            namesSize = 0;
+            for (int i = 0; i < oldNames.length; i++) {
+                if (oldNames[i] != null) {
+                    putName(oldNames[i], oldOffsets[i]);
+                }
+            }
+        }
+        putName(name, offset);
+    }
+
+    /**
+     * Copies the characters of the given name into {@link #chars} and splits it into labels: the index of the
+     * first character, of the character following and the hash of each label are stored in {@link #labelFields}.
+     *
+     * @param name name
+     * @return the number of labels of the name
+     */
+    private int splitLabels(final String name) {
+        final int length = name.length();
+        if (chars == null || chars.length < length) {
+            chars = new char[Math.max(length, INITIAL_CHARS)];
+        }
+        if (labelFields == null) {
+            labelFields = new int[LABEL_FIELDS * INITIAL_LABELS];
+        }
+        name.getChars(0, length, chars, 0);
+        int labels = 0;
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            int hash = 0;
+            while (end < length && chars[end] != DOT) {
+                hash = 31 * hash + chars[end];
+                end++;
+            }
+            if (end == start) {
+                /* empty label: end of the name. */
+                break;
+            }
+            if (LABEL_FIELDS * labels == labelFields.length) {
+                labelFields = Arrays.copyOf(labelFields, 2 * labelFields.length);
+            }
+            labelFields[LABEL_FIELDS * labels + LABEL_START] = start;
+            labelFields[LABEL_FIELDS * labels + LABEL_END] = end;
+            labelFields[LABEL_FIELDS * labels + LABEL_HASH] = hash;
+            labels++;
+            start = end + 1;
+        }
+        return labels;
+    }
+
     /**
      * Writes the size of the given {@link StandardCharsets#UTF_8 UTF8} String, followed by the given String to
      * this output stream.
@@ -194,4 +605,58 @@ final class MessageOutputStream extends ByteArrayOutputStream {
         writeAllBytes(bytes);
     }
 
+    /**
+     * Writes the given pre-encoded constant suffix, recording the offset of each of its labels.
+     *
+     * @param constant index of the constant suffix
+     * @param first index of the first label of the suffix in the name being written
+     * @param labels number of labels of the name being written
+     */
+    private void writeConstantSuffix(final int constant, final int first, final int labels) {
+        final byte[] encoded = ENCODED_SUFFIXES[constant];
+        int index = 0;
+        for (int i = first; i < labels; i++) {
+            labelFields[LABEL_FIELDS * i + LABEL_OFFSET] = count + index;
+            index += 1 + encoded[index];
+        }
+        write(encoded, 0, encoded.length);
+    }
+
+    /**
+     * Writes a compression pointer to the given offset.
+     *
+     * @param offset offset
+     */
+    private void writePointer(final int offset) {
+        writeByte(offset >> 8 | 0xC0);
+        writeByte(offset & 0xFF);
+    }
+
+    /**
+     * Writes the given label of the name being written.
+     *
+     * @param label index of the label
+     */
+    private void writeLabel(final int label) {
+        final int start = labelField(label, LABEL_START);
+        final int end = labelField(label, LABEL_END);
+        boolean ascii = true;
+        for (int i = start; i < end && ascii; i++) {
+            ascii = chars[i] < 0x80;
+        }
+        if (ascii) {
+            final int length = end - start;
+            if (count + length + 1 > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + length + 1));
+            }
+            buf[count] = (byte) length;
+            for (int i = 0; i < length; i++) {
+                buf[count + 1 + i] = (byte) chars[start + i];
+            }
+            count += length + 1;
+        } else {
+            writeCharacterString(new String(chars, start, end - start));
+        }
+    }
+
 }
@@ -46,6 +46,12 @@ final class MulticastDnsSd {
     /** maximum size of DNS message in bytes. */
     static final int MAX_DNS_MESSAGE_SIZE = 65_536;
 
+    /**
+     * maximum size in bytes of a DNS message which is merged from several responses or split into several queries:
+     * fits in an Ethernet frame (1500 bytes) with IPv6 and UDP headers.
+     */
+    static final int MAX_PACKET_SIZE = 1452;
+
     /** query or response mask (unsigned). */
     static final short FLAGS_QR_MASK = (short) 0x8000;
 
@@ -58,6 +64,9 @@ final class MulticastDnsSd {
     /** authoritative answer flag (unsigned). */
     static final short FLAGS_AA = 0x0400;
 
+    /** truncated flag (unsigned): the known answers of a query continue in the next packet. */
+    static final short FLAGS_TC = 0x0200;
+
     /** Internet class. */
     static final short CLASS_IN = 1;
 
@@ -30,62 +30,129 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package io.omam.halo;
 
-import static io.omam.halo.HaloProperties.REAPING_INTERVAL;
-
-import java.time.Clock;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
 /**
- * Periodically removes expired DNS records from the cache.
+ * Removes DNS records from the cache as soon as they expire, and queries the network for the cached records of
+ * interest that are due for refresh: all the records due for refresh at the same time are asked in as few queries
+ * as possible.
+ * <p>
+ * No thread is dedicated to the reaper: a reaping task is scheduled on a shared executor at the next deadline of
+ * the cache, and re-scheduled earlier whenever an earlier deadline is scheduled.
  */
 final class Reaper implements AutoCloseable {
 
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(Reaper.class.getName());
+
     /** cache. */
     private final Cache cache;
 
-    /** clock. */
-    private final Clock clock;
-
     /** scheduled executor service. */
     private final ScheduledExecutorService ses;
 
-    /** future to cancel the background reaping task. */
-    private Future<?> future;
+    /** consumer of the queries to send. */
+    private final Consumer<DnsMessage> sender;
+
+    /** whether this reaper has been started and not closed, guarded by this. */
+    private boolean started;
+
+    /** future to cancel the next reaping task, guarded by this. */
+    private ScheduledFuture<?> future;
 
     /**
      * Constructor.
      *
      * @param aCache cache
-     * @param aClock clock
+     * @param aSender consumer of the queries to send
+     * @param aSes scheduled executor service, not shut down by this reaper
      */
-    Reaper(final Cache aCache, final Clock aClock) {
+    Reaper(final Cache aCache, final Consumer<DnsMessage> aSender, final ScheduledExecutorService aSes) {
         cache = aCache;
-        clock = aClock;
-        ses = Executors.newSingleThreadScheduledExecutor(new HaloThreadFactory("reaper"));
+        sender = aSender;
+        ses = aSes;
+        started = false;
+        future = null;
     }
 
     /**
-     * Cancel the background task that removes expired records and shuts down the associated executor.
+     * Cancels the background task that removes expired records.
      */
     @Override
     public final void close() {
-        if (future != null) {
-            future.cancel(true);
-            future = null;
+        cache.onEarliestDeadline(() -> {
+            // empty.
+        });
+        synchronized (this) {
+            started = false;
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
         }
-        ses.shutdownNow();
     }
 
     /**
-     * Starts a background task to remove expired records.
+     * Starts a background task to remove expired records and refresh records of interest.
      */
     final void start() {
-        future = ses
-            .scheduleAtFixedRate(() -> cache.clean(clock.instant()), REAPING_INTERVAL.toMillis(),
-                    REAPING_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            started = true;
+        }
+        cache.onEarliestDeadline(() -> schedule(Duration.ZERO));
+        schedule(Duration.ZERO);
+    }
+
+    /**
+     * Removes expired records, queries the records due for refresh and schedules the next reaping task.
+     */
+    private void reap() {
+        final List<DnsQuestion> questions = new ArrayList<>();
+        final Consumer<DnsRecord> refresher = r -> questions.add(new DnsQuestion(r.name(), r.type(), r.clazz()));
+        cache.reap(refresher);
+        synchronized (this) {
+            future = null;
+        }
+        /*
+         * any deadline scheduled from now on triggers its own reaping task if it is the earliest: reap again to
+         * handle the deadlines reached in the meantime and get an up to date next deadline.
+         */
+        final Optional<Duration> next = cache.reap(refresher);
+        DnsMessage.queries(questions).forEach(sender);
+        next.ifPresent(this::schedule);
+    }
+
+    /**
+     * Schedules a reaping task after the given delay, unless one is already scheduled earlier.
+     *
+     * @param delay delay
+     */
+    private synchronized void schedule(final Duration delay) {
+        if (!started) {
+            return;
+        }
+        final long nanos = delay.toNanos();
+        if (future != null) {
+            if (future.getDelay(TimeUnit.NANOSECONDS) <= nanos) {
+                return;
+            }
+            future.cancel(false);
+        }
+        try {
+            future = ses.schedule(this::reap, nanos, TimeUnit.NANOSECONDS);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.fine(() -> "Executor shut down, stopping reaper");
+            future = null;
+        }
     }
 
 }
@@ -31,6 +31,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package io.omam.halo;
 
 import java.io.IOException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * A service that has been registered on the <strong>local</strong> domain.
@@ -45,4 +46,15 @@ public interface RegisteredService extends Service {
      */
     void changeAttributes(final Attributes newAttributes) throws IOException;
 
+    /**
+     * Changes the attributes of this registered service and re-announces it asynchronously on the local network.
+     * <p>
+     * This methods does not block: the returned stage completes once the first announcement has been sent, or
+     * exceptionally with an {@link IOException} in case of I/O error.
+     *
+     * @param newAttributes new attributes
+     * @return a stage completed once the service has been re-announced
+     */
+    CompletionStage<Void> changeAttributesAsync(final Attributes newAttributes);
+
 }
@@ -33,6 +33,7 @@ package io.omam.halo;
 import static io.omam.halo.HaloProperties.TTL;
 
 import java.io.IOException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * RegisteredService implementation.
@@ -42,6 +43,9 @@ final class RegisteredServiceImpl extends BaseRegistrableService implements Regi
     /** service attributes. */
     private Attributes attributes;
 
+    /** pre-encoded announcement, null until first needed and after attributes have been changed. */
+    private ServiceAnnouncement announcement;
+
     private final HaloHelper halo;
 
     /**
@@ -54,19 +58,40 @@ final class RegisteredServiceImpl extends BaseRegistrableService implements Regi
         super(original.instanceName(), original.registrationType(), original.hostname(), original.ipv4Address(),
               original.ipv6Address(), original.port());
         attributes = original.attributes();
+        announcement = null;
         halo = haloHelper;
     }
 
     @Override
-    public final Attributes attributes() {
+    public final synchronized Attributes attributes() {
         return attributes;
     }
 
     @Override
     public final void changeAttributes(final Attributes newAttributes) throws IOException {
-        attributes = newAttributes;
-        halo.reannounce(this, TTL);
+        HaloHelper.await(changeAttributesAsync(newAttributes).toCompletableFuture());
+    }
+
+    @Override
+    public final CompletionStage<Void> changeAttributesAsync(final Attributes newAttributes) {
+        synchronized (this) {
+            attributes = newAttributes;
+            announcement = null;
+        }
+        return halo.reannounce(this, TTL);
+    }
 
+    /**
+     * Returns the announcement of this service, encoding it if needed.
+     *
+     * @return the announcement of this service
+     * @throws IOException in case of I/O error while encoding the announcement
+     */
+    final synchronized ServiceAnnouncement announcement() throws IOException {
+        if (announcement == null) {
+            announcement = ServiceAnnouncement.encode(this, halo.now());
+        }
+        return announcement;
     }
 
 }
@@ -0,0 +1,167 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves several services at once.
+ * <p>
+ * Rather than each service sending its own queries, the questions of all the services that remain unresolved are
+ * gathered and sent in as few queries as possible, following a single backoff schedule. Known answers are sent
+ * once per query even when shared by several services (e.g. the address of a host serving several services).
+ */
+final class ResolutionBatch implements ResponseListener, Runnable {
+
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(ResolutionBatch.class.getName());
+
+    /** delays between queries. */
+    private final Queue<Duration> delays;
+
+    /** future completed once all services are resolved or the last query has gone unanswered. */
+    private final CompletableFuture<Void> future;
+
+    /** halo helper. */
+    private final HaloHelper halo;
+
+    /** next scheduled query, if any, guarded by this. */
+    private Future<?> nextQuery;
+
+    /** services being resolved. */
+    private final List<ResolvableService> services;
+
+    /**
+     * Constructor.
+     *
+     * @param aHalo halo helper
+     * @param someServices services being resolved
+     * @param someDelays delays between queries
+     */
+    private ResolutionBatch(final HaloHelper aHalo, final List<ResolvableService> someServices,
+            final Queue<Duration> someDelays) {
+        halo = aHalo;
+        services = someServices;
+        delays = someDelays;
+        future = new CompletableFuture<>();
+        nextQuery = null;
+    }
+
+    /**
+     * Tries to resolve all the given services on the network without blocking.
+     * <p>
+     * The returned future completes as soon as all services are resolved (immediately if all records are cached),
+     * or once the timeout has elapsed. Cancelling the returned future stops the resolution. Whether each service
+     * has been resolved is given by {@link ResolvableService#isResolved()}.
+     *
+     * @param halo halo helper
+     * @param services services to resolve
+     * @param timeout resolution timeout
+     * @return a future completed once the resolution has ended
+     */
+    static CompletableFuture<Void> resolveAll(final HaloHelper halo, final Collection<ResolvableService> services,
+            final Duration timeout) {
+        final List<ResolvableService> unresolved =
+                services.stream().filter(s -> !s.resolveFromCache(halo)).collect(Collectors.toList());
+        if (unresolved.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final ResolutionBatch batch = new ResolutionBatch(halo, unresolved, ResolvableService.delays(timeout));
+        halo.addResponseListener(batch);
+        unresolved.forEach(s -> s.watch(halo));
+        batch.future.whenComplete((r, e) -> batch.stop());
+        batch.run();
+        return batch.future;
+    }
+
+    @Override
+    public final void responseReceived(final DnsMessage response, final HaloHelper aHalo) {
+        boolean allResolved = true;
+        for (final ResolvableService service : services) {
+            if (!service.isResolved()) {
+                service.responseReceived(response, aHalo);
+                allResolved = allResolved && service.isResolved();
+            }
+        }
+        if (allResolved && future.complete(null)) {
+            LOGGER.fine("Received response resolving all services");
+        }
+    }
+
+    @Override
+    public final void run() {
+        try {
+            final Duration delay = delays.poll();
+            if (future.isDone()) {
+                return;
+            }
+            final List<DnsQuestion> questions = new ArrayList<>();
+            services.stream().filter(s -> !s.isResolved()).forEach(s -> questions.addAll(s.questions()));
+            if (questions.isEmpty() || delay == null) {
+                future.complete(null);
+                return;
+            }
+            final List<DnsMessage> queries = ResolvableService.queries(halo, questions);
+            LOGGER.fine(() -> "Sending " + questions.size() + " questions in " + queries.size() + " queries");
+            queries.forEach(halo::sendMessage);
+            synchronized (this) {
+                if (!future.isDone()) {
+                    nextQuery = halo.schedule(this, delay);
+                }
+            }
+        } catch (final RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stops resolving once the resolution has completed: cancels the next query and unwatches all services.
+     */
+    private void stop() {
+        halo.removeResponseListener(this);
+        synchronized (this) {
+            if (nextQuery != null) {
+                nextQuery.cancel(false);
+                nextQuery = null;
+            }
+        }
+        services.forEach(s -> s.unwatch(halo));
+    }
+
+}
@@ -42,18 +42,26 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.Queue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A service that is being resolved or as been resolved on the local network.
+ * <p>
+ * Resolution is asynchronous: queries are sent by tasks scheduled with {@link HaloHelper#schedule(Runnable,
+ * Duration)} and the resolution completes as soon as a received response resolves the service, or when the last
+ * query has gone unanswered. No thread waits for the resolution unless {@link #resolve(HaloHelper, Duration)} is
+ * used.
  */
 final class ResolvableService extends BaseService implements ResolvedService, ResponseListener {
 
@@ -66,26 +74,29 @@ final class ResolvableService extends BaseService implements ResolvedService, Re
     /** service attributes */
     private Attributes attributes;
 
-    /** whether this service is awaiting resolution. */
-    private volatile boolean awaitingResolution;
-
     /** service hostname. */
     private String hostname;
 
+    /** hostname added to the names of interest while resolving, if any. */
+    private String interestingHostname;
+
     /** service IPv4 address. */
     private Optional<InetAddress> ipv4Address;
 
     /** service IPv6 address. */
     private Optional<InetAddress> ipv6Address;
 
-    /** lock (see #resolved condition). */
+    /** lock guarding the state of this service. */
     private final Lock lock;
 
+    /** next scheduled query, if any. */
+    private Future<?> nextQuery;
+
     /** service port. */
     private short port;
 
-    /** condition signaled when service has been resolved. */
-    private final Condition resolved;
+    /** future completed with the outcome of the resolution, null if not resolving. */
+    private volatile CompletableFuture<Boolean> resolution;
 
     /**
      * Constructor.
@@ -102,11 +113,41 @@ final class ResolvableService extends BaseService implements ResolvedService, Re
         ipv6Address = Optional.empty();
         port = -1;
         hostname = null;
+        interestingHostname = null;
 
-        awaitingResolution = false;
         lock = new ReentrantLock();
-        resolved = lock.newCondition();
+        nextQuery = null;
+        resolution = null;
+    }
 
+    /**
+     * Computes delays covering the given timeout.
+     * <p>
+     * First delay is always {@link #RESOLUTION_INTERVAL}, following are twice the previous delay (in order to
+     * space more and more the sent messages and avoid over-flooding receiver).
+     *
+     * @param timeout timeout
+     * @return delays
+     */
+    static Queue<Duration> delays(final Duration timeout) {
+        final Queue<Duration> result = new ArrayDeque<>();
+        if (timeout.compareTo(RESOLUTION_INTERVAL) <= 0) {
+            return result;
+        }
+        int factor = 1;
+        Duration delay = RESOLUTION_INTERVAL;
+        Duration total = Duration.ZERO;
+        do {
+            result.add(delay);
+            total = total.plus(delay);
+            factor = factor * 2;
+            delay = RESOLUTION_INTERVAL.multipliedBy(factor);
+        } while (total.plus(delay).compareTo(timeout) <= 0);
+        delay = timeout.minus(total);
+        if (!delay.isZero()) {
+            result.add(delay);
+        }
+        return result;
     }
 
     /**
@@ -121,6 +162,18 @@ final class ResolvableService extends BaseService implements ResolvedService, Re
         return end == -1 ? Optional.empty() : Optional.of(serviceName.substring(0, end));
     }
 
+    /**
+     * Returns the queries asking the given questions, each question being sent with the matching cached records
+     * as known answers.
+     *
+     * @param halo halo helper
+     * @param questions questions
+     * @return the queries to send
+     */
+    static List<DnsMessage> queries(final HaloHelper halo, final List<DnsQuestion> questions) {
+        return DnsMessage.queries(questions, q -> halo.cachedRecords(q.name(), q.type(), q.clazz()), halo.now());
+    }
+
     /**
      * Determines the registration type of the given service name.
      *
@@ -161,23 +214,65 @@ final class ResolvableService extends BaseService implements ResolvedService, Re
 
     @Override
     public final void responseReceived(final DnsMessage response, final HaloHelper halo) {
+        final boolean isResolved;
         lock.lock();
         LOGGER.fine(() -> "Handling " + response);
         try {
             response.answers().forEach(a -> update(halo, a));
-            awaitingResolution = !resolved();
-            if (!awaitingResolution) {
-                LOGGER.fine("Received response resolving service");
-                resolved.signalAll();
+            addHostnameInterest(halo);
+            isResolved = resolved();
+        } finally {
+            lock.unlock();
+        }
+        final CompletableFuture<Boolean> future = resolution;
+        if (isResolved && future != null && future.complete(true)) {
+            LOGGER.fine("Received response resolving service");
+        }
+    }
+
+    /**
+     * Determines whether this service is resolved: hostname and attributes are not null and at least an IPv4 or
+     * IPv6 address is present.
+     *
+     * @return {@code true} if this service is resolved
+     */
+    final boolean isResolved() {
+        lock.lock();
+        try {
+            return resolved();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the questions that remain to be asked to resolve this service: SRV and TXT of the service, and A and
+     * AAAA of its hostname once known.
+     *
+     * @return the questions to ask
+     */
+    final List<DnsQuestion> questions() {
+        final String serviceName = name();
+        final List<DnsQuestion> questions = new ArrayList<>();
+        lock.lock();
+        try {
+            questions.add(new DnsQuestion(serviceName, TYPE_SRV, CLASS_IN));
+            questions.add(new DnsQuestion(serviceName, TYPE_TXT, CLASS_IN));
+            if (hostname != null) {
+                questions.add(new DnsQuestion(hostname, TYPE_A, CLASS_IN));
+                questions.add(new DnsQuestion(hostname, TYPE_AAAA, CLASS_IN));
             }
         } finally {
             lock.unlock();
         }
+        return questions;
     }
 
     /**
      * Tries to resolve this service on the network. Updates service IP address(es), server and attributes if the
      * service is discovered.
+     * <p>
+     * This methods blocks until the service has been resolved or the timeout has elapsed.
      *
      * @param halo halo helper
      * @param timeout resolution timeout
@@ -185,114 +280,169 @@ final class ResolvableService extends BaseService implements ResolvedService, Re
      * @throws InterruptedException if interrupted while waiting for resolution
      */
     final boolean resolve(final HaloHelper halo, final Duration timeout) throws InterruptedException {
-        final String serviceName = name();
-
-        /* look for a cached SRV record. */
-        final Optional<DnsRecord> cachedSrv = halo.cachedRecord(serviceName, TYPE_SRV, CLASS_IN);
-        cachedSrv.ifPresent(c -> update(halo, c));
-
-        /* look for a cached TXT record. */
-        final Optional<DnsRecord> cachedTxt = halo.cachedRecord(serviceName, TYPE_TXT, CLASS_IN);
-        cachedTxt.ifPresent(c -> update(halo, c));
-
-        final Optional<DnsRecord> cachedIpV4;
-        final Optional<DnsRecord> cachedIpV6;
-        if (hostname == null) {
-            cachedIpV4 = Optional.empty();
-            cachedIpV6 = Optional.empty();
-        } else {
-            /* look for a cached A record. */
-            cachedIpV4 = halo.cachedRecord(hostname, TYPE_A, CLASS_IN);
-            cachedIpV4.ifPresent(c -> update(halo, c));
-            /* look for a cached AAAA record. */
-            cachedIpV6 = halo.cachedRecord(hostname, TYPE_AAAA, CLASS_IN);
-            cachedIpV6.ifPresent(c -> update(halo, c));
+        final CompletableFuture<Boolean> future = resolveAsync(halo, timeout);
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (final ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to resolve " + this, e.getCause());
+            return false;
         }
+    }
 
-        if (resolved()) {
-            return true;
+    /**
+     * Tries to resolve this service on the network without blocking. Updates service IP address(es), server and
+     * attributes if the service is discovered.
+     * <p>
+     * The returned future completes with {@code true} as soon as the service is resolved (immediately if all
+     * records are cached), or with {@code false} once the timeout has elapsed. Cancelling the returned future
+     * stops the resolution.
+     *
+     * @param halo halo helper
+     * @param timeout resolution timeout
+     * @return a future completed with {@code true} iff service has been resolved
+     */
+    final CompletableFuture<Boolean> resolveAsync(final HaloHelper halo, final Duration timeout) {
+        if (resolveFromCache(halo)) {
+            return CompletableFuture.completedFuture(true);
         }
 
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        resolution = future;
         final Queue<Duration> delays = delays(timeout);
         halo.addResponseListener(this);
-        try {
-            while (!resolved() && !delays.isEmpty()) {
-                final Optional<Instant> now = Optional.of(halo.now());
-                final DnsMessage.Builder builder = DnsMessage.query();
-                builder.addQuestion(new DnsQuestion(serviceName, TYPE_SRV, CLASS_IN));
-                cachedSrv.ifPresent(r -> builder.addAnswer(r, now));
-
-                builder.addQuestion(new DnsQuestion(serviceName, TYPE_TXT, CLASS_IN));
-                cachedTxt.ifPresent(r -> builder.addAnswer(r, now));
-
-                if (hostname != null) {
-                    builder.addQuestion(new DnsQuestion(hostname, TYPE_A, CLASS_IN));
-                    cachedIpV4.ifPresent(r -> builder.addAnswer(r, now));
-                    builder.addQuestion(new DnsQuestion(hostname, TYPE_AAAA, CLASS_IN));
-                    cachedIpV6.ifPresent(r -> builder.addAnswer(r, now));
+        watch(halo);
+        future.whenComplete((r, e) -> stop(halo));
+        final Runnable query = new Runnable() {
+
+            @Override
+            public final void run() {
+                try {
+                    final Duration delay = delays.poll();
+                    if (future.isDone()) {
+                        return;
+                    }
+                    if (isResolved() || delay == null) {
+                        future.complete(isResolved());
+                        return;
+                    }
+                    queries(halo, questions()).forEach(halo::sendMessage);
+                    lock.lock();
+                    try {
+                        if (!future.isDone()) {
+                            nextQuery = halo.schedule(this, delay);
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                } catch (final RuntimeException e) {
+                    future.completeExceptionally(e);
                 }
-                halo.sendMessage(builder.get());
-                awaitResolution(delays.poll());
             }
+
+        };
+        query.run();
+        return future;
+    }
+
+    /**
+     * Updates this service with the given answers of a response, completed by the cached records for any data the
+     * response is missing. No query is sent.
+     *
+     * @param answers all answers of a DNS response
+     * @param halo halo helper
+     * @return {@code true} iff the answers and the cached records resolve this service
+     */
+    final boolean resolveFrom(final List<DnsRecord> answers, final HaloHelper halo) {
+        final String serviceName = name();
+        lock.lock();
+        try {
+            /* SRV first: the hostname is needed to match address records. */
+            answers.stream().filter(a -> a.type() == TYPE_SRV).forEach(a -> update(halo, a));
+            answers.stream().filter(a -> a.type() != TYPE_SRV).forEach(a -> update(halo, a));
+            if (hostname == null) {
+                halo.cachedRecord(serviceName, TYPE_SRV, CLASS_IN).ifPresent(c -> update(halo, c));
+            }
+            if (attributes == null) {
+                halo.cachedRecord(serviceName, TYPE_TXT, CLASS_IN).ifPresent(c -> update(halo, c));
+            }
+            return resolved();
         } finally {
-            halo.removeResponseListener(this);
+            lock.unlock();
         }
-        return resolved();
     }
 
     /**
-     * Awaits until this service is resolved or the given timeout has elapsed whichever occurs first.
+     * Updates this service with the cached SRV, TXT, A and AAAA records, if any.
      *
-     * @param dur timeout
-     * @throws InterruptedException if interrupted while waiting for resolution
+     * @param halo halo helper
+     * @return {@code true} iff the cached records resolve this service
      */
-    private void awaitResolution(final Duration dur) throws InterruptedException {
+    final boolean resolveFromCache(final HaloHelper halo) {
+        final String serviceName = name();
         lock.lock();
-        awaitingResolution = true;
-        boolean response = false;
         try {
-            final Timeout timeout = Timeout.ofDuration(dur);
-            Duration remaining = timeout.remaining();
-            while (awaitingResolution && !remaining.isZero()) {
-                response = resolved.await(remaining.toMillis(), TimeUnit.MILLISECONDS);
-                remaining = timeout.remaining();
+            halo.cachedRecord(serviceName, TYPE_SRV, CLASS_IN).ifPresent(c -> update(halo, c));
+            halo.cachedRecord(serviceName, TYPE_TXT, CLASS_IN).ifPresent(c -> update(halo, c));
+            if (hostname != null) {
+                halo.cachedRecord(hostname, TYPE_A, CLASS_IN).ifPresent(c -> update(halo, c));
+                halo.cachedRecord(hostname, TYPE_AAAA, CLASS_IN).ifPresent(c -> update(halo, c));
             }
+            return resolved();
         } finally {
             lock.unlock();
         }
-        if (!response) {
-            LOGGER.fine(() -> "No response received within " + dur);
+    }
+
+    /**
+     * Stops watching the names of this service: removes them from the names of interest.
+     *
+     * @param halo halo helper
+     */
+    final void unwatch(final HaloHelper halo) {
+        halo.removeInterest(name());
+        lock.lock();
+        try {
+            if (interestingHostname != null) {
+                halo.removeInterest(interestingHostname);
+                interestingHostname = null;
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Computes delays covering the given timeout.
-     * <p>
-     * First delay is always {@link #RESOLUTION_INTERVAL}, following are twice the previous delay (in order to
-     * space more and more the sent messages and avoid over-flooding receiver).
+     * Starts watching the names of this service: adds them to the names of interest so that responses relating to
+     * this service are received until {@link #unwatch(HaloHelper)} is called.
      *
-     * @param timeout timeout
-     * @return delays
+     * @param halo halo helper
      */
-    private Queue<Duration> delays(final Duration timeout) {
-        final Queue<Duration> result = new ArrayDeque<>();
-        if (timeout.compareTo(RESOLUTION_INTERVAL) <= 0) {
-            return result;
+    final void watch(final HaloHelper halo) {
+        halo.addInterest(name());
+        lock.lock();
+        try {
+            addHostnameInterest(halo);
+        } finally {
+            lock.unlock();
         }
-        int factor = 1;
-        Duration delay = RESOLUTION_INTERVAL;
-        Duration total = Duration.ZERO;
-        do {
-            result.add(delay);
-            total = total.plus(delay);
-            factor = factor * 2;
-            delay = RESOLUTION_INTERVAL.multipliedBy(factor);
-        } while (total.plus(delay).compareTo(timeout) <= 0);
-        delay = timeout.minus(total);
-        if (!delay.isZero()) {
-            result.add(delay);
+    }
+
+    /**
+     * Adds the hostname of this service, once known, to the names of interest so that responses only holding the
+     * address of the service are received.
+     * <p>
+     * Caller must hold the lock.
+     *
+     * @param halo halo helper
+     */
+    private void addHostnameInterest(final HaloHelper halo) {
+        if (interestingHostname == null && hostname != null) {
+            interestingHostname = hostname;
+            halo.addInterest(interestingHostname);
         }
-        return result;
     }
 
     /**
@@ -305,6 +455,27 @@ final class ResolvableService extends BaseService implements ResolvedService, Re
         return hostname != null && (ipv4Address.isPresent() || ipv6Address.isPresent()) && attributes != null;
     }
 
+    /**
+     * Stops resolving this service once the resolution has completed: cancels the next query and
+     * {@link #unwatch(HaloHelper) unwatches} the names of this service.
+     *
+     * @param halo halo helper
+     */
+    private void stop(final HaloHelper halo) {
+        halo.removeResponseListener(this);
+        lock.lock();
+        try {
+            if (nextQuery != null) {
+                nextQuery.cancel(false);
+                nextQuery = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+        unwatch(halo);
+        resolution = null;
+    }
+
     /**
      * Updates this service with data of the given DNS record.
      *
@@ -0,0 +1,346 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static io.omam.halo.MulticastDnsSd.FLAGS_AA;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
+import static io.omam.halo.MulticastDnsSd.toLowerCase;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import io.omam.halo.DnsMessage.Builder;
+
+/**
+ * Aggregates responses to queries as described in RFC 6762 section 6.
+ * <p>
+ * Responses only holding unique records are sent immediately. Responses holding at least one shared record (e.g.
+ * PTR records answering a browsing query) may also be sent by other responders: they are delayed by a random
+ * amount of time between the configured minimum and maximum delays. All responses given during that time are
+ * merged, each record appearing once, and split into as few responses as possible which fit in
+ * {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes. Additional records are kept in the additional section.
+ * <p>
+ * A record is never multicast again less than {@link #MULTICAST_INTERVAL one second} after it has last been sent
+ * by this aggregator: responses to probes, which must be sent even so, are not given to this aggregator.
+ */
+final class ResponseAggregator implements AutoCloseable {
+
+    /**
+     * Key of a sent record: name (lower case), type, class and data, i.e. two records have the same key iff they
+     * are the {@link DnsRecord#sameAs(DnsRecord) same} resource record.
+     */
+    private static final class Key {
+
+        /** name (lower case). */
+        private final String name;
+
+        /** type. */
+        private final short type;
+
+        /** class. */
+        private final short clazz;
+
+        /** encoded data. */
+        private final byte[] data;
+
+        /** hash code. */
+        private final int hash;
+
+        /**
+         * Constructor.
+         *
+         * @param record DNS record
+         */
+        Key(final DnsRecord record) {
+            name = toLowerCase(record.name());
+            type = record.type();
+            clazz = record.clazz();
+            data = record.data();
+            hash = 31 * Objects.hash(name, type, clazz) + Arrays.hashCode(data);
+        }
+
+        @Override
+        public final boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash
+                && name.equals(other.name)
+                && type == other.type
+                && clazz == other.clazz
+                && Arrays.equals(data, other.data);
+        }
+
+        @Override
+        public final int hashCode() {
+            return hash;
+        }
+
+    }
+
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(ResponseAggregator.class.getName());
+
+    /** minimum interval between two multicasts of the same record. */
+    private static final Duration MULTICAST_INTERVAL = Duration.ofSeconds(1);
+
+    /** clock. */
+    private final Clock clock;
+
+    /** maximum delay in milliseconds. */
+    private final long maxDelay;
+
+    /** minimum delay in milliseconds. */
+    private final long minDelay;
+
+    /** answers waiting to be sent, null if none. */
+    private List<DnsRecord> pending;
+
+    /** additional records waiting to be sent, null if none. */
+    private List<DnsRecord> pendingAdditional;
+
+    /** future to cancel sending the pending answers, null if none. */
+    private Future<?> flushing;
+
+    /** keys of the records sent in the last {@link #MULTICAST_INTERVAL}, in the order they have been sent. */
+    private final Deque<Key> recent;
+
+    /** instant at which each record of {@link #recent} has been sent. */
+    private final Map<Key, Instant> sent;
+
+    /** consumer sending the responses. */
+    private final Consumer<DnsMessage> sender;
+
+    /** scheduled executor service. */
+    private final ScheduledExecutorService ses;
+
+    /**
+     * Constructor.
+     *
+     * @param aSender consumer sending the responses
+     * @param aMinDelay minimum delay before sending a response holding shared records
+     * @param aMaxDelay maximum delay before sending a response holding shared records, {@link Duration#ZERO} to
+     *            send all responses immediately
+     * @param aClock clock
+     * @param aSes scheduled executor service, not shut down by this aggregator
+     */
+    ResponseAggregator(final Consumer<DnsMessage> aSender, final Duration aMinDelay, final Duration aMaxDelay,
+            final Clock aClock, final ScheduledExecutorService aSes) {
+        clock = aClock;
+        maxDelay = aMaxDelay.toMillis();
+        minDelay = Math.min(aMinDelay.toMillis(), maxDelay);
+        pending = null;
+        pendingAdditional = null;
+        flushing = null;
+        recent = new ArrayDeque<>();
+        sent = new HashMap<>();
+        sender = aSender;
+        ses = aSes;
+    }
+
+    /**
+     * Adds the given records to the given list, unless the same record is already in the list.
+     *
+     * @param records records
+     * @param list list
+     */
+    private static void addAbsent(final List<DnsRecord> records, final List<DnsRecord> list) {
+        for (final DnsRecord record : records) {
+            if (list.stream().anyMatch(record::sameAs)) {
+                LOGGER.fine(() -> "Suppressed already pending " + record);
+            } else {
+                list.add(record);
+            }
+        }
+    }
+
+    /**
+     * Discards the responses waiting to be sent.
+     */
+    @Override
+    public final synchronized void close() {
+        if (flushing != null) {
+            flushing.cancel(false);
+            flushing = null;
+        }
+        pending = null;
+        pendingAdditional = null;
+    }
+
+    /**
+     * Sends the given response, either immediately or merged with other responses after a random delay.
+     *
+     * @param response response
+     */
+    final void send(final DnsMessage response) {
+        final List<DnsRecord> answers = response.answerSection();
+        final List<DnsRecord> additional = response.additional();
+        if (maxDelay == 0 || answers.stream().allMatch(DnsRecord::isUnique)) {
+            multicast(answers, additional);
+            return;
+        }
+        synchronized (this) {
+            if (pending == null) {
+                pending = new ArrayList<>();
+                pendingAdditional = new ArrayList<>();
+                final long delay = ThreadLocalRandom.current().nextLong(minDelay, maxDelay + 1);
+                LOGGER.fine(() -> "Delaying response by " + delay + " ms");
+                flushing = ses.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+            }
+            addAbsent(answers, pending);
+            addAbsent(additional, pendingAdditional);
+        }
+    }
+
+    /**
+     * Sends all pending answers and additional records.
+     */
+    private void flush() {
+        final List<DnsRecord> answers;
+        final List<DnsRecord> additional;
+        synchronized (this) {
+            answers = pending;
+            additional = pendingAdditional;
+            pending = null;
+            pendingAdditional = null;
+            flushing = null;
+        }
+        if (answers != null) {
+            multicast(answers, additional);
+        }
+    }
+
+    /**
+     * Sends the given answers and additional records, except those sent less than {@link #MULTICAST_INTERVAL}
+     * ago, in as few responses as possible. Additional records which are also answers are not sent.
+     *
+     * @param answers answers
+     * @param additional additional records
+     */
+    private void multicast(final List<DnsRecord> answers, final List<DnsRecord> additional) {
+        final List<DnsRecord> sentAnswers = new ArrayList<>();
+        final List<DnsRecord> sentAdditional = new ArrayList<>();
+        synchronized (this) {
+            final Instant now = clock.instant();
+            final Instant threshold = now.minus(MULTICAST_INTERVAL);
+            while (!recent.isEmpty() && sent.get(recent.peekFirst()).isBefore(threshold)) {
+                sent.remove(recent.pollFirst());
+            }
+            for (final DnsRecord answer : answers) {
+                if (recentlySent(answer, now)) {
+                    LOGGER.fine(() -> "Suppressed recently multicast " + answer);
+                } else {
+                    sentAnswers.add(answer);
+                }
+            }
+            if (sentAnswers.isEmpty()) {
+                return;
+            }
+            for (final DnsRecord record : additional) {
+                if (!recentlySent(record, now)) {
+                    sentAdditional.add(record);
+                }
+            }
+        }
+        split(sentAnswers, sentAdditional).forEach(sender);
+    }
+
+    /**
+     * Determines whether the given record has been sent in the last {@link #MULTICAST_INTERVAL}, and if not records
+     * that it is sent at the given instant.
+     * <p>
+     * Caller must hold the lock on this aggregator, and have evicted the records sent before the interval.
+     *
+     * @param record DNS record
+     * @param now current instant
+     * @return {@code true} iff the given record has been sent in the last {@link #MULTICAST_INTERVAL}
+     */
+    private boolean recentlySent(final DnsRecord record, final Instant now) {
+        final Key key = new Key(record);
+        if (sent.putIfAbsent(key, now) != null) {
+            return true;
+        }
+        recent.addLast(key);
+        return false;
+    }
+
+    /**
+     * Splits the given answers and additional records into responses which fit in
+     * {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes, answers being sent first.
+     *
+     * @param answers answers, not empty
+     * @param additional additional records
+     * @return the responses to send in order
+     */
+    private List<DnsMessage> split(final List<DnsRecord> answers, final List<DnsRecord> additional) {
+        final List<DnsMessage> responses = new ArrayList<>();
+        Builder builder = DnsMessage.response(FLAGS_AA);
+        int size = DnsMessage.HEADER_SIZE;
+        final int total = answers.size() + additional.size();
+        for (int i = 0; i < total; i++) {
+            final boolean isAnswer = i < answers.size();
+            final DnsRecord record = isAnswer ? answers.get(i) : additional.get(i - answers.size());
+            if (i > 0 && size + record.size() > MAX_PACKET_SIZE) {
+                responses.add(builder.get());
+                builder = DnsMessage.response(FLAGS_AA);
+                size = DnsMessage.HEADER_SIZE;
+            }
+            if (isAnswer) {
+                builder.addAnswer(null, record);
+            } else {
+                builder.addAdditional(record);
+            }
+            size += record.size();
+        }
+        responses.add(builder.get());
+        return responses;
+    }
+
+}
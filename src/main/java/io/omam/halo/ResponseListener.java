@@ -37,6 +37,9 @@ interface ResponseListener {
 
     /**
      * Invoked when a DNS response has been received on this channel.
+     * <p>
+     * The response owns the bytes it has been received in: it remains valid after this call and its records can
+     * be requested later or by another thread. Records are only decoded when first requested.
      *
      * @param response DNS response
      * @param halo {@link HaloHelper} instance which received the DNS query
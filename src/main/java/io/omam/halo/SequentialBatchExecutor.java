@@ -33,22 +33,27 @@ package io.omam.halo;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A {@link Executors#newSingleThreadScheduledExecutor(java.util.concurrent.ThreadFactory) Single thread scheduled
- * executor} for sending batches of messages on the network: each batch is associated to a unique name, all tasks
- * associated to the same name are executed in order.
+ * An executor for sending batches of messages on the network, on top of a shared scheduled executor: each batch
+ * is associated to a unique name, all tasks associated to the same name are executed in order.
+ * <p>
+ * A batch starts once the previous batches associated to its names have completed, but scheduling a batch never
+ * waits: batches associated to different names never block each other.
  */
 final class SequentialBatchExecutor {
 
@@ -57,117 +62,204 @@ final class SequentialBatchExecutor {
      */
     static final class FutureBatch {
 
-        /** future representing the first task of the batch. */
-        private final Future<Void> first;
+        /** future completed once all the tasks of this batch have been executed or cancelled. */
+        private final CompletableFuture<Void> all;
 
-        /** futures representing the next tasks of the batch. */
-        private final Collection<ScheduledFuture<Void>> nexts;
+        /** future completed once the first task of this batch has been executed. */
+        private final CompletableFuture<Void> first;
+
+        /** whether this batch has been cancelled, guarded by this. */
+        private boolean cancelled;
+
+        /** futures representing the scheduled tasks of the batch, guarded by this. */
+        private final List<Future<?>> tasks;
 
         /**
          * Constructor.
-         *
-         * @param aFirst future representing the first task of the batch
-         * @param someNexts futures representing the next tasks of the batch
          */
-        FutureBatch(final Future<Void> aFirst, final Collection<ScheduledFuture<Void>> someNexts) {
-            first = aFirst;
-            nexts = someNexts;
+        FutureBatch() {
+            all = new CompletableFuture<>();
+            first = new CompletableFuture<>();
+            cancelled = false;
+            tasks = new ArrayList<>();
         }
 
         /**
-         * Awaits until all tasks of this batch have been executed.
+         * Returns a future completed once the first task of this batch has been executed. Cancelling the returned
+         * future does not cancel this batch.
          *
-         * @throws InterruptedException if interrupted while waiting
-         * @throws ExecutionException if task failed to execute
+         * @return a future completed once the first task of this batch has been executed
          */
-        final void awaitAll() throws InterruptedException, ExecutionException {
-            awaitFirst();
-            for (final ScheduledFuture<Void> next : nexts) {
-                next.get();
+        final CompletableFuture<Void> whenFirst() {
+            return first.thenApply(r -> r);
+        }
+
+        /**
+         * Cancels all the task of this batch.
+         */
+        final void cancelAll() {
+            synchronized (this) {
+                cancelled = true;
+                tasks.forEach(f -> f.cancel(true));
             }
+            first.cancel(false);
+            all.cancel(false);
         }
 
         /**
-         * Awaits until the first task of this batch has been executed.
+         * Adds the given scheduled task to this batch, cancelling it if this batch has been cancelled.
          *
-         * @throws InterruptedException if interrupted while waiting
-         * @throws ExecutionException if the task failed to execute
+         * @param task scheduled task
          */
-        final void awaitFirst() throws InterruptedException, ExecutionException {
-            first.get();
+        final synchronized void add(final Future<?> task) {
+            if (cancelled) {
+                task.cancel(true);
+            } else {
+                tasks.add(task);
+            }
         }
 
         /**
-         * Cancels all the task of this batch.
+         * Completes this batch exceptionally.
+         *
+         * @param e exception
          */
-        final void cancelAll() {
-            first.cancel(true);
-            nexts.forEach(f -> f.cancel(true));
+        final void fail(final Throwable e) {
+            first.completeExceptionally(e);
+            all.completeExceptionally(e);
         }
 
     }
 
-    /** scheduled executor service. */
+    /** scheduled executor service, shared by all batches. */
     private final ScheduledExecutorService executor;
 
-    /** current batch indexed by name. */
-    private final Map<String, FutureBatch> batches;
+    /** future of the last batch associated to each name, guarded by itself. */
+    private final Map<String, CompletableFuture<Void>> lasts;
 
-    /** lock. */
-    private final Lock lock;
+    /** batches that have not yet completed, guarded by lasts. */
+    private final Set<FutureBatch> pending;
 
     /**
      * Constructor.
      *
-     * @param name name of this executor
+     * @param anExecutor scheduled executor service, not shut down by this executor
      */
-    SequentialBatchExecutor(final String name) {
-        executor = Executors.newSingleThreadScheduledExecutor(new HaloThreadFactory(name));
-        batches = new HashMap<>();
-        lock = new ReentrantLock();
+    SequentialBatchExecutor(final ScheduledExecutorService anExecutor) {
+        executor = anExecutor;
+        lasts = new HashMap<>();
+        pending = new HashSet<>();
     }
 
     /**
-     * Schedules the {@code size} execution of the given task. The first execution will happen after the given
-     * delay, and every subsequent execution will be spaced by the given delay.
+     * Cancels all the batches that have not yet completed. The underlying scheduled executor service is not shut
+     * down.
+     */
+    final void close() {
+        final List<FutureBatch> cancelled;
+        synchronized (lasts) {
+            cancelled = new ArrayList<>(pending);
+        }
+        cancelled.forEach(FutureBatch::cancelAll);
+    }
+
+    /**
+     * Schedules the {@code size} execution of the given task. The first execution will happen once the current
+     * batch associated to the given name has completed, and every subsequent execution will be spaced by the given
+     * delay.
      *
      * @param name name of the batch
      * @see ScheduledExecutorService#schedule(Callable, long, TimeUnit)
      * @param task task to execute
-     * @param size number of time the task shall be executed
+     * @param size number of time the task shall be executed, at least 1
      * @param delay between consecutive executions
      * @return the future representing the batch
-     * @throws InterruptedException if interrupted while waiting for the current batch associated to the given name
-     *             to complete
-     * @throws ExecutionException if any task of the current batch have failed
+     * @throws IllegalArgumentException if {@code size} is less than 1
      */
     final FutureBatch scheduleBatch(final String name, final Callable<Void> task, final int size,
-            final Duration delay) throws InterruptedException, ExecutionException {
-        lock.lock();
-        try {
-            final FutureBatch currentBatch = batches.get(name);
-            if (currentBatch != null) {
-                currentBatch.awaitAll();
-            }
-            final Future<Void> first = executor.submit(task);
-            final Collection<ScheduledFuture<Void>> next = new ArrayList<>();
-            for (int i = 1; i < size; i++) {
-                final long currentDelay = i * delay.toMillis();
-                next.add(executor.schedule(task, currentDelay, TimeUnit.MILLISECONDS));
-            }
-            final FutureBatch batch = new FutureBatch(first, next);
-            batches.put(name, batch);
-            return batch;
-        } finally {
-            lock.unlock();
+            final Duration delay) {
+        return scheduleBatch(Collections.singletonList(name), task, size, delay);
+    }
+
+    /**
+     * Schedules the {@code size} execution of the given task, associated to all the given names: the first
+     * execution will happen once the current batches associated to each of these names have completed.
+     * <p>
+     * This method does not wait for the current batches to complete.
+     *
+     * @param names names of the batch
+     * @see #scheduleBatch(String, Callable, int, Duration)
+     * @param task task to execute
+     * @param size number of time the task shall be executed, at least 1
+     * @param delay between consecutive executions
+     * @return the future representing the batch
+     * @throws IllegalArgumentException if {@code size} is less than 1: such a batch would never complete
+     */
+    final FutureBatch scheduleBatch(final Collection<String> names, final Callable<Void> task, final int size,
+            final Duration delay) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + size);
+        }
+        final FutureBatch batch = new FutureBatch();
+        final CompletableFuture<?>[] previous;
+        synchronized (lasts) {
+            previous = names.stream().map(lasts::get).filter(Objects::nonNull).toArray(CompletableFuture[]::new);
+            names.forEach(name -> lasts.put(name, batch.all));
+            pending.add(batch);
         }
+        batch.all.whenComplete((r, e) -> {
+            synchronized (lasts) {
+                names.forEach(name -> lasts.remove(name, batch.all));
+                pending.remove(batch);
+            }
+        });
+        /* whatever the outcome of the previous batches. */
+        CompletableFuture.allOf(previous).handle((r, e) -> null).thenRun(() -> start(batch, task, size, delay));
+        return batch;
+    }
+
+    /**
+     * Schedules the given task, associated to no name, to be executed after the given delay.
+     *
+     * @param task task
+     * @param delay delay
+     * @return a future to cancel the task
+     */
+    final Future<?> schedule(final Runnable task, final Duration delay) {
+        return executor.schedule(task, delay.toMillis(), TimeUnit.MILLISECONDS);
     }
 
     /**
-     * @see ScheduledExecutorService#shutdownNow()
+     * Starts the given batch: schedules the {@code size} execution of the given task.
+     *
+     * @param batch batch
+     * @param task task to execute
+     * @param size number of time the task shall be executed
+     * @param delay between consecutive executions
      */
-    final void shutdownNow() {
-        executor.shutdownNow();
+    private void start(final FutureBatch batch, final Callable<Void> task, final int size, final Duration delay) {
+        final AtomicInteger remaining = new AtomicInteger(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                final boolean isFirst = i == 0;
+                final Runnable execution = () -> {
+                    try {
+                        task.call();
+                        if (isFirst) {
+                            batch.first.complete(null);
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            batch.all.complete(null);
+                        }
+                    } catch (final Exception e) {
+                        batch.fail(e);
+                    }
+                };
+                batch.add(executor.schedule(execution, i * delay.toMillis(), TimeUnit.MILLISECONDS));
+            }
+        } catch (final RejectedExecutionException e) {
+            batch.fail(e);
+        }
     }
 
 }
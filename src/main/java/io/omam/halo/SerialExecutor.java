@@ -0,0 +1,171 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An {@link Executor} running the submitted tasks one at a time, in submission order, on an underlying shared
+ * executor: no thread is dedicated to this executor, and tasks of different serial executors sharing the same
+ * underlying executor are interleaved.
+ */
+final class SerialExecutor implements Executor {
+
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(SerialExecutor.class.getName());
+
+    /** underlying executor. */
+    private final Executor executor;
+
+    /** maximum number of tasks waiting to be run. */
+    private final int capacity;
+
+    /** tasks waiting to be run, guarded by itself. */
+    private final Queue<Runnable> tasks;
+
+    /** whether a task of this executor has been submitted to the underlying executor, guarded by tasks. */
+    private boolean active;
+
+    /** whether this executor has been closed, guarded by tasks. */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param anExecutor underlying executor
+     */
+    SerialExecutor(final Executor anExecutor) {
+        this(anExecutor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param anExecutor underlying executor
+     * @param aCapacity maximum number of tasks waiting to be run
+     */
+    SerialExecutor(final Executor anExecutor, final int aCapacity) {
+        executor = anExecutor;
+        capacity = aCapacity;
+        tasks = new ArrayDeque<>();
+        active = false;
+        closed = false;
+    }
+
+    /**
+     * @throws RejectedExecutionException if this executor is closed or if {@link #offer(Runnable) too many tasks}
+     *             are waiting to be run
+     */
+    @Override
+    public final void execute(final Runnable task) {
+        if (!offer(task)) {
+            throw new RejectedExecutionException("Serial executor is closed or full");
+        }
+    }
+
+    /**
+     * Discards all the tasks waiting to be run: further submitted tasks are rejected. The underlying executor is
+     * not shut down.
+     */
+    final void close() {
+        synchronized (tasks) {
+            closed = true;
+            tasks.clear();
+        }
+    }
+
+    /**
+     * Submits the given task unless this executor is closed or its capacity has been reached.
+     *
+     * @param task task
+     * @return {@code true} if the task has been submitted, {@code false} if it has been rejected
+     */
+    final boolean offer(final Runnable task) {
+        synchronized (tasks) {
+            if (closed || tasks.size() >= capacity) {
+                return false;
+            }
+            tasks.add(task);
+            if (active) {
+                return true;
+            }
+            active = true;
+        }
+        submitNext();
+        return true;
+    }
+
+    /**
+     * Runs the next waiting task and submits the following one, if any.
+     */
+    private void runNext() {
+        final Runnable task;
+        synchronized (tasks) {
+            task = tasks.poll();
+        }
+        try {
+            if (task != null) {
+                task.run();
+            }
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected error while running task", e);
+        }
+        final boolean more;
+        synchronized (tasks) {
+            more = !tasks.isEmpty();
+            active = more;
+        }
+        if (more) {
+            submitNext();
+        }
+    }
+
+    /**
+     * Submits a run of the next waiting task to the underlying executor.
+     */
+    private void submitNext() {
+        try {
+            executor.execute(this::runNext);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Underlying executor has been shut down", e);
+            synchronized (tasks) {
+                active = false;
+                tasks.clear();
+            }
+        }
+    }
+
+}
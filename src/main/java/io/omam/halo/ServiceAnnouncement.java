@@ -0,0 +1,313 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static io.omam.halo.HaloProperties.TTL;
+import static io.omam.halo.MulticastDnsSd.CLASS_IN;
+import static io.omam.halo.MulticastDnsSd.FLAGS_AA;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
+import static io.omam.halo.MulticastDnsSd.TYPE_PTR;
+import static io.omam.halo.MulticastDnsSd.TYPE_SRV;
+import static io.omam.halo.MulticastDnsSd.uniqueClass;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import io.omam.halo.DnsMessage.Builder;
+
+/**
+ * Pre-encoded DNS response announcing a {@link Service} on the network.
+ * <p>
+ * The response contains the PTR, SRV, TXT, A and AAAA records of the service. It is encoded once and the offset of
+ * the time-to-live of each record is kept: sending the announcement with a given time-to-live (e.g. 0 for a
+ * goodbye) only requires to copy the encoded bytes and to patch these offsets. The offset of each compression
+ * pointer is kept as well: the announcements of several services are packed into a single response by
+ * concatenating their encoded records and shifting these pointers, without decoding any record.
+ * <p>
+ * Instances of this class are immutable: an announcement must be created again whenever the service changes.
+ */
+final class ServiceAnnouncement {
+
+    /** encoded response. */
+    private final byte[] bytes;
+
+    /** offset of the time-to-live of each record in the encoded response. */
+    private final int[] ttlOffsets;
+
+    /** offset of each compression pointer in the encoded response. */
+    private final int[] pointerOffsets;
+
+    /**
+     * Constructor.
+     *
+     * @param someBytes encoded response
+     * @param someTtlOffsets offset of the time-to-live of each record in the encoded response
+     * @param somePointerOffsets offset of each compression pointer in the encoded response
+     */
+    private ServiceAnnouncement(final byte[] someBytes, final int[] someTtlOffsets,
+            final int[] somePointerOffsets) {
+        bytes = someBytes;
+        ttlOffsets = someTtlOffsets;
+        pointerOffsets = somePointerOffsets;
+    }
+
+    /**
+     * Returns the announcement of the given service.
+     * <p>
+     * The announcement of a {@link RegisteredServiceImpl registered service} is cached by the service itself,
+     * otherwise a new announcement is encoded.
+     *
+     * @param service service
+     * @param now current instant
+     * @return the announcement of the given service
+     * @throws IOException in case of I/O error while encoding the announcement
+     */
+    static ServiceAnnouncement of(final Service service, final Instant now) throws IOException {
+        if (service instanceof RegisteredServiceImpl) {
+            return ((RegisteredServiceImpl) service).announcement();
+        }
+        return encode(service, now);
+    }
+
+    /**
+     * Encodes the announcement of the given service.
+     *
+     * @param service service
+     * @param now current instant
+     * @return the announcement of the given service
+     * @throws IOException in case of I/O error while encoding the announcement
+     */
+    static ServiceAnnouncement encode(final Service service, final Instant now) throws IOException {
+        final String hostname = service.hostname();
+        final String serviceName = service.name();
+        final short unique = uniqueClass(CLASS_IN);
+        /* no stamp when announcing, TTL will be the one given. */
+        final Optional<Instant> stamp = Optional.empty();
+        final Builder builder = DnsMessage
+            .response(FLAGS_AA)
+            .addAnswer(new PtrRecord(service.registrationPointerName(), CLASS_IN, TTL, now, serviceName), stamp)
+            .addAnswer(new SrvRecord(serviceName, unique, TTL, now, service.port(), hostname), stamp)
+            .addAnswer(new TxtRecord(serviceName, unique, TTL, now, service.attributes()), stamp);
+
+        service
+            .ipv4Address()
+            .ifPresent(a -> builder.addAnswer(new AddressRecord(hostname, unique, TTL, now, a), stamp));
+
+        service
+            .ipv6Address()
+            .ifPresent(a -> builder.addAnswer(new AddressRecord(hostname, unique, TTL, now, a), stamp));
+
+        final byte[] bytes = builder.get().encode();
+        final int[] ttlOffsets = ttlOffsets(bytes);
+        return new ServiceAnnouncement(bytes, ttlOffsets, pointerOffsets(bytes, ttlOffsets));
+    }
+
+    /**
+     * Returns the DNS responses announcing all the given services with the given time-to-live, packing the
+     * announcements of as many services as fit in {@link MulticastDnsSd#MAX_PACKET_SIZE} bytes in each response.
+     * <p>
+     * Encoded records are copied as is, only the time-to-live of each record, the compression pointers and the
+     * number of answers are patched: no record is decoded or re-encoded. An announcement that does not fit in a
+     * packet by itself is sent alone.
+     *
+     * @param announcements announcement of each service
+     * @param ttl time-to-live of each record, {@link Duration#ZERO} to announce that the services are going away
+     * @param now current instant
+     * @return the DNS responses, empty if there are no announcements
+     * @throws IOException in case of I/O error while indexing a response
+     */
+    static List<DnsMessage> messages(final List<ServiceAnnouncement> announcements, final Duration ttl,
+            final Instant now) throws IOException {
+        final List<DnsMessage> messages = new ArrayList<>();
+        int from = 0;
+        int size = DnsMessage.HEADER_SIZE;
+        for (int i = 0; i < announcements.size(); i++) {
+            final int asize = announcements.get(i).bytes.length - DnsMessage.HEADER_SIZE;
+            if (i > from && size + asize > MAX_PACKET_SIZE) {
+                messages.add(concatenate(announcements.subList(from, i), size, ttl, now));
+                from = i;
+                size = DnsMessage.HEADER_SIZE;
+            }
+            size += asize;
+        }
+        if (from < announcements.size()) {
+            messages.add(concatenate(announcements.subList(from, announcements.size()), size, ttl, now));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns a single DNS response holding the records of all the given announcements.
+     *
+     * @param announcements announcements
+     * @param size size of the response in bytes
+     * @param ttl time-to-live of each record
+     * @param now current instant
+     * @return DNS message
+     * @throws IOException in case of I/O error while indexing the response
+     */
+    private static DnsMessage concatenate(final List<ServiceAnnouncement> announcements, final int size,
+            final Duration ttl, final Instant now) throws IOException {
+        final byte[] packet = new byte[size];
+        /* all announcements have the same header but the number of answers. */
+        System.arraycopy(announcements.get(0).bytes, 0, packet, 0, DnsMessage.HEADER_SIZE);
+        int position = DnsMessage.HEADER_SIZE;
+        int count = 0;
+        for (final ServiceAnnouncement announcement : announcements) {
+            position = announcement.copyRecords(packet, position, ttl);
+            count += announcement.ttlOffsets.length;
+        }
+        /* number of answers. */
+        packet[6] = (byte) (count >> 8);
+        packet[7] = (byte) count;
+        return DnsMessage.preEncoded(packet, now);
+    }
+
+    /**
+     * Adds the offset of the compression pointer terminating the name encoded at the given offset, if any, to the
+     * given offsets.
+     *
+     * @param bytes encoded response
+     * @param offset offset of the name
+     * @param pointers offsets of the compression pointers found so far
+     */
+    private static void pointer(final byte[] bytes, final int offset, final List<Integer> pointers) {
+        int position = offset;
+        int length = bytes[position] & 0xFF;
+        while (length != 0 && (length & 0xC0) != 0xC0) {
+            position += length + 1;
+            length = bytes[position] & 0xFF;
+        }
+        if (length != 0) {
+            pointers.add(position);
+        }
+    }
+
+    /**
+     * Locates the compression pointers of the given encoded response, which has no question: names of the records
+     * and names in the data of PTR and SRV records.
+     *
+     * @param bytes encoded response
+     * @param ttlOffsets offset of the time-to-live of each record
+     * @return offset of each compression pointer
+     */
+    private static int[] pointerOffsets(final byte[] bytes, final int[] ttlOffsets) {
+        final List<Integer> pointers = new ArrayList<>();
+        int position = DnsMessage.HEADER_SIZE;
+        for (final int ttlOffset : ttlOffsets) {
+            pointer(bytes, position, pointers);
+            final short type = readShort(bytes, ttlOffset - 4);
+            final int data = ttlOffset + 6;
+            if (type == TYPE_PTR) {
+                pointer(bytes, data, pointers);
+            } else if (type == TYPE_SRV) {
+                /* priority, weight and port. */
+                pointer(bytes, data + 6, pointers);
+            }
+            position = data + (readShort(bytes, ttlOffset + 4) & 0xFFFF);
+        }
+        return pointers.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Reads the short encoded at the given offset.
+     *
+     * @param bytes encoded response
+     * @param offset offset
+     * @return short
+     */
+    private static short readShort(final byte[] bytes, final int offset) {
+        return (short) ((bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Locates the time-to-live of each record of the given encoded response, which has no question.
+     *
+     * @param bytes encoded response
+     * @return offset of the time-to-live of each record
+     * @throws IOException in case of I/O error while reading the response
+     */
+    private static int[] ttlOffsets(final byte[] bytes) throws IOException {
+        try (final MessageInputStream input = new MessageInputStream(bytes)) {
+            /* ID, flags and number of questions. */
+            input.readShort();
+            input.readShort();
+            input.readShort();
+            final int[] offsets = new int[input.readShort() + input.readShort() + input.readShort()];
+            for (int i = 0; i < offsets.length; i++) {
+                input.skipName();
+                /* type and class. */
+                input.readInt();
+                offsets[i] = input.position();
+                input.readInt();
+                final int length = input.readShort();
+                if (input.skip(length) != length) {
+                    throw new IOException("Record data exceeds message length.");
+                }
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * Copies the encoded records of this announcement into the given packet at the given position, patching the
+     * time-to-live of each record and shifting the compression pointers accordingly.
+     *
+     * @param packet packet
+     * @param position position of the records in the packet
+     * @param ttl time-to-live of each record
+     * @return the position following the records in the packet
+     */
+    private int copyRecords(final byte[] packet, final int position, final Duration ttl) {
+        final int length = bytes.length - DnsMessage.HEADER_SIZE;
+        final int shift = position - DnsMessage.HEADER_SIZE;
+        System.arraycopy(bytes, DnsMessage.HEADER_SIZE, packet, position, length);
+        final int seconds = (int) ttl.getSeconds();
+        for (final int offset : ttlOffsets) {
+            packet[offset + shift] = (byte) (seconds >> 24);
+            packet[offset + shift + 1] = (byte) (seconds >> 16);
+            packet[offset + shift + 2] = (byte) (seconds >> 8);
+            packet[offset + shift + 3] = (byte) seconds;
+        }
+        for (final int offset : pointerOffsets) {
+            /* 2 high bits flag a pointer, 14 low bits are the offset of the name it points to. */
+            final int pointer = (readShort(bytes, offset) & 0x3FFF) + shift;
+            packet[offset + shift] = (byte) (0xC0 | pointer >> 8);
+            packet[offset + shift + 1] = (byte) pointer;
+        }
+        return position + length;
+    }
+
+}
@@ -0,0 +1,162 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static io.omam.halo.MulticastDnsSd.toLowerCase;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Index of the services being announced or registered by Halo, used to answer queries without iterating over all
+ * of them.
+ * <p>
+ * Services are indexed by (lower case) hostname and by (lower case) registration pointer name. Within each index
+ * entry, services are keyed by (lower case) service name, so that a service being announced is atomically
+ * replaced by its registered counterpart once announced.
+ * <p>
+ * Updates are serialised, look-ups are not blocking.
+ */
+final class ServiceIndex {
+
+    /** services indexed by hostname, then by service name. */
+    private final Map<String, Map<String, Service>> byHostname;
+
+    /** services indexed by registration pointer name, then by service name. */
+    private final Map<String, Map<String, Service>> byRpn;
+
+    /**
+     * Constructor.
+     */
+    ServiceIndex() {
+        byHostname = new ConcurrentHashMap<>();
+        byRpn = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds the given service to the given index.
+     *
+     * @param index index
+     * @param key index key (lower case)
+     * @param service service
+     */
+    private static void add(final Map<String, Map<String, Service>> index, final String key,
+            final Service service) {
+        index.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(toLowerCase(service.name()), service);
+    }
+
+    /**
+     * Returns the services associated with the given key in the given index.
+     *
+     * @param index index
+     * @param key index key
+     * @return services, possibly empty
+     */
+    private static Collection<Service> get(final Map<String, Map<String, Service>> index, final String key) {
+        final Map<String, Service> services = index.get(toLowerCase(key));
+        return services == null ? Collections.emptyList() : services.values();
+    }
+
+    /**
+     * Removes the given service from the given index.
+     *
+     * @param index index
+     * @param key index key (lower case)
+     * @param service service
+     */
+    private static void remove(final Map<String, Map<String, Service>> index, final String key,
+            final Service service) {
+        index.computeIfPresent(key, (k, services) -> {
+            services.remove(toLowerCase(service.name()));
+            return services.isEmpty() ? null : services;
+        });
+    }
+
+    /**
+     * Returns all the services whose hostname is the given one, ignoring case.
+     *
+     * @param hostname hostname
+     * @return services, possibly empty
+     */
+    final Collection<Service> withHostname(final String hostname) {
+        return get(byHostname, hostname);
+    }
+
+    /**
+     * Returns all the services whose registration pointer name is the given one, ignoring case.
+     *
+     * @param rpn registration pointer name
+     * @return services, possibly empty
+     */
+    final Collection<Service> withRegistrationPointerName(final String rpn) {
+        return get(byRpn, rpn);
+    }
+
+    /**
+     * Returns the registration pointer names of all indexed services, without duplicates.
+     *
+     * @return registration pointer names
+     */
+    final Collection<String> registrationPointerNames() {
+        return byRpn
+            .values()
+            .stream()
+            .map(services -> services.values().stream().findFirst())
+            .filter(Optional::isPresent)
+            .map(s -> s.get().registrationPointerName())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Adds the given service to this index, replacing any indexed service with the same name.
+     *
+     * @param service service
+     */
+    final synchronized void put(final Service service) {
+        add(byHostname, toLowerCase(service.hostname()), service);
+        add(byRpn, toLowerCase(service.registrationPointerName()), service);
+    }
+
+    /**
+     * Removes the service with the name of the given service from this index.
+     *
+     * @param service service
+     */
+    final synchronized void remove(final Service service) {
+        remove(byHostname, toLowerCase(service.hostname()), service);
+        remove(byRpn, toLowerCase(service.registrationPointerName()), service);
+    }
+
+}
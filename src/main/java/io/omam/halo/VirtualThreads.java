@@ -0,0 +1,101 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to virtual threads (JDK 21 and later) from code compiled for Java 8: the virtual thread API is looked up
+ * reflectively once, and is reported as unavailable on older JDKs.
+ */
+final class VirtualThreads {
+
+    /** logger. */
+    private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+
+    /** {@code Thread.ofVirtual()}, if available. */
+    private static final Optional<Method> OF_VIRTUAL = method(Thread.class, "ofVirtual");
+
+    /**
+     * Constructor.
+     */
+    private VirtualThreads() {
+        // empty.
+    }
+
+    /**
+     * Returns a new executor starting a new virtual thread for each task, if virtual threads are supported by the
+     * running JDK.
+     *
+     * @param name thread name suffix
+     * @return a new executor, empty if virtual threads are not supported
+     */
+    static Optional<ExecutorService> newThreadPerTaskExecutor(final String name) {
+        if (!OF_VIRTUAL.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            final Object builder = OF_VIRTUAL.get().invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderClass.getMethod("name", String.class, long.class).invoke(builder, "halo-" + name + "-", 0L);
+            final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            final Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return Optional.of((ExecutorService) newExecutor.invoke(null, factory));
+        } catch (final ClassNotFoundException | NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException e) {
+            LOGGER.log(Level.WARNING, "Virtual threads cannot be created", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the public method of the given class with the given name and no parameter.
+     *
+     * @param clazz class
+     * @param name method name
+     * @return the method, empty if it does not exist
+     */
+    private static Optional<Method> method(final Class<?> clazz, final String name) {
+        try {
+            return Optional.of(clazz.getMethod(name));
+        } catch (final NoSuchMethodException e) {
+            return Optional.empty();
+        }
+    }
+
+}
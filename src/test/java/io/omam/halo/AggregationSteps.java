@@ -0,0 +1,160 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static io.omam.halo.Assert.assertDnsRecordsEquals;
+import static io.omam.halo.MulticastDnsSd.CLASS_IN;
+import static io.omam.halo.MulticastDnsSd.FLAGS_AA;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+
+import io.cucumber.datatable.DataTable;
+import io.cucumber.java.After;
+import io.cucumber.java.en.Given;
+import io.cucumber.java.en.Then;
+import io.cucumber.java.en.When;
+
+/**
+ * Steps to tests the aggregation of responses.
+ */
+@SuppressWarnings("javadoc")
+public final class AggregationSteps {
+
+    private final DnsFactory factory;
+
+    private ResponseAggregator aggregator;
+
+    private Instant now;
+
+    private final List<DnsMessage> sent;
+
+    private ScheduledExecutorService ses;
+
+    public AggregationSteps(final DnsFactory aFactory) {
+        factory = aFactory;
+        sent = new CopyOnWriteArrayList<>();
+    }
+
+    @After
+    public final void after() {
+        if (aggregator != null) {
+            aggregator.close();
+            aggregator = null;
+        }
+        if (ses != null) {
+            ses.shutdownNow();
+            ses = null;
+        }
+        now = null;
+        sent.clear();
+    }
+
+    @Given("a response aggregator delaying shared answers by {int} to {int} milliseconds has been created")
+    public final void givenAggregatorCreated(final int min, final int max) {
+        ses = Executors.newSingleThreadScheduledExecutor();
+        aggregator = new ResponseAggregator(sent::add, Duration.ofMillis(min), Duration.ofMillis(max),
+                                            Clock.systemUTC(), ses);
+    }
+
+    @Then("{int} answers shall be sent in several responses, each fitting in a packet")
+    public final void thenAnswersSentInSeveralResponses(final int count) {
+        await().atMost(Duration.ofSeconds(1)).until(() -> !sent.isEmpty());
+        assertTrue(sent.size() > 1);
+        assertEquals(count, sent.stream().mapToInt(r -> r.answers().size()).sum());
+        sent.forEach(r -> assertTrue(r.encode().length <= MAX_PACKET_SIZE));
+    }
+
+    @Then("{int} response(s) shall have been sent immediately")
+    public final void thenResponsesSentImmediately(final int count) {
+        assertEquals(count, sent.size());
+    }
+
+    @Then("a single response with the following answers shall be sent:")
+    public final void thenSingleResponseSent(final DataTable data) {
+        final List<Record> records = Parser.parse(data, Record::new);
+        final List<DnsRecord> expecteds =
+                records.stream().map(r -> factory.newRecord(r, now)).collect(Collectors.toList());
+        await().atMost(Duration.ofSeconds(1)).until(() -> !sent.isEmpty());
+        assertEquals(1, sent.size());
+        assertDnsRecordsEquals(expecteds, sent.get(0).answers());
+    }
+
+    @Then("a single response holding {int} answer(s) and {int} additional record(s) shall be sent")
+    public final void thenSingleResponseWithAdditionalSent(final int answers, final int additional) {
+        await().atMost(Duration.ofSeconds(1)).until(() -> !sent.isEmpty());
+        assertEquals(1, sent.size());
+        assertEquals(answers, sent.get(0).answerSection().size());
+        assertEquals(additional, sent.get(0).additional().size());
+    }
+
+    @When("the following answers are sent in separate responses:")
+    public final void whenAnswersSent(final DataTable data) {
+        final List<Record> records = Parser.parse(data, Record::new);
+        now = Instant.now();
+        final List<DnsMessage> responses = new ArrayList<>();
+        for (final Record r : records) {
+            responses.add(DnsMessage.response(FLAGS_AA).addAnswer(null, factory.newRecord(r, now)).get());
+        }
+        responses.forEach(aggregator::send);
+    }
+
+    @When("a shared answer is sent with its SRV record as additional record")
+    public final void whenSharedAnswerSentWithAdditional() {
+        now = Instant.now();
+        final String target = "Foo Bar._http._tcp.local.";
+        final DnsRecord ptr = new PtrRecord("_http._tcp.local.", CLASS_IN, Duration.ofHours(1), now, target);
+        final DnsRecord srv = new SrvRecord(target, CLASS_IN, Duration.ofHours(1), now, (short) 8009, "host.local.");
+        aggregator.send(DnsMessage.response(FLAGS_AA).addAnswer(null, ptr).addAdditional(srv).get());
+    }
+
+    @When("{int} shared answers are sent in separate responses")
+    public final void whenSharedAnswersSent(final int count) {
+        now = Instant.now();
+        for (int i = 0; i < count; i++) {
+            final String target = "Service " + i + "._http._tcp.local.";
+            final DnsRecord ptr = new PtrRecord("_http._tcp.local.", CLASS_IN, Duration.ofHours(1), now, target);
+            aggregator.send(DnsMessage.response(FLAGS_AA).addAnswer(null, ptr).get());
+        }
+    }
+
+}
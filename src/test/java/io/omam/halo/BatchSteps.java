@@ -0,0 +1,109 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import io.cucumber.java.After;
+import io.cucumber.java.Before;
+import io.cucumber.java.en.Then;
+import io.cucumber.java.en.When;
+
+/**
+ * Steps to tests the sequential execution of batches.
+ */
+@SuppressWarnings("javadoc")
+public final class BatchSteps {
+
+    private final List<String> executions;
+
+    private final Exceptions exceptions;
+
+    private SequentialBatchExecutor executor;
+
+    private ScheduledExecutorService ses;
+
+    public BatchSteps(final Exceptions someExceptions) {
+        executions = new CopyOnWriteArrayList<>();
+        exceptions = someExceptions;
+    }
+
+    @After
+    public final void after() {
+        executor.close();
+        executor = null;
+        ses.shutdownNow();
+        ses = null;
+        executions.clear();
+    }
+
+    @Before
+    public final void before() {
+        ses = Executors.newSingleThreadScheduledExecutor();
+        executor = new SequentialBatchExecutor(ses);
+    }
+
+    @Then("the batch {string} shall have been executed {int} time(s) within {string}")
+    public final void thenBatchExecuted(final String label, final int count, final String duration) {
+        await().atMost(Duration.parse(duration)).until(() -> executions(label) >= count);
+        assertEquals(count, executions(label));
+    }
+
+    @Then("the batches shall have been executed in the following order: {string}")
+    public final void thenBatchesExecutedInOrder(final String labels) {
+        assertEquals(Arrays.asList(labels.split(", ")), executions);
+    }
+
+    @When("a batch {string} of {int} execution(s) spaced by {string} is scheduled for {string}")
+    public final void whenBatchScheduled(final String label, final int size, final String delay, final String name) {
+        try {
+            executor.scheduleBatch(name, () -> {
+                executions.add(label);
+                return null;
+            }, size, Duration.parse(delay));
+        } catch (final IllegalArgumentException e) {
+            exceptions.thrown(e);
+        }
+    }
+
+    private long executions(final String label) {
+        return executions.stream().filter(label::equals).count();
+    }
+
+}
@@ -0,0 +1,354 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static io.omam.halo.Assert.assertDnsRecordsEquals;
+import static io.omam.halo.MulticastDnsHelper.classForName;
+import static io.omam.halo.MulticastDnsHelper.typeForName;
+import static io.omam.halo.MulticastDnsSd.CLASS_ANY;
+import static io.omam.halo.MulticastDnsSd.CLASS_IN;
+import static io.omam.halo.MulticastDnsSd.TYPE_ANY;
+import static io.omam.halo.MulticastDnsSd.TYPE_SRV;
+import static io.omam.halo.MulticastDnsSd.TYPE_TXT;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.cucumber.datatable.DataTable;
+import io.cucumber.java.After;
+import io.cucumber.java.Before;
+import io.cucumber.java.en.Given;
+import io.cucumber.java.en.Then;
+import io.cucumber.java.en.When;
+
+/**
+ * Steps to tests the cache of DNS records.
+ */
+@SuppressWarnings("javadoc")
+public final class CacheSteps {
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    private Cache cache;
+
+    private Duration elapsed;
+
+    private final DnsFactory factory;
+
+    private int found;
+
+    private final Set<String> interests;
+
+    private int nbNames;
+
+    private int nbRecords;
+
+    private int nbThreads;
+
+    private Instant now;
+
+    private Reaper reaper;
+
+    private List<DnsRecord> result;
+
+    private final List<DnsMessage> sent;
+
+    private ScheduledExecutorService ses;
+
+    private HaloStatisticsImpl statistics;
+
+    public CacheSteps(final DnsFactory aFactory) {
+        factory = aFactory;
+        interests = new HashSet<>();
+        sent = new CopyOnWriteArrayList<>();
+    }
+
+    private static String hostname(final int i) {
+        return "host-" + i + ".local.";
+    }
+
+    private static String serviceName(final int i) {
+        return "Service " + i + "._music._tcp.local.";
+    }
+
+    @After
+    public final void after() {
+        if (reaper != null) {
+            reaper.close();
+            reaper = null;
+        }
+        ses.shutdownNow();
+        ses = null;
+        cache = null;
+        elapsed = null;
+        found = 0;
+        interests.clear();
+        nbNames = 0;
+        nbRecords = 0;
+        nbThreads = 0;
+        now = null;
+        result = null;
+        sent.clear();
+        statistics = null;
+    }
+
+    @Before
+    public final void before() {
+        ses = Executors.newSingleThreadScheduledExecutor();
+        statistics = new HaloStatisticsImpl();
+        cache = new Cache(Clock.systemUTC(), Integer.MAX_VALUE, Long.MAX_VALUE, interests::contains, statistics);
+        now = Instant.now();
+    }
+
+    @Given("{string} has been looked up {int} times")
+    public final void givenLookedUp(final String name, final int times) {
+        for (int i = 0; i < times; i++) {
+            assertFalse(cache.getAll(name, TYPE_ANY, CLASS_ANY).isEmpty());
+        }
+    }
+
+    @Given("{string} is a name of interest")
+    public final void givenNameOfInterest(final String name) {
+        interests.add(name.toLowerCase());
+    }
+
+    @Given("the cache is bounded to {int} records and {int} bytes")
+    public final void givenCacheBounded(final int maxRecords, final int maxBytes) {
+        cache = new Cache(Clock.systemUTC(), maxRecords, maxBytes, interests::contains, statistics);
+    }
+
+    @Given("{int} address records have been cached")
+    public final void givenAddressRecordsCached(final int count) {
+        for (int i = 0; i < count; i++) {
+            final byte[] address = { 10, (byte) (i >> 16), (byte) (i >> 8), (byte) i };
+            try {
+                cache.add(new AddressRecord(hostname(i), CLASS_IN, TTL, now, InetAddress.getByAddress(address)));
+            } catch (final UnknownHostException e) {
+                throw new AssertionError(e);
+            }
+        }
+        nbRecords = count;
+    }
+
+    @Given("the cache reaper has been started")
+    public final void givenReaperStarted() {
+        reaper = new Reaper(cache, sent::add, ses);
+        reaper.start();
+    }
+
+    @Given("the following records have been cached:")
+    public final void givenRecordsCached(final DataTable data) {
+        final List<Record> records = Parser.parse(data, Record::new);
+        records.forEach(r -> cache.add(factory.newRecord(r, now)));
+    }
+
+    @Then("{string} shall be cached")
+    public final void thenCached(final String name) {
+        assertTrue(cache.contains(name));
+    }
+
+    @Then("{string} shall not be cached")
+    public final void thenNotCached(final String name) {
+        assertFalse(cache.contains(name));
+    }
+
+    @Then("{int} record(s) shall have been evicted from the cache")
+    public final void thenEvicted(final int count) {
+        assertEquals(count, statistics.evictedRecords());
+    }
+
+    @Then("every cached record shall be found within {string}")
+    public final void thenAllRecordsFound(final String duration) {
+        assertEquals(nbRecords, found);
+        assertTrue(elapsed.compareTo(Duration.parse(duration)) <= 0, "Lookups took " + elapsed);
+    }
+
+    @Then("{string} shall be removed from the cache within {string}")
+    public final void thenRecordRemoved(final String name, final String duration) {
+        await().atMost(Duration.parse(duration)).until(() -> !cache.contains(name));
+    }
+
+    @Then("no query shall have been sent for {string}")
+    public final void thenNoQuerySent(final String name) {
+        assertFalse(queried(name));
+    }
+
+    @Then("a query for {string} shall be sent within {string}")
+    public final void thenQuerySent(final String name, final String duration) {
+        await().atMost(Duration.parse(duration)).until(() -> queried(name));
+    }
+
+    @Then("{string} shall still be cached after {string}")
+    public final void thenRecordStillCached(final String name, final String duration) throws InterruptedException {
+        Thread.sleep(Duration.parse(duration).toMillis());
+        assertTrue(cache.contains(name));
+        assertFalse(cache.entries(name).isEmpty());
+    }
+
+    @Then("exactly one record per name, type, class and data shall be cached")
+    public final void thenOneRecordPerKey() {
+        for (int i = 0; i < nbNames; i++) {
+            final List<DnsRecord> records = cache.getAll(serviceName(i), TYPE_ANY, CLASS_ANY);
+            assertEquals(2 * nbThreads, records.size(), records.toString());
+            assertEquals(nbThreads, records.stream().filter(r -> r.type() == TYPE_TXT).count());
+            assertEquals(nbThreads, records.stream().filter(r -> r.type() == TYPE_SRV).count());
+        }
+    }
+
+    private boolean queried(final String name) {
+        return sent
+            .stream()
+            .flatMap(m -> m.questions().stream())
+            .anyMatch(q -> q.name().equalsIgnoreCase(name));
+    }
+
+    @Then("{int} records shall be returned")
+    public final void thenRecordsReturned(final int count) {
+        assertEquals(count, result.size(), result.toString());
+    }
+
+    @Then("the following records shall be returned:")
+    public final void thenRecordsReturned(final DataTable data) {
+        final List<Record> records = Parser.parse(data, Record::new);
+        final List<DnsRecord> expecteds =
+                records.stream().map(r -> factory.newRecord(r, now)).collect(Collectors.toList());
+        assertDnsRecordsEquals(expecteds, result);
+    }
+
+    @When("every cached address record is looked up")
+    public final void whenAddressRecordsLookedUp() {
+        final short type = typeForName("A");
+        final long start = System.nanoTime();
+        for (int i = 0; i < nbRecords; i++) {
+            if (cache.get(hostname(i), type, CLASS_IN).isPresent()) {
+                found++;
+            }
+        }
+        elapsed = Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    @When("the following records are cached again after {string}:")
+    public final void whenRecordsCachedAgain(final String duration, final DataTable data)
+            throws InterruptedException {
+        Thread.sleep(Duration.parse(duration).toMillis());
+        now = Instant.now();
+        givenRecordsCached(data);
+    }
+
+    @When("the cache is saved to a snapshot and reloaded after {string}")
+    public final void whenSnapshotReloaded(final String duration) throws IOException, InterruptedException {
+        final Path file = Files.createTempFile("halo", ".snapshot");
+        try {
+            new CacheSnapshot(cache, Clock.systemUTC(), file, ses).save();
+            Thread.sleep(Duration.parse(duration).toMillis());
+            cache = new Cache(Clock.systemUTC(), Integer.MAX_VALUE, Long.MAX_VALUE, interests::contains, statistics);
+            new CacheSnapshot(cache, Clock.systemUTC(), file, ses).load();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @When("the cache is periodically saved to a snapshot every {string} and reloaded after {string}")
+    public final void whenSnapshotPeriodicallySaved(final String interval, final String duration)
+            throws IOException, InterruptedException {
+        final Path file = Files.createTempFile("halo", ".snapshot");
+        Files.delete(file);
+        final CacheSnapshot snapshot = new CacheSnapshot(cache, Clock.systemUTC(), file, ses);
+        try {
+            snapshot.start(Duration.parse(interval));
+            Thread.sleep(Duration.parse(duration).toMillis());
+            assertTrue(Files.exists(file));
+            cache = new Cache(Clock.systemUTC(), Integer.MAX_VALUE, Long.MAX_VALUE, interests::contains, statistics);
+            new CacheSnapshot(cache, Clock.systemUTC(), file, ses).load();
+        } finally {
+            snapshot.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @When("the cache is searched for {string} of type {string} and class {string}")
+    public final void whenCacheSearched(final String name, final String type, final String clazz) {
+        result = new ArrayList<>(cache.getAll(name, typeForName(type), classForName(clazz)));
+        /* wildcard lookups return records in no particular order. */
+        result.sort(Comparator.comparing(DnsRecord::type));
+    }
+
+    @When("{int} threads concurrently cache {int} records for {int} service names")
+    public final void whenConcurrentlyCached(final int threads, final int count, final int names)
+            throws InterruptedException {
+        nbNames = names;
+        nbThreads = threads;
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < nbThreads; t++) {
+            final String server = "host-" + t + ".local.";
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < count; i++) {
+                    final String name = serviceName(i % names);
+                    cache.add(new TxtRecord(name, CLASS_IN, TTL, now, Attributes.create().with(server).get()));
+                    cache.add(new SrvRecord(name, CLASS_IN, TTL, now, (short) 8009, server));
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+}
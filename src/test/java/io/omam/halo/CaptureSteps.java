@@ -0,0 +1,246 @@
+/*
+Copyright 2018 - 2020 Cedric Liegeois
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright
+      notice, this list of conditions and the following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the following
+      disclaimer in the documentation and/or other materials provided
+      with the distribution.
+
+    * Neither the name of the copyright holder nor the names of other
+      contributors may be used to endorse or promote products derived
+      from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+package io.omam.halo;
+
+import static io.omam.halo.HaloProperties.ANNOUNCEMENT_NUM;
+import static io.omam.halo.HaloProperties.CANCELLING_INTERVAL;
+import static io.omam.halo.HaloProperties.CANCEL_NUM;
+import static io.omam.halo.HaloProperties.PROBE_NUM;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
+import static io.omam.halo.MulticastDnsSd.TYPE_SRV;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+
+import io.cucumber.java.After;
+import io.cucumber.java.en.Given;
+import io.cucumber.java.en.Then;
+
+/**
+ * Steps to capture and check the DNS messages sent on the network.
+ */
+@SuppressWarnings("javadoc")
+public final class CaptureSteps {
+
+    private final Collection<byte[]> packets;
+
+    private MulticastSocket socket;
+
+    public CaptureSteps() {
+        packets = new ConcurrentLinkedQueue<>();
+        socket = null;
+    }
+
+    @After
+    public final void after() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+        packets.clear();
+    }
+
+    @Given("the messages sent on the network are being captured")
+    public final void givenMessagesCaptured() throws IOException {
+        final MulticastSocket s = new MulticastSocket(HaloProperties.MDNS_PORT);
+        for (final NetworkInterface nic : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (nic.isUp() && nic.supportsMulticast()) {
+                try {
+                    s.joinGroup(HaloProperties.IPV4_SOA, nic);
+                } catch (final IOException e) {
+                    // ignore: no IPv4 on this interface.
+                }
+            }
+        }
+        socket = s;
+        final Thread capture = new Thread(() -> capture(s), "message-capture");
+        capture.setDaemon(true);
+        capture.start();
+    }
+
+    @Then("the {int} services of type {string} shall have been announced in responses fitting in a packet")
+    public final void thenAnnouncedInPackets(final int count, final String registrationType) throws IOException {
+        final String rpn = registrationType + "local.";
+        final Set<String> announced = new HashSet<>();
+        int responses = 0;
+        for (final byte[] packet : packets) {
+            final DnsMessage msg = DnsMessage.decode(packet, Instant.now());
+            final List<DnsRecord> ptrs = msg
+                .answers()
+                .stream()
+                .filter(a -> a instanceof PtrRecord && a.name().equalsIgnoreCase(rpn) && !a.ttl().isZero())
+                .collect(Collectors.toList());
+            if (msg.isResponse() && !ptrs.isEmpty()) {
+                assertTrue(packet.length <= MAX_PACKET_SIZE, "Response of " + packet.length + " bytes");
+                ptrs.forEach(ptr -> announced.add(((PtrRecord) ptr).target()));
+                responses++;
+            }
+        }
+        assertEquals(count, announced.size());
+        assertTrue(responses < count * ANNOUNCEMENT_NUM, "Responses: " + responses);
+    }
+
+    @Then("the goodbyes of the {int} services of type {string} shall have been sent in as few packets as possible, "
+        + "as many times as configured")
+    public final void thenGoodbyesSent(final int count, final String registrationType)
+            throws IOException, InterruptedException {
+        /* the first goodbyes have been sent: wait for the others. */
+        Thread.sleep(CANCELLING_INTERVAL.multipliedBy(CANCEL_NUM).toMillis());
+        final String rpn = registrationType + "local.";
+        final Set<String> cancelled = new HashSet<>();
+        /* the same goodbye is sent on each interface and at each repetition. */
+        final Map<ByteBuffer, Integer> goodbyes = new HashMap<>();
+        for (final byte[] packet : packets) {
+            final DnsMessage msg = DnsMessage.decode(packet, Instant.now());
+            final List<DnsRecord> ptrs = msg
+                .answers()
+                .stream()
+                .filter(a -> a instanceof PtrRecord && a.name().equalsIgnoreCase(rpn) && a.ttl().isZero())
+                .collect(Collectors.toList());
+            if (msg.isResponse() && !ptrs.isEmpty()) {
+                ptrs.forEach(ptr -> cancelled.add(((PtrRecord) ptr).target()));
+                goodbyes.merge(ByteBuffer.wrap(packet), 1, Integer::sum);
+            }
+        }
+        assertEquals(count, cancelled.size());
+        final int payload = MAX_PACKET_SIZE - DnsMessage.HEADER_SIZE;
+        final int bytes = goodbyes.keySet().stream().mapToInt(b -> b.remaining() - DnsMessage.HEADER_SIZE).sum();
+        final int packed = (bytes + payload - 1) / payload;
+        /* the announcement of a service is never split: up to one more packet may be needed. */
+        assertTrue(goodbyes.size() <= packed + 1, "Goodbyes sent in " + goodbyes.size() + " packets");
+        final Set<Integer> repetitions = new HashSet<>(goodbyes.values());
+        assertEquals(1, repetitions.size(), "Repetitions: " + goodbyes.values());
+        assertEquals(0, repetitions.iterator().next() % CANCEL_NUM, "Repetitions: " + goodbyes.values());
+    }
+
+    @Then("the queries sent for {string} shall hold {int} known answers within {string}")
+    public final void thenKnownAnswersSent(final String registrationType, final int count, final String duration) {
+        final String rpn = registrationType + "local.";
+        await().atMost(Duration.parse(duration)).until(() -> knownAnswers(rpn).size() == count);
+    }
+
+    @Then("the services of type {string} shall have been probed in several queries per probe, "
+        + "each holding the hostname of every probed service")
+    public final void thenProbedInSeveralQueries(final String registrationType) {
+        final String suffix = ("." + registrationType + "local.").toLowerCase();
+        final List<DnsMessage> probes = messages()
+            .stream()
+            .filter(m -> m.isQuery()
+                && m.authorities().stream().anyMatch(a -> a.name().toLowerCase().endsWith(suffix)))
+            .collect(Collectors.toList());
+        assertTrue(probes.size() >= 2 * PROBE_NUM, "Probes: " + probes.size());
+        for (final DnsMessage probe : probes) {
+            final List<DnsRecord> authorities = probe.authorities();
+            for (final DnsRecord authority : authorities) {
+                if (authority.type() == TYPE_SRV) {
+                    final String hostname = ((SrvRecord) authority).server();
+                    assertTrue(probe.questions().stream().anyMatch(q -> q.name().equalsIgnoreCase(hostname)),
+                               "No question for " + hostname + " in " + probe);
+                    assertTrue(authorities
+                        .stream()
+                        .anyMatch(a -> a instanceof AddressRecord && a.name().equalsIgnoreCase(hostname)),
+                               "No address of " + hostname + " in " + probe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Captures the DNS messages received by the given socket, until it is closed.
+     *
+     * @param s socket
+     */
+    private void capture(final MulticastSocket s) {
+        final byte[] buffer = new byte[MulticastDnsSd.MAX_DNS_MESSAGE_SIZE];
+        while (!s.isClosed()) {
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                s.receive(packet);
+                packets.add(Arrays.copyOf(buffer, packet.getLength()));
+            } catch (final IOException e) {
+                // ignore: socket closed.
+            }
+        }
+    }
+
+    /**
+     * Returns the targets of the PTR records of the given name sent as known answers in the captured queries.
+     *
+     * @param rpn registration pointer name
+     * @return targets of the PTR records sent as known answers
+     */
+    private Set<String> knownAnswers(final String rpn) {
+        return messages()
+            .stream()
+            .filter(DnsMessage::isQuery)
+            .flatMap(m -> m.answers().stream())
+            .filter(a -> a instanceof PtrRecord && a.name().equalsIgnoreCase(rpn))
+            .map(a -> ((PtrRecord) a).target())
+            .collect(Collectors.toSet());
+    }
+
+    /**
+     * Decodes the captured DNS messages, ignoring malformed messages.
+     *
+     * @return the captured DNS messages
+     */
+    private List<DnsMessage> messages() {
+        final List<DnsMessage> messages = new ArrayList<>();
+        for (final byte[] packet : packets) {
+            try {
+                messages.add(DnsMessage.decode(packet, Instant.now()));
+            } catch (final IOException e) {
+                // ignore: not sent by Halo.
+            }
+        }
+        return messages;
+    }
+
+}
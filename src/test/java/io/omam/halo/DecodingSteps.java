@@ -33,15 +33,33 @@ package io.omam.halo;
 import static io.omam.halo.Assert.assertDnsQuestionsEquals;
 import static io.omam.halo.Assert.assertDnsRecordsEquals;
 import static io.omam.halo.MulticastDnsHelper.flagsForName;
+import static io.omam.halo.MulticastDnsSd.CLASS_IN;
+import static io.omam.halo.MulticastDnsSd.FLAGS_AA;
+import static io.omam.halo.MulticastDnsSd.MAX_DNS_MESSAGE_SIZE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import io.cucumber.datatable.DataTable;
@@ -60,6 +78,8 @@ public final class DecodingSteps {
 
     private final Exceptions exceptions;
 
+    private long allocated;
+
     private Attributes attributes;
 
     private DnsMessage msg;
@@ -73,8 +93,37 @@ public final class DecodingSteps {
         exceptions = someExceptions;
     }
 
+    /**
+     * Receives the given buffer the given number of times with the given channel, queuing the given number of
+     * messages before dispatching them, and returns the average number of bytes allocated by the current thread
+     * per dispatched message.
+     */
+    private static long allocatedPerMessage(final HaloChannel channel, final Queue<Runnable> tasks,
+            final ByteBuffer buf, final int times, final int queued) throws IOException {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long tid = Thread.currentThread().getId();
+        final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 5353);
+        final long before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < times; i += queued) {
+            for (int j = 0; j < queued; j++) {
+                buf.rewind();
+                channel.received(address, buf);
+            }
+            /* dispatches all the queued messages on the current thread. */
+            Runnable task = tasks.poll();
+            while (task != null) {
+                task.run();
+                task = tasks.poll();
+            }
+        }
+        final long after = threads.getThreadAllocatedBytes(tid);
+        return (after - before) / times;
+    }
+
     @After
     public final void after() {
+        allocated = 0;
         attributes = null;
         msg = null;
         now = null;
@@ -86,6 +135,28 @@ public final class DecodingSteps {
         packet = Bytes.parse(data);
     }
 
+    @Given("a DNS response holding {int} answers has been received")
+    public final void givenResponseReceived(final int count) {
+        final Instant instant = Instant.now();
+        final DnsMessage.Builder builder = DnsMessage.response(FLAGS_AA);
+        for (int i = 0; i < count; i++) {
+            final String name = "service " + i + "._test._tcp.local.";
+            final DnsRecord srv = new SrvRecord(name, CLASS_IN, Duration.ofHours(1), instant, (short) 8009, "host.");
+            builder.addAnswer(srv, Optional.empty());
+        }
+        packet = builder.get().encode();
+    }
+
+    @Then("the packet shall not relate to {string}")
+    public final void thenPacketDoesNotRelateTo(final String name) throws IOException {
+        assertFalse(DnsMessage.anyNameMatches(ByteBuffer.wrap(packet), n -> n.equalsIgnoreCase(name)));
+    }
+
+    @Then("the packet shall relate to {string}")
+    public final void thenPacketRelatesTo(final String name) throws IOException {
+        assertTrue(DnsMessage.anyNameMatches(ByteBuffer.wrap(packet), n -> n.equalsIgnoreCase(name)));
+    }
+
     @Then("the following attributes shall be returned:")
     public final void thenAttributes(final DataTable data) {
         final List<String> pairs = data.asList();
@@ -97,6 +168,26 @@ public final class DecodingSteps {
                     "for key: " + pair.key()));
     }
 
+    @Then("the answers relating to {string} are the following:")
+    public final void thenAnswersRelatingTo(final String name, final DataTable data) {
+        final List<Record> records = Parser.parse(data, Record::new);
+        final List<DnsRecord> expecteds =
+                records.stream().map(r -> factory.newRecord(r, now)).collect(Collectors.toList());
+        assertDnsRecordsEquals(expecteds, msg.answers(n -> n.equalsIgnoreCase(name)));
+    }
+
+    @Then("{int} answers shall be read from it on another thread")
+    public final void thenAnswersReadOnAnotherThread(final int count)
+            throws ExecutionException, InterruptedException {
+        assertEquals(count, CompletableFuture.supplyAsync(() -> msg.answers()).get().size());
+    }
+
+    @Then("receiving and dispatching shall allocate less than {int} times the packet size per message")
+    public final void thenAllocatedPerMessage(final int times) {
+        final String message = "allocated bytes per message: " + allocated + ", packet size: " + packet.length;
+        assertTrue(allocated < times * packet.length, message);
+    }
+
     @Then("it contains the following answers:")
     public final void thenContainsAnswers(final DataTable data) {
         final List<Record> records = Parser.parse(data, Record::new);
@@ -153,4 +244,61 @@ public final class DecodingSteps {
             exceptions.thrown(e);
         }
     }
+
+    @When("the packet is decoded into a DNS message from a direct buffer")
+    public final void whenDecodePacketDnsMessageFromDirectBuffer() {
+        now = Clock.systemUTC().instant();
+        /* packet is placed in the middle of the buffer to check that only the remaining bytes are decoded. */
+        final ByteBuffer buf = ByteBuffer.allocateDirect(packet.length + 32);
+        buf.position(16);
+        buf.put(packet);
+        buf.flip();
+        buf.position(16);
+        try {
+            msg = DnsMessage.decode(buf, now);
+            assertEquals(16, buf.position());
+        } catch (final IOException e) {
+            exceptions.thrown(e);
+        }
+    }
+
+    @When("the packet is received by a channel and dispatched once the receive buffer has been reused")
+    public final void whenPacketReceivedAndBufferReused() throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(MAX_DNS_MESSAGE_SIZE);
+        buf.put(packet);
+        buf.flip();
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        try (final HaloChannel channel = HaloChannel
+            .allNetworkInterfaces(m -> msg = m, n -> true, new HaloStatisticsImpl(), Clock.systemUTC(),
+                    tasks::add)) {
+            channel.received(new InetSocketAddress(InetAddress.getLoopbackAddress(), 5353), buf);
+            Arrays.fill(buf.array(), (byte) 0xFF);
+            tasks.forEach(Runnable::run);
+        }
+        assertNotNull(msg);
+    }
+
+    @When("the packet is received {int} times by a channel dispatching {int} queued messages at a time")
+    public final void whenPacketReceivedRepeatedly(final int times, final int queued) throws IOException {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        /* packet is received in a buffer of the size used by the channel. */
+        final ByteBuffer buf = ByteBuffer.allocate(MAX_DNS_MESSAGE_SIZE);
+        buf.put(packet);
+        buf.flip();
+        /* dispatched messages are kept so that no allocation can be optimised away: records are not decoded. */
+        final DnsMessage[] dispatched = new DnsMessage[queued];
+        final AtomicInteger count = new AtomicInteger();
+        final Consumer<DnsMessage> listener = m -> dispatched[count.getAndIncrement() % queued] = m;
+        /* queued tasks are run by the current thread once all messages have been received. */
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+        try (final HaloChannel channel = HaloChannel
+            .allNetworkInterfaces(listener, n -> true, new HaloStatisticsImpl(), Clock.systemUTC(), tasks::add)) {
+            /* warm-up: the path is measured once compiled. */
+            allocatedPerMessage(channel, tasks, buf, times, queued);
+            allocated = allocatedPerMessage(channel, tasks, buf, times, queued);
+        }
+        assertEquals(2 * times, count.get());
+    }
 }
@@ -30,7 +30,21 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 package io.omam.halo;
 
+import static io.omam.halo.MulticastDnsSd.CLASS_IN;
+import static io.omam.halo.MulticastDnsSd.FLAGS_TC;
+import static io.omam.halo.MulticastDnsSd.MAX_PACKET_SIZE;
+import static io.omam.halo.MulticastDnsSd.TYPE_PTR;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 
 import io.cucumber.datatable.DataTable;
 import io.cucumber.java.After;
@@ -47,6 +61,12 @@ public final class EncodingSteps {
 
     private final DnsFactory factory;
 
+    private Optional<DnsMessage> merged;
+
+    private List<DnsMessage> queries;
+
+    private int nbKnownAnswers;
+
     public EncodingSteps(final DnsFactory aFactory) {
         factory = aFactory;
     }
@@ -54,6 +74,43 @@ public final class EncodingSteps {
     @After
     public final void after() {
         packet = null;
+        merged = null;
+        queries = null;
+        nbKnownAnswers = 0;
+    }
+
+    @Then("{int} DNS queries shall be created")
+    public final void thenDnsQueriesCreated(final int count) {
+        assertEquals(count, queries.size());
+    }
+
+    @Then("all DNS queries shall hold all known answers and fit in a single packet")
+    public final void thenDnsQueriesFit() {
+        int total = 0;
+        for (final DnsMessage query : queries) {
+            assertTrue(query.encode().length <= MAX_PACKET_SIZE);
+            total += query.answers().size();
+        }
+        assertEquals(nbKnownAnswers, total);
+    }
+
+    @Then("only the first DNS query shall hold the question")
+    public final void thenDnsQueriesQuestion() {
+        assertEquals(1, queries.get(0).questions().size());
+        queries.stream().skip(1).forEach(q -> assertTrue(q.questions().isEmpty()));
+    }
+
+    @Then("all DNS queries but the last shall be truncated")
+    public final void thenDnsQueriesTruncated() {
+        for (int i = 0; i < queries.size(); i++) {
+            final boolean truncated = (queries.get(i).flags() & FLAGS_TC) == FLAGS_TC;
+            assertEquals(i < queries.size() - 1, truncated);
+        }
+    }
+
+    @Then("the DNS message shall not be merged")
+    public final void thenDnsMessageNotMerged() {
+        assertFalse(merged.isPresent());
     }
 
     @Then("the packet shall contain the following bytes:")
@@ -70,9 +127,33 @@ public final class EncodingSteps {
         }
     }
 
+    @When("a DNS query for {string} is created with {int} PTR known answers")
+    public final void whenDnsQueryWithKnownAnswers(final String name, final int count) {
+        final Instant now = Instant.now();
+        final List<DnsRecord> knownAnswers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            knownAnswers.add(new PtrRecord(name, CLASS_IN, Duration.ofMinutes(75), now, "Speaker " + i + "." + name));
+        }
+        nbKnownAnswers = count;
+        queries = DnsMessage
+            .knownAnswerQueries(Collections.singletonList(new DnsQuestion(name, TYPE_PTR, CLASS_IN)), knownAnswers,
+                                now);
+    }
+
     @When("the DNS message is encoded")
     public final void whenDnsMessageEncoded() {
         packet = factory.message().encode();
     }
 
+    @When("the DNS message is merged with itself")
+    public final void whenDnsMessageMerged() {
+        merged = DnsMessage.merge(factory.message(), factory.message());
+    }
+
+    @When("the DNS message is merged with itself and encoded")
+    public final void whenDnsMessageMergedEncoded() {
+        whenDnsMessageMerged();
+        packet = merged.orElseThrow(AssertionError::new).encode();
+    }
+
 }
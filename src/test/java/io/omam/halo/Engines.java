@@ -31,6 +31,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package io.omam.halo;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 import java.io.IOException;
 import java.net.Inet6Address;
@@ -42,12 +43,15 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.jmdns.JmDNS;
 import javax.jmdns.ServiceInfo;
 
 import io.cucumber.java.After;
 import io.cucumber.java.en.Given;
+import io.cucumber.java.en.Then;
 
 /**
  * Steps pertaining to the creation of the JmDNS or Halo engine.
@@ -59,6 +63,8 @@ public final class Engines {
 
     private Halo halo;
 
+    private ScheduledExecutorService scheduler;
+
     /**
      * Constructor.
      */
@@ -117,8 +123,14 @@ public final class Engines {
                 jmdns.close();
             }
         } finally {
-            if (halo != null) {
-                halo.close();
+            try {
+                if (halo != null) {
+                    halo.close();
+                }
+            } finally {
+                if (scheduler != null) {
+                    scheduler.shutdownNow();
+                }
             }
         }
     }
@@ -140,6 +152,23 @@ public final class Engines {
         }
     }
 
+    @Given("a \"Halo\" instance has been created with a caller-supplied scheduler")
+    public final void givenInstanceCreatedWithScheduler() throws IOException {
+        if (halo != null) {
+            throw new AssertionError("Halo already created");
+        }
+        scheduler = Executors.newScheduledThreadPool(1);
+        halo = Halo.create(Clock.systemDefaultZone()).scheduler(scheduler).build();
+    }
+
+    @Then("the caller-supplied scheduler shall still be running once \"Halo\" has been closed")
+    public final void thenSchedulerRunning() {
+        assertNotNull(scheduler);
+        halo.close();
+        halo = null;
+        assertFalse(scheduler.isShutdown());
+    }
+
     final Halo halo() {
         return halo;
     }
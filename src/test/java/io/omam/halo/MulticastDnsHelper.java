@@ -47,13 +47,18 @@ final class MulticastDnsHelper {
     /**
      * Returns the value corresponding to the given class name.
      * <p>
-     * Example: {@code classForName("IN")} returns {@link MulticastDnsSd#CLASS_IN}.
+     * Example: {@code classForName("IN")} returns {@link MulticastDnsSd#CLASS_IN}. Several names can be combined
+     * with {@code +}: {@code classForName("IN+UNIQUE")} returns the unique {@link MulticastDnsSd#CLASS_IN} class.
      *
-     * @param name constant name
+     * @param name constant name(s)
      * @return constant value
      */
     static final short classForName(final String name) {
-        return (short) forName("CLASS_" + name);
+        int clazz = 0;
+        for (final String n : name.split("\\+")) {
+            clazz |= forName("CLASS_" + n);
+        }
+        return (short) clazz;
     }
 
     /**
@@ -34,11 +34,13 @@ import static io.omam.halo.Assert.assertServiceInfosEquals;
 import static io.omam.halo.Assert.assertServicesEquals;
 import static io.omam.halo.Engines.toHalo;
 import static io.omam.halo.Engines.toJmdns;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.jmdns.ServiceInfo;
 import javax.jmdns.impl.ServiceInfoImpl;
@@ -91,6 +93,17 @@ public final class RegistrationSteps {
         whenServicesRegistered(engine, data);
     }
 
+    @Given("{int} services of type {string} have been registered together with \"Halo\"")
+    public final void givenServicesRegisteredTogether(final int count, final String registrationType)
+            throws IOException {
+        whenServicesRegisteredTogether(count, registrationType);
+    }
+
+    @When("all the services are de-registered")
+    public final void whenAllServicesDeregistered() throws IOException {
+        engines.halo().deregisterAll();
+    }
+
     @When("the service {string} is de-registered")
     public final void thenDeregisterService(final String service) throws IOException {
         assertNotNull(registeredBy);
@@ -179,6 +192,39 @@ public final class RegistrationSteps {
         registeredBy = engine;
     }
 
+    @When("the following services are registered asynchronously with \"Halo\":")
+    public final void whenServicesRegisteredAsynchronously(final DataTable data) throws IOException {
+        final List<CompletableFuture<RegisteredService>> futures = new ArrayList<>();
+        for (final ServiceDetails service : Parser.parse(data, ServiceDetails::new)) {
+            futures.add(engines.halo().registerAsync(toHalo(service)).toCompletableFuture());
+        }
+        futures.forEach(f -> hss.add(f.join()));
+        registeredBy = "Halo";
+    }
+
+    @When("the following services are registered together with \"Halo\":")
+    public final void whenServicesRegisteredTogether(final DataTable data) throws IOException {
+        final List<RegisterableService> services = new ArrayList<>();
+        for (final ServiceDetails service : Parser.parse(data, ServiceDetails::new)) {
+            services.add(toHalo(service));
+        }
+        engines.halo().registerAll(services).values().forEach(s -> s.ifPresent(hss::add));
+        assertEquals(services.size(), hss.size());
+        registeredBy = "Halo";
+    }
+
+    @When("{int} services of type {string} are registered together with \"Halo\"")
+    public final void whenServicesRegisteredTogether(final int count, final String registrationType)
+            throws IOException {
+        final List<RegisterableService> services = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            services.add(RegisterableService.create("Service " + i, registrationType, 9000 + i).get());
+        }
+        engines.halo().registerAll(services).values().forEach(s -> s.ifPresent(hss::add));
+        assertEquals(count, hss.size());
+        registeredBy = "Halo";
+    }
+
     private RegisteredService haloService(final String service) {
         return hss
             .stream()
@@ -33,15 +33,19 @@ package io.omam.halo;
 import static io.omam.halo.Assert.assertServiceInfosEquals;
 import static io.omam.halo.Assert.assertServicesEquals;
 import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import javax.jmdns.ServiceInfo;
 
@@ -175,6 +179,29 @@ public final class ResolutionSteps {
         resolvedBy = engine;
     }
 
+    @When("the service {string} is resolved asynchronously by \"Halo\"")
+    public final void whenServiceResolvedAsynchronously(final String service) {
+        final String[] split = split(service);
+        final String instanceName = split[0];
+        final String registrationType = split[1];
+        halo.add(() -> engines.halo().resolveAsync(instanceName, registrationType).toCompletableFuture().get());
+        resolvedBy = "Halo";
+    }
+
+    @When("the services {string} and {string} are resolved together by \"Halo\"")
+    public final void whenServicesResolvedTogether(final String service1, final String service2) {
+        final String[] split1 = split(service1);
+        final String[] split2 = split(service2);
+        assertEquals(split1[1], split2[1]);
+        final CompletableFuture<Map<String, Optional<ResolvedService>>> future = engines
+            .halo()
+            .resolveAllAsync(Arrays.asList(split1[0], split2[0]), split1[1])
+            .toCompletableFuture();
+        halo.add(() -> future.get().get(split1[0]));
+        halo.add(() -> future.get().get(split2[0]));
+        resolvedBy = "Halo";
+    }
+
     private String[] split(final String service) {
         final int firstDot = service.indexOf('.');
         final String instanceName = service.substring(0, firstDot);
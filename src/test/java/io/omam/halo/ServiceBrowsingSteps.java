@@ -35,6 +35,8 @@ import static io.omam.halo.Assert.assertContainsAllServices;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -42,7 +44,9 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
 
 import javax.jmdns.ServiceEvent;
 import javax.jmdns.ServiceInfo;
@@ -66,17 +70,24 @@ public final class ServiceBrowsingSteps {
 
         private final Collection<ResolvedService> removed;
 
+        private final Function<ResolvedService, Optional<ResolvedService>> resolver;
+
         private final Collection<ResolvedService> updated;
 
         CollectingBrowserListener() {
+            this(Optional::of);
+        }
+
+        CollectingBrowserListener(final Function<ResolvedService, Optional<ResolvedService>> aResolver) {
             added = new ConcurrentLinkedQueue<>();
             removed = new ConcurrentLinkedQueue<>();
+            resolver = aResolver;
             updated = new ConcurrentLinkedQueue<>();
         }
 
         @Override
         public final void serviceAdded(final ResolvedService service) {
-            added.add(service);
+            resolver.apply(service).ifPresent(added::add);
         }
 
         @Override
@@ -150,6 +161,16 @@ public final class ServiceBrowsingSteps {
         browsedBy = null;
     }
 
+    private static Optional<ResolvedService> register(final Halo halo, final ResolvedService service) {
+        try {
+            final String name = "Mirror of " + service.instanceName();
+            halo.register(RegisterableService.create(name, "_mirror._tcp.", 9000).get());
+            return Optional.of(service);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @After
     public final void after() {
         hls.clear();
@@ -176,28 +197,28 @@ public final class ServiceBrowsingSteps {
 
     @Then("the listener {string} shall be notified of the following {string} services:")
     public final void thenListenerNotified(final String listener, final String eventType, final DataTable data) {
-        final List<ServiceDetails> services = Parser.parse(data, ServiceDetails::new);
-        /* sort expecteds and actuals by instance name. */
-        final List<ServiceDetails> expecteds = new ArrayList<>(services);
-        expecteds.sort(Comparator.comparing(ServiceDetails::instanceName));
         /* Halo and JmDNS service resolution timeout is 6 seconds. */
-        final Duration timeout = Duration.ofSeconds(services.size() * 6);
-        if (browsedBy.equals("Halo")) {
-            final CollectingBrowserListener l = hls.get(listener);
-            final Collection<ResolvedService> rservices;
-            if (eventType.equals("added")) {
-                rservices = l.added();
-            } else if (eventType.equals("removed")) {
-                rservices = l.removed();
-            } else {
-                rservices = l.updated();
-            }
-            await().atMost(timeout).untilAsserted(() -> assertContainsAllServices(expecteds, rservices));
-        } else {
-            assertEquals("added", eventType);
-            final CollectingServiceListener l = jls.get(listener);
-            await().atMost(timeout).untilAsserted(() -> assertContainsAllServiceInfos(expecteds, l.added()));
+        final int count = Parser.parse(data, ServiceDetails::new).size();
+        listenerNotified(listener, eventType, data, Duration.ofSeconds(count * 6L));
+    }
+
+    @Then("the listener {string} shall be notified of the following {string} services within {string}:")
+    public final void thenListenerNotifiedWithin(final String listener, final String eventType,
+            final String duration, final DataTable data) {
+        listenerNotified(listener, eventType, data, Duration.parse(duration));
+    }
+
+    @When("the following registration types are browsed with \"Halo\" by listeners registering a service for every added service:")
+    public final void whenRegistrationTypesBrowsedRegistering(final DataTable data) {
+        final Halo halo = engines.halo();
+        final List<RegistrationType> types = Parser.parse(data, RegistrationType::new);
+        for (final RegistrationType rt : types) {
+            /* the listener blocks until its service is registered. */
+            final CollectingBrowserListener l = new CollectingBrowserListener(s -> register(halo, s));
+            hls.put(rt.listenerName(), l);
+            hbs.put(rt.listenerName(), halo.browse(rt.registrationType(), l));
         }
+        browsedBy = "Halo";
     }
 
     @When("the following registration types are browsed with {string}:")
@@ -220,4 +241,28 @@ public final class ServiceBrowsingSteps {
         browsedBy = engine;
     }
 
+    private void listenerNotified(final String listener, final String eventType, final DataTable data,
+            final Duration timeout) {
+        final List<ServiceDetails> services = Parser.parse(data, ServiceDetails::new);
+        /* sort expecteds and actuals by instance name. */
+        final List<ServiceDetails> expecteds = new ArrayList<>(services);
+        expecteds.sort(Comparator.comparing(ServiceDetails::instanceName));
+        if (browsedBy.equals("Halo")) {
+            final CollectingBrowserListener l = hls.get(listener);
+            final Collection<ResolvedService> rservices;
+            if (eventType.equals("added")) {
+                rservices = l.added();
+            } else if (eventType.equals("removed")) {
+                rservices = l.removed();
+            } else {
+                rservices = l.updated();
+            }
+            await().atMost(timeout).untilAsserted(() -> assertContainsAllServices(expecteds, rservices));
+        } else {
+            assertEquals("added", eventType);
+            final CollectingServiceListener l = jls.get(listener);
+            await().atMost(timeout).untilAsserted(() -> assertContainsAllServiceInfos(expecteds, l.added()));
+        }
+    }
+
 }
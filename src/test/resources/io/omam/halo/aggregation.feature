@@ -0,0 +1,43 @@
+Feature: Response aggregation
+  
+  Responses holding shared records are delayed and merged into a single response as described in RFC 6762
+  section 6
+
+  Scenario: Shared answers are merged into a single response
+    Given a response aggregator delaying shared answers by 100 to 200 milliseconds has been created
+    When the following answers are sent in separate responses:
+      | serviceName       | recordType | recordClass | ttl  | target                    |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Baz._http._tcp.local. |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+    Then 0 responses shall have been sent immediately
+    And a single response with the following answers shall be sent:
+      | serviceName       | recordType | recordClass | ttl  | target                    |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Baz._http._tcp.local. |
+
+  Scenario: Shared answers are sent immediately when aggregation is disabled
+    Given a response aggregator delaying shared answers by 0 to 0 milliseconds has been created
+    When the following answers are sent in separate responses:
+      | serviceName       | recordType | recordClass | ttl  | target                    |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Baz._http._tcp.local. |
+    Then 2 responses shall have been sent immediately
+
+  Scenario: Answers multicast less than a second ago are suppressed
+    Given a response aggregator delaying shared answers by 0 to 0 milliseconds has been created
+    When the following answers are sent in separate responses:
+      | serviceName       | recordType | recordClass | ttl  | target                    |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+    Then 1 response shall have been sent immediately
+
+  Scenario: Merged answers are split into responses fitting in a packet
+    Given a response aggregator delaying shared answers by 100 to 200 milliseconds has been created
+    When 100 shared answers are sent in separate responses
+    Then 100 answers shall be sent in several responses, each fitting in a packet
+
+  Scenario: Additional records are kept in the additional section of the merged response
+    Given a response aggregator delaying shared answers by 100 to 200 milliseconds has been created
+    When a shared answer is sent with its SRV record as additional record
+    Then a single response holding 1 answer and 1 additional record shall be sent
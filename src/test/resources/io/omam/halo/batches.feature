@@ -0,0 +1,20 @@
+Feature: Sequential execution of batches
+  
+  Batches of messages associated to the same name are executed in order, one after the other, whereas batches
+  associated to different names never delay each other.
+
+  Scenario: A long batch does not delay a batch associated to another name
+    When a batch "A" of 5 executions spaced by "PT0.5S" is scheduled for "one"
+    And a batch "B" of 1 execution spaced by "PT0S" is scheduled for "two"
+    Then the batch "B" shall have been executed 1 time within "PT0.2S"
+    And the batch "A" shall have been executed 1 time within "PT0.2S"
+
+  Scenario: Batches associated to the same name are executed in order
+    When a batch "A" of 3 executions spaced by "PT0.1S" is scheduled for "one"
+    And a batch "B" of 2 executions spaced by "PT0S" is scheduled for "one"
+    Then the batch "B" shall have been executed 2 times within "PT1S"
+    And the batches shall have been executed in the following order: "A, A, A, B, B"
+
+  Scenario: Empty batches are rejected
+    When a batch "A" of 0 executions spaced by "PT0S" is scheduled for "one"
+    Then a "java.lang.IllegalArgumentException" shall be thrown with message containing "Batch size must be at least 1"
@@ -0,0 +1,168 @@
+Feature: DNS record cache
+  
+  DNS records are cached by name (ignoring case), type, class and data: shared records with the same
+  name, type and class are all kept, whereas caching a unique record replaces the records with the same
+  name, type and class received more than one second earlier. Records can be looked up with a wildcard
+  type or class.
+  Once the cache is full, records whose name is not of interest and that have been seen less frequently
+  are evicted first. Records whose name is of interest are refreshed before they expire. Records that
+  have not expired can be saved to a snapshot and reloaded with the same expiry.
+
+  Scenario: Cached record replaced by a unique record with the same name, type and class
+    Given the following records have been cached:
+      | serviceName                 | recordType | recordClass | ttl  | port | server       |
+      | Foo._music._tcp.local.      | SRV        | IN+UNIQUE   | PT1H | 8009 | host1.local. |
+    And the following records are cached again after "PT1.1S":
+      | serviceName                 | recordType | recordClass | ttl  | port | server       |
+      | FOO._MUSIC._TCP.local.      | SRV        | IN+UNIQUE   | PT1H | 8010 | host2.local. |
+    When the cache is searched for "foo._music._tcp.local." of type "SRV" and class "IN"
+    Then the following records shall be returned:
+      | serviceName                 | recordType | recordClass | ttl  | port | server       |
+      | FOO._MUSIC._TCP.local.      | SRV        | IN+UNIQUE   | PT1H | 8010 | host2.local. |
+
+  Scenario: Unique records received together are all kept
+    Given the following records have been cached:
+      | serviceName                 | recordType | recordClass | ttl  | port | server       |
+      | Foo._music._tcp.local.      | SRV        | IN+UNIQUE   | PT1H | 8009 | host1.local. |
+      | FOO._MUSIC._TCP.local.      | SRV        | IN+UNIQUE   | PT1H | 8010 | host2.local. |
+    When the cache is searched for "foo._music._tcp.local." of type "SRV" and class "IN"
+    Then 2 records shall be returned
+
+  Scenario: Shared records with the same name, type and class are all kept
+    Given the following records have been cached:
+      | serviceName        | recordType | recordClass | ttl  | target                 |
+      | _music._tcp.local. | PTR        | IN          | PT1H | Foo._music._tcp.local. |
+      | _music._tcp.local. | PTR        | IN          | PT1H | Bar._music._tcp.local. |
+      | _music._tcp.local. | PTR        | IN          | PT1H | Foo._music._tcp.local. |
+    When the cache is searched for "_music._tcp.local." of type "PTR" and class "IN"
+    Then 2 records shall be returned
+
+  Scenario: Cached records looked up with a wildcard type
+    Given the following records have been cached:
+      | serviceName | recordType | recordClass | ttl  | address     |
+      | host.local. | A          | IN          | PT1H | 192.168.1.2 |
+    And the following records have been cached:
+      | serviceName | recordType | recordClass | ttl  | port | server      |
+      | host.local. | SRV        | IN          | PT1H | 8009 | host.local. |
+    When the cache is searched for "host.local." of type "ANY" and class "IN"
+    Then the following records shall be returned:
+      | serviceName | recordType | recordClass | ttl  | address     | port | server      |
+      | host.local. | A          | IN          | PT1H | 192.168.1.2 |      |             |
+      | host.local. | SRV        | IN          | PT1H |             | 8009 | host.local. |
+
+  Scenario: Cached record with a wildcard class looked up with a given class
+    Given the following records have been cached:
+      | serviceName | recordType | recordClass | ttl  | address     |
+      | host.local. | A          | ANY         | PT1H | 192.168.1.2 |
+    When the cache is searched for "host.local." of type "A" and class "IN"
+    Then the following records shall be returned:
+      | serviceName | recordType | recordClass | ttl  | address     |
+      | host.local. | A          | ANY         | PT1H | 192.168.1.2 |
+
+  Scenario: Concurrently cached records are atomically added
+    When 8 threads concurrently cache 10000 records for 4 service names
+    Then exactly one record per name, type, class and data shall be cached
+
+  Scenario: Looking up 100k cached records
+    Given 100000 address records have been cached
+    When every cached address record is looked up
+    Then every cached record shall be found within "PT2S"
+
+  Scenario: Expired records are removed from the cache when they expire
+    Given the following records have been cached:
+      | serviceName | recordType | recordClass | ttl    | address     |
+      | host.local. | A          | IN          | PT0.5S | 192.168.1.2 |
+    And the cache reaper has been started
+    When the cache is searched for "host.local." of type "A" and class "IN"
+    Then the following records shall be returned:
+      | serviceName | recordType | recordClass | ttl    | address     |
+      | host.local. | A          | IN          | PT0.5S | 192.168.1.2 |
+    And "host.local." shall be removed from the cache within "PT2S"
+
+  Scenario: Refreshed records are not removed from the cache
+    Given the following records have been cached:
+      | serviceName | recordType | recordClass | ttl    | address     |
+      | host.local. | A          | IN          | PT0.5S | 192.168.1.2 |
+    And the cache reaper has been started
+    When the following records are cached again after "PT0.2S":
+      | serviceName | recordType | recordClass | ttl  | address     |
+      | host.local. | A          | IN          | PT1H | 192.168.1.2 |
+    Then "host.local." shall still be cached after "PT1S"
+
+  Scenario: Unsolicited records do not evict records that are looked up
+    Given the cache is bounded to 3 records and 4096 bytes
+    And the following records have been cached:
+      | serviceName  | recordType | recordClass | ttl  | address     |
+      | one.local.   | A          | IN          | PT1H | 192.168.1.1 |
+      | two.local.   | A          | IN          | PT1H | 192.168.1.2 |
+      | three.local. | A          | IN          | PT1H | 192.168.1.3 |
+    And "one.local." has been looked up 3 times
+    And "two.local." has been looked up 3 times
+    And "three.local." has been looked up 3 times
+    When 100 address records have been cached
+    Then "one.local." shall be cached
+    And "two.local." shall be cached
+    And "three.local." shall be cached
+    And 100 records shall have been evicted from the cache
+
+  Scenario: Records of names of interest are evicted last
+    Given the cache is bounded to 3 records and 4096 bytes
+    And "one.local." is a name of interest
+    And "four.local." is a name of interest
+    And the following records have been cached:
+      | serviceName  | recordType | recordClass | ttl  | address     |
+      | one.local.   | A          | IN          | PT1H | 192.168.1.1 |
+      | two.local.   | A          | IN          | PT1H | 192.168.1.2 |
+      | three.local. | A          | IN          | PT1H | 192.168.1.3 |
+      | four.local.  | A          | IN          | PT1H | 192.168.1.4 |
+    Then "one.local." shall be cached
+    And "two.local." shall not be cached
+    And "three.local." shall be cached
+    And "four.local." shall be cached
+    And 1 record shall have been evicted from the cache
+
+  Scenario: Records are evicted once the byte budget is exceeded
+    Given the cache is bounded to 100 records and 60 bytes
+    And "one.local." is a name of interest
+    And "two.local." is a name of interest
+    And "three.local." is a name of interest
+    And the following records have been cached:
+      | serviceName  | recordType | recordClass | ttl  | address     |
+      | one.local.   | A          | IN          | PT1H | 192.168.1.1 |
+      | two.local.   | A          | IN          | PT1H | 192.168.1.2 |
+      | three.local. | A          | IN          | PT1H | 192.168.1.3 |
+    Then "one.local." shall not be cached
+    And "two.local." shall be cached
+    And "three.local." shall be cached
+    And 1 record shall have been evicted from the cache
+
+  Scenario: Records of names of interest are refreshed before they expire
+    Given "one.local." is a name of interest
+    And the following records have been cached:
+      | serviceName | recordType | recordClass | ttl  | address     |
+      | one.local.  | A          | IN          | PT1S | 192.168.1.1 |
+      | two.local.  | A          | IN          | PT1S | 192.168.1.2 |
+    And the cache reaper has been started
+    Then a query for "one.local." shall be sent within "PT1S"
+    And "two.local." shall be removed from the cache within "PT2S"
+    And no query shall have been sent for "two.local."
+
+  Scenario: Records that have not expired are reloaded from a snapshot
+    Given the following records have been cached:
+      | serviceName            | recordType | recordClass | ttl    | address     | port | server      |
+      | host.local.            | A          | IN          | PT1H   | 192.168.1.2 |      |             |
+      | Foo._music._tcp.local. | SRV        | IN          | PT1H   |             | 8009 | host.local. |
+      | gone.local.            | A          | IN          | PT0.5S | 192.168.1.3 |      |             |
+    When the cache is saved to a snapshot and reloaded after "PT1S"
+    Then "host.local." shall be cached
+    And "Foo._music._tcp.local." shall be cached
+    And "gone.local." shall not be cached
+
+  Scenario: Records are periodically saved to a snapshot
+    Given the following records have been cached:
+      | serviceName            | recordType | recordClass | ttl  | address     | port | server      |
+      | host.local.            | A          | IN          | PT1H | 192.168.1.2 |      |             |
+      | Foo._music._tcp.local. | SRV        | IN          | PT1H |             | 8009 | host.local. |
+    When the cache is periodically saved to a snapshot every "PT0.1S" and reloaded after "PT0.5S"
+    Then "host.local." shall be cached
+    And "Foo._music._tcp.local." shall be cached
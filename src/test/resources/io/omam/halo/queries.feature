@@ -82,3 +82,16 @@ Feature: DNS queries
       | serviceName          | recordType | recordClass | ttl  | address                                 |
       | some.authority.ipv6. | AAAA       | IN          | PT1H | 2001:0db8:85a3:0000:0000:8a2e:0370:7334 |
       | some.authority.ipv4. | A          | IN          | PT1H | 192.168.154.0                           |
+
+  Scenario: Known answers fitting in a single packet
+    When a DNS query for "_music._tcp.local." is created with 10 PTR known answers
+    Then 1 DNS queries shall be created
+    And all DNS queries but the last shall be truncated
+    And all DNS queries shall hold all known answers and fit in a single packet
+
+  Scenario: Known answers split across several packets
+    When a DNS query for "_music._tcp.local." is created with 400 PTR known answers
+    Then 8 DNS queries shall be created
+    And only the first DNS query shall hold the question
+    And all DNS queries but the last shall be truncated
+    And all DNS queries shall hold all known answers and fit in a single packet
@@ -24,6 +24,52 @@ Feature: Service registration
       | instanceName        | registrationType | port | text      |
       | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
 
+  Scenario: Services registered together
+    Given a "Halo" instance has been created
+    And a "JmDNS" instance has been created
+    When the following services are registered together with "Halo":
+      | instanceName        | registrationType | port | text       |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text  |
+      | Kitchen Speaker     | _music._tcp.     | 9010 | Other Text |
+    Then the following registered services shall be returned:
+      | instanceName        | registrationType | port | text       |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text  |
+      | Kitchen Speaker     | _music._tcp.     | 9010 | Other Text |
+    When the service "Kitchen Speaker._music._tcp." is resolved by "JmDNS"
+    Then the following resolved services shall be returned:
+      | instanceName        | registrationType | port | text       |
+      | Kitchen Speaker     | _music._tcp.     | 9010 | Other Text |
+
+  Scenario: More services registered together than fit in a single packet
+    Given a "Halo" instance has been created
+    And the messages sent on the network are being captured
+    When 40 services of type "_many._tcp." are registered together with "Halo"
+    Then the services of type "_many._tcp." shall have been probed in several queries per probe, each holding the hostname of every probed service
+    And the 40 services of type "_many._tcp." shall have been announced in responses fitting in a packet
+
+  Scenario: More services de-registered together than fit in a single packet
+    Given a "Halo" instance has been created
+    And 40 services of type "_many._tcp." have been registered together with "Halo"
+    And the messages sent on the network are being captured
+    When all the services are de-registered
+    Then the goodbyes of the 40 services of type "_many._tcp." shall have been sent in as few packets as possible, as many times as configured
+
+  Scenario: Services registered asynchronously
+    Given a "Halo" instance has been created
+    And a "JmDNS" instance has been created
+    When the following services are registered asynchronously with "Halo":
+      | instanceName        | registrationType | port | text       |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text  |
+      | Kitchen Speaker     | _music._tcp.     | 9010 | Other Text |
+    Then the following registered services shall be returned:
+      | instanceName        | registrationType | port | text       |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text  |
+      | Kitchen Speaker     | _music._tcp.     | 9010 | Other Text |
+    When the service "Living Room Speaker._music._tcp." is resolved by "JmDNS"
+    Then the following resolved services shall be returned:
+      | instanceName        | registrationType | port | text       |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text  |
+
   Scenario: Service registration with unresolved instance name collision from registered services
     Given a "Halo" instance has been created
     And the following services have been registered with "Halo":
@@ -29,3 +29,18 @@ Feature: Registration types browsing
     Then the listener shall be notified of the following registration types:
       | _music._tcp.  |
       | _thingy._tcp. |
+
+  Scenario: Halo keeps answering registration type browsing queries after some services are de-registered
+    Given a "Halo" instance has been created
+    And the following services have been registered with "Halo":
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+      | Bedroom Speaker     | _music._tcp.     | 9010 | Some Text |
+      | Living Room Thingy  | _thingy._tcp.    | 9011 | Some Text |
+    And the service "Bedroom Speaker._music._tcp." is de-registered
+    And a "JmDNS" instance has been created
+    When the registration types are browsed with "JmDNS"
+    # Note: other DNS services may be running on the machine.
+    Then the listener shall be notified of the following registration types:
+      | _music._tcp.  |
+      | _thingy._tcp. |
@@ -24,6 +24,18 @@ Feature: Service resolution
       | instanceName        | registrationType | port | text      |
       | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
 
+  Scenario: Service resolved with a caller-supplied scheduler
+    Given a "Halo" instance has been created with a caller-supplied scheduler
+    And a "JmDNS" instance has been created
+    And the following services have been registered with "JmDNS":
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+    When the service "Living Room Speaker._music._tcp." is resolved by "Halo"
+    Then the following resolved services shall be returned:
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+    And the caller-supplied scheduler shall still be running once "Halo" has been closed
+
   Scenario: Unresolved service: never registered
     Given a "Halo" instance has been created
     When the service "Living Room Speaker._music._tcp." is resolved by "Halo"
@@ -47,3 +59,37 @@ Feature: Service resolution
     Then the following resolved services shall be returned:
       | instanceName        | registrationType | port | text      |
       | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+
+  Scenario: Service resolved asynchronously from messages
+    Given a "JmDNS" instance has been created
+    And the following services have been registered with "JmDNS":
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+    And a "Halo" instance has been created
+    When the service "Living Room Speaker._music._tcp." is resolved asynchronously by "Halo"
+    Then the following resolved services shall be returned:
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+
+  Scenario: Unresolved service resolved asynchronously
+    Given a "Halo" instance has been created
+    When the service "Living Room Speaker._music._tcp." is resolved asynchronously by "Halo"
+    Then no resolved service shall be returned
+
+  Scenario: Services resolved together from messages
+    Given a "JmDNS" instance has been created
+    And the following services have been registered with "JmDNS":
+      | instanceName        | registrationType | port | text       |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text  |
+      | Kitchen Speaker     | _music._tcp.     | 9010 | Other Text |
+    And a "Halo" instance has been created
+    When the services "Living Room Speaker._music._tcp." and "Kitchen Speaker._music._tcp." are resolved together by "Halo"
+    Then the following resolved services shall be returned:
+      | instanceName        | registrationType | port | text       |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text  |
+      | Kitchen Speaker     | _music._tcp.     | 9010 | Other Text |
+
+  Scenario: Unresolved services resolved together
+    Given a "Halo" instance has been created
+    When the services "Living Room Speaker._music._tcp." and "Kitchen Speaker._music._tcp." are resolved together by "Halo"
+    Then no resolved service shall be returned
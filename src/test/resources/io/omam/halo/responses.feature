@@ -17,6 +17,58 @@ Feature: DNS responses
       | 0x0  | 0x1f | 0x48 | 0x6  | 0x73 | 0x65 | 0x72 | 0x76 |
       | 0x65 | 0x72 | 0x3  | 0x6e | 0x65 | 0x74 | 0x0  |      |
 
+  Scenario: Packet from outgoing DNS response with compressed names
+    Given a DNS response has been created
+    And the following answers have been added:
+      | serviceName       | recordType | recordClass | ttl  | target                    |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+    And the following answers have been added:
+      | serviceName               | recordType | recordClass | ttl  | port | server      |
+      | Foo Bar._http._tcp.local. | SRV        | IN          | PT1H | 8080 | host.local. |
+    And the following answers have been added:
+      | serviceName | recordType | recordClass | ttl  | address     |
+      | host.local. | A          | IN          | PT1H | 192.168.1.2 |
+    When the DNS message is encoded
+    Then the packet shall contain the following bytes:
+      | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x3  |
+      | 0x0  | 0x0  | 0x0  | 0x0  | 0x5  | 0x5f | 0x68 | 0x74 |
+      | 0x74 | 0x70 | 0x4  | 0x5f | 0x74 | 0x63 | 0x70 | 0x5  |
+      | 0x6c | 0x6f | 0x63 | 0x61 | 0x6c | 0x0  | 0x0  | 0xc  |
+      | 0x0  | 0x1  | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0xa  |
+      | 0x7  | 0x46 | 0x6f | 0x6f | 0x20 | 0x42 | 0x61 | 0x72 |
+      | 0xc0 | 0xc  | 0xc0 | 0x28 | 0x0  | 0x21 | 0x0  | 0x1  |
+      | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0xd  | 0x0  | 0x0  |
+      | 0x0  | 0x0  | 0x1f | 0x90 | 0x4  | 0x68 | 0x6f | 0x73 |
+      | 0x74 | 0xc0 | 0x17 | 0xc0 | 0x44 | 0x0  | 0x1  | 0x0  |
+      | 0x1  | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0x4  | 0xc0 |
+      | 0xa8 | 0x1  | 0x2  |      |      |      |      |      |
+
+  Scenario: Packet from merged outgoing DNS responses
+    Given a DNS response has been created
+    And the following answers have been added:
+      | serviceName    | recordType | recordClass | ttl   | port | server      |
+      | foo.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
+    When the DNS message is merged with itself and encoded
+    Then the packet shall contain the following bytes:
+      | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x2  |
+      | 0x0  | 0x0  | 0x0  | 0x0  | 0x3  | 0x66 | 0x6f | 0x6f |
+      | 0x3  | 0x62 | 0x61 | 0x72 | 0x5  | 0x6c | 0x6f | 0x63 |
+      | 0x61 | 0x6c | 0x0  | 0x0  | 0x21 | 0x0  | 0x1  | 0x0  |
+      | 0x0  | 0xa  | 0x8c | 0x0  | 0x12 | 0x0  | 0x0  | 0x0  |
+      | 0x0  | 0x1f | 0x48 | 0x6  | 0x73 | 0x65 | 0x72 | 0x76 |
+      | 0x65 | 0x72 | 0x3  | 0x6e | 0x65 | 0x74 | 0x0  | 0xc0 |
+      | 0xc  | 0x0  | 0x21 | 0x0  | 0x1  | 0x0  | 0x0  | 0xa  |
+      | 0x8c | 0x0  | 0x8  | 0x0  | 0x0  | 0x0  | 0x0  | 0x1f |
+      | 0x48 | 0xc0 | 0x2b |      |      |      |      |      |
+
+  Scenario: DNS responses holding authorities are not merged
+    Given a DNS response has been created
+    And the following authorities have been added:
+      | serviceName    | recordType | recordClass | ttl   | port | server      |
+      | foo.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
+    When the DNS message is merged with itself
+    Then the DNS message shall not be merged
+
   Scenario: DNS response with an answer from incoming packet
     Given the following packet has been received:
       | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x1  |
@@ -33,6 +85,112 @@ Feature: DNS responses
       | serviceName    | recordType | recordClass | ttl   | port | server      |
       | foo.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
 
+  Scenario: DNS response with an answer decoded in place from a buffer
+    Given the following packet has been received:
+      | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x1  |
+      | 0x0  | 0x0  | 0x0  | 0x0  | 0x3  | 0x66 | 0x6f | 0x6f |
+      | 0x3  | 0x62 | 0x61 | 0x72 | 0x5  | 0x6c | 0x6f | 0x63 |
+      | 0x61 | 0x6c | 0x0  | 0x0  | 0x21 | 0x0  | 0x1  | 0x0  |
+      | 0x0  | 0xa  | 0x8c | 0x0  | 0x12 | 0x0  | 0x9a | 0x0  |
+      | 0x2  | 0x1f | 0x48 | 0x6  | 0x73 | 0x65 | 0x72 | 0x76 |
+      | 0x65 | 0x72 | 0x3  | 0x6e | 0x65 | 0x74 | 0x0  |      |
+    When the packet is decoded into a DNS message from a direct buffer
+    Then a DNS response with "QR_RESPONSE" flags shall be returned
+    And it contains no question
+    And it contains the following answers:
+      | serviceName    | recordType | recordClass | ttl   | port | server      |
+      | foo.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
+
+  # second record is a SRV record for baz.bar.local. whose names are compressed
+  Scenario: Only answers relating to a name are decoded when requested
+    Given the following packet has been received:
+      | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x2  |
+      | 0x0  | 0x0  | 0x0  | 0x0  | 0x3  | 0x66 | 0x6f | 0x6f |
+      | 0x3  | 0x62 | 0x61 | 0x72 | 0x5  | 0x6c | 0x6f | 0x63 |
+      | 0x61 | 0x6c | 0x0  | 0x0  | 0x21 | 0x0  | 0x1  | 0x0  |
+      | 0x0  | 0xa  | 0x8c | 0x0  | 0x12 | 0x0  | 0x9a | 0x0  |
+      | 0x2  | 0x1f | 0x48 | 0x6  | 0x73 | 0x65 | 0x72 | 0x76 |
+      | 0x65 | 0x72 | 0x3  | 0x6e | 0x65 | 0x74 | 0x0  | 0x3  |
+      | 0x62 | 0x61 | 0x7a | 0xc0 | 0x10 | 0x0  | 0x21 | 0x0  |
+      | 0x1  | 0x0  | 0x0  | 0xa  | 0x8c | 0x0  | 0x8  | 0x0  |
+      | 0x9a | 0x0  | 0x2  | 0x1f | 0x48 | 0xc0 | 0x2b |      |
+    When the packet is decoded into a DNS message
+    Then the answers relating to "BAZ.bar.local." are the following:
+      | serviceName    | recordType | recordClass | ttl   | port | server      |
+      | baz.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
+    And it contains the following answers:
+      | serviceName    | recordType | recordClass | ttl   | port | server      |
+      | foo.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
+      | baz.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
+
+  # PTR record for _http._tcp.local., SRV record for Foo Bar._http._tcp.local. and A record of its server host.local.
+  Scenario: Addresses of the server of a service are decoded along with the service
+    Given the following packet has been received:
+      | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x3  |
+      | 0x0  | 0x0  | 0x0  | 0x0  | 0x5  | 0x5f | 0x68 | 0x74 |
+      | 0x74 | 0x70 | 0x4  | 0x5f | 0x74 | 0x63 | 0x70 | 0x5  |
+      | 0x6c | 0x6f | 0x63 | 0x61 | 0x6c | 0x0  | 0x0  | 0xc  |
+      | 0x0  | 0x1  | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0xa  |
+      | 0x7  | 0x46 | 0x6f | 0x6f | 0x20 | 0x42 | 0x61 | 0x72 |
+      | 0xc0 | 0xc  | 0xc0 | 0x28 | 0x0  | 0x21 | 0x0  | 0x1  |
+      | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0xd  | 0x0  | 0x0  |
+      | 0x0  | 0x0  | 0x1f | 0x90 | 0x4  | 0x68 | 0x6f | 0x73 |
+      | 0x74 | 0xc0 | 0x17 | 0xc0 | 0x44 | 0x0  | 0x1  | 0x0  |
+      | 0x1  | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0x4  | 0xc0 |
+      | 0xa8 | 0x1  | 0x2  |      |      |      |      |      |
+    When the packet is decoded into a DNS message
+    Then the answers relating to "Foo Bar._http._tcp.local." are the following:
+      | serviceName               | recordType | recordClass | ttl  | port | server      | address     |
+      | Foo Bar._http._tcp.local. | SRV        | IN          | PT1H | 8080 | host.local. |             |
+      | host.local.               | A          | IN          | PT1H |      |             | 192.168.1.2 |
+
+  Scenario: Received DNS responses are only deemed relevant to the names they hold
+    Given the following packet has been received:
+      | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x3  |
+      | 0x0  | 0x0  | 0x0  | 0x0  | 0x5  | 0x5f | 0x68 | 0x74 |
+      | 0x74 | 0x70 | 0x4  | 0x5f | 0x74 | 0x63 | 0x70 | 0x5  |
+      | 0x6c | 0x6f | 0x63 | 0x61 | 0x6c | 0x0  | 0x0  | 0xc  |
+      | 0x0  | 0x1  | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0xa  |
+      | 0x7  | 0x46 | 0x6f | 0x6f | 0x20 | 0x42 | 0x61 | 0x72 |
+      | 0xc0 | 0xc  | 0xc0 | 0x28 | 0x0  | 0x21 | 0x0  | 0x1  |
+      | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0xd  | 0x0  | 0x0  |
+      | 0x0  | 0x0  | 0x1f | 0x90 | 0x4  | 0x68 | 0x6f | 0x73 |
+      | 0x74 | 0xc0 | 0x17 | 0xc0 | 0x44 | 0x0  | 0x1  | 0x0  |
+      | 0x1  | 0x0  | 0x0  | 0xe  | 0x10 | 0x0  | 0x4  | 0xc0 |
+      | 0xa8 | 0x1  | 0x2  |      |      |      |      |      |
+    Then the packet shall relate to "host.local."
+    And the packet shall not relate to "other.local."
+
+  Scenario: Received DNS responses remain valid once dispatched
+    Given a DNS response holding 20 answers has been received
+    When the packet is received by a channel and dispatched once the receive buffer has been reused
+    Then 20 answers shall be read from it on another thread
+
+  # the number of bytes allocated per message, from reception to dispatching, is measured on the current thread
+  Scenario: Received DNS responses allocate about their own size until dispatched
+    Given a DNS response holding 20 answers has been received
+    When the packet is received 10000 times by a channel dispatching 200 queued messages at a time
+    Then receiving and dispatching shall allocate less than 4 times the packet size per message
+
+  # second record is an A record with a 3 bytes address
+  Scenario: Malformed records are skipped
+    Given the following packet has been received:
+      | 0x0  | 0x0  | 0x80 | 0x0  | 0x0  | 0x0  | 0x0  | 0x2  |
+      | 0x0  | 0x0  | 0x0  | 0x0  | 0x3  | 0x66 | 0x6f | 0x6f |
+      | 0x3  | 0x62 | 0x61 | 0x72 | 0x5  | 0x6c | 0x6f | 0x63 |
+      | 0x61 | 0x6c | 0x0  | 0x0  | 0x21 | 0x0  | 0x1  | 0x0  |
+      | 0x0  | 0xa  | 0x8c | 0x0  | 0x12 | 0x0  | 0x9a | 0x0  |
+      | 0x2  | 0x1f | 0x48 | 0x6  | 0x73 | 0x65 | 0x72 | 0x76 |
+      | 0x65 | 0x72 | 0x3  | 0x6e | 0x65 | 0x74 | 0x0  | 0xc0 |
+      | 0xc  | 0x0  | 0x1  | 0x0  | 0x1  | 0x0  | 0x0  | 0x0  |
+      | 0x78 | 0x0  | 0x3  | 0xc0 | 0xa8 | 0x1  |      |      |
+    When the packet is decoded into a DNS message
+    Then a DNS response with "QR_RESPONSE" flags shall be returned
+    And it contains no question
+    And it contains the following answers:
+      | serviceName    | recordType | recordClass | ttl   | port | server      |
+      | foo.bar.local. | SRV        | IN          | PT45M | 8008 | server.net. |
+
   # type of second record is 34 (0x22) which is unsupported
   Scenario: Unsupported records are skipped
     Given the following packet has been received:
@@ -28,6 +28,19 @@ Feature: Services browsing by registration type
       | instanceName        | registrationType | port | text      |
       | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
 
+  Scenario: Listeners may block without holding up a caller-supplied scheduler
+    Given a "Halo" instance has been created with a caller-supplied scheduler
+    And a "JmDNS" instance has been created
+    And the following services have been registered with "JmDNS":
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+    When the following registration types are browsed with "Halo" by listeners registering a service for every added service:
+      | registrationType | listenerName |
+      | _music._tcp.     | music        |
+    Then the listener "music" shall be notified of the following "added" services within "PT15S":
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+
   Scenario: Service with a different registration type is ignored
     Given a "Halo" instance has been created
     And a "JmDNS" instance has been created
@@ -112,3 +125,12 @@ Feature: Services browsing by registration type
       | instanceName        | registrationType | port | text                       |
       | Bedroom Speaker     | _music._tcp.     | 9010 | Hello from the bedroom     |
       | Living Room Speaker | _music._tcp.     | 9011 | Hello from the living room |
+
+  Scenario: All the cached services of a registration type are sent as known answers
+    Given a "Halo" instance has been created
+    And 40 services of type "_many._tcp." have been registered together with "Halo"
+    And the messages sent on the network are being captured
+    When the following registration types are browsed with "Halo":
+      | registrationType | listenerName |
+      | _many._tcp.      | many         |
+    Then the queries sent for "_many._tcp." shall hold 40 known answers within "PT10S"
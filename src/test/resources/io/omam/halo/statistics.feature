@@ -0,0 +1,14 @@
+Feature: Statistics
+  
+  Halo counts the received messages and the messages dropped before being decoded because none of their
+  questions or answers relate to a name of interest (browsed registration types, services being resolved
+  or registered and cached records) or because too many received messages are waiting to be handled
+
+  Scenario: Messages unrelated to any name of interest are filtered
+    Given a "Halo" instance has been created
+    And a "JmDNS" instance has been created
+    When the following services are registered with "JmDNS":
+      | instanceName        | registrationType | port | text      |
+      | Living Room Speaker | _music._tcp.     | 9009 | Some Text |
+    Then uninteresting messages shall be filtered by Halo
+    And no received message shall be dropped by Halo
@@ -1,7 +1,7 @@
 Feature: DNS record suppression
   
-  A record is suppressed by another record if they share the same service name, type and class, and
-  if the other record's TTL is at least half of the reference record's TTL.
+  A record is suppressed by another record if they share the same service name, type, class and data,
+  and if the other record's TTL is at least half of the reference record's TTL.
   
   A record is suppressed by a message if any of the message answer, authority or additional record
   comply with the above
@@ -56,6 +56,16 @@ Feature: DNS record suppression
     When the record to record suppression check is performed
     Then the DNS record shall not be suppressed
 
+  Scenario: DNS record not suppressed by another record due to data
+    Given the following DNS record has been created:
+      | serviceName       | recordType | recordClass | ttl  | target                    |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Bar._http._tcp.local. |
+    And the following other DNS record has been created:
+      | serviceName       | recordType | recordClass | ttl  | target                    |
+      | _http._tcp.local. | PTR        | IN          | PT1H | Foo Baz._http._tcp.local. |
+    When the record to record suppression check is performed
+    Then the DNS record shall not be suppressed
+
   Scenario: DNS record suppressed by message due to answer
     Given the following DNS record has been created:
       | serviceName | recordType | recordClass | ttl  | text      |